@@ -0,0 +1,545 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Bancs d'essai des chemins critiques du cœur des comptes, pour repérer les régressions :
+ * création d'un compte (avec l'attribution de son IBAN), calcul des intérêts, demande de prêt,
+ * {@link CompteBancaire#toString()} et {@link AccountRenderer} (face à l'ancienne mise en forme par
+ * {@code String.format}), ainsi que recherche par IBAN, par titulaire, par solde ou par date d'ouverture,
+ * listage complet et virements (sans puis avec l'index des soldes abonné) avec un registre de 1 000,
+ * 1 000 000 et 10 000 000 comptes par défaut.
+ * <p>
+ * Chaque mesure enchaîne des itérations de chauffe puis de mesure d'une durée fixe, chacune faite de lots
+ * d'opérations dont seule l'exécution est chronométrée (la préparation d'un lot, par exemple des comptes
+ * neufs pour les prêts, ne compte pas). Sont rapportés le débit moyen et son écart type entre itérations,
+ * les octets alloués par opération et par seconde (compteur d'allocation du thread) et le nombre de
+ * ramasse-miettes pendant la mesure.
+ * <p>
+ * Usage : {@code java -Xmx4g AccountBenchmark [--tailles 1000,1000000] [--filtre recherche]
+ * [--chauffe 3] [--iterations 5] [--duree-ms 1000]} ; 10 millions de comptes demandent environ 3 Go de tas.
+ */
+public class AccountBenchmark {
+    private static final int LOT = 1 << 12;
+
+    private static final LocalDateTime ORIGINE = LocalDateTime.of(2020, 1, 1, 9, 0);
+
+    private static final String[] TITULAIRES = new String[1024];
+    static {
+        for (int i = 0; i < TITULAIRES.length; i++) {
+            TITULAIRES[i] = "Titulaire " + i;
+        }
+    }
+
+    /**
+     * Opération mesurée, exécutée par lots.
+     */
+    private interface Mesure {
+        /**
+         * Prépare le lot suivant, hors chronométrage.
+         *
+         * @param n Le nombre d'opérations du lot
+         */
+        default void preparer(int n) {
+        }
+
+        /**
+         * Exécute un lot.
+         *
+         * @param n Le nombre d'opérations
+         * @return Une valeur dépendant du résultat des opérations, pour qu'elles ne soient pas éliminées
+         */
+        long executer(int n);
+    }
+
+    private final int chauffe;
+    private final int iterations;
+    private final long dureeNanos;
+    private final String filtre;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private volatile long puits;
+
+    private AccountBenchmark(int chauffe, int iterations, long dureeMillis, String filtre) {
+        this.chauffe = chauffe;
+        this.iterations = iterations;
+        this.dureeNanos = dureeMillis * 1_000_000;
+        this.filtre = filtre;
+    }
+
+    /**
+     * Lance les bancs d'essai.
+     *
+     * @param args Voir la documentation de la classe
+     */
+    public static void main(String[] args) {
+        int[] tailles = {1_000, 1_000_000, 10_000_000};
+        int chauffe = 3;
+        int iterations = 5;
+        long dureeMillis = 1_000;
+        String filtre = "";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--tailles" -> {
+                    String[] valeurs = args[i + 1].split(",");
+                    tailles = new int[valeurs.length];
+                    for (int j = 0; j < valeurs.length; j++) {
+                        tailles[j] = Integer.parseInt(valeurs[j].trim());
+                    }
+                }
+                case "--chauffe" -> chauffe = Integer.parseInt(args[i + 1]);
+                case "--iterations" -> iterations = Integer.parseInt(args[i + 1]);
+                case "--duree-ms" -> dureeMillis = Long.parseLong(args[i + 1]);
+                case "--filtre" -> filtre = args[i + 1];
+                default -> System.out.println("Option ignorée : " + args[i]);
+            }
+        }
+        new AccountBenchmark(chauffe, iterations, dureeMillis, filtre).lancer(tailles);
+    }
+
+    private void lancer(int[] tailles) {
+        System.out.printf("%-22s %10s %14s %12s %10s %10s %5s%n", "banc", "comptes", "ops/s", "± écart", "o/op",
+                "Mo/s", "gc");
+        mesurerCompte();
+        AccountRegistry registre = new AccountRegistry();
+        AccountOperations operations = new AccountOperations(registre);
+        LongListe cles = new LongListe();
+        HolderIndex titulaires = new HolderIndex(registre);
+        OpeningDateIndex ouvertures = new OpeningDateIndex(registre);
+        for (int taille : tailles) {
+            remplir(registre, cles, taille);
+            mesurerRegistre(registre, cles);
+            mesurerTitulaires(titulaires, registre.taille());
+            mesurerVirements("virement", operations, cles);
+            // L'index des soldes n'est abonné que le temps de ses mesures, comme Main ne le construit qu'à la demande
+            BalanceIndex soldes = new BalanceIndex(registre);
+            mesurerVirements("virement (index)", operations, cles);
+            mesurerSoldes(soldes, registre.taille());
+            registre.retirerEcouteur(soldes);
+            mesurerOuvertures(ouvertures, registre.taille());
+        }
+    }
+
+    private void mesurerCompte() {
+        mesurer("creation", 0, n -> {
+            long somme = 0;
+            for (int i = 0; i < n; i++) {
+                somme += new CompteBancaire(TITULAIRES[i & 1023], i).getCodeIban();
+            }
+            return somme;
+        });
+        IbanGenerator generateur = CompteBancaire.getGenerateurIban();
+        mesurer("genererIban", 0, n -> {
+            long somme = 0;
+            for (int i = 0; i < n; i++) {
+                somme += generateur.prochain();
+            }
+            return somme;
+        });
+        // Prêts tous différents : le calcul ne peut pas être sorti de la boucle
+        CompteBancaire[] avecPrets = new CompteBancaire[1024];
+        for (int i = 0; i < avecPrets.length; i++) {
+            avecPrets[i] = new CompteBancaire(TITULAIRES[i], 100_000);
+            avecPrets[i].demanderPret(1_000_000 + i * 100L, 1 + i % 19, 1 + i % 30);
+        }
+        CompteBancaire avecPret = avecPrets[0];
+        mesurer("calculerInterets", 0, n -> {
+            long somme = 0;
+            for (int i = 0; i < n; i++) {
+                somme += avecPrets[i & 1023].calculerInterets();
+            }
+            return somme;
+        });
+        CompteBancaire[] neufs = new CompteBancaire[LOT];
+        mesurer("demanderPret", 0, new Mesure() {
+            @Override
+            public void preparer(int n) {
+                for (int i = 0; i < n; i++) {
+                    neufs[i] = new CompteBancaire(TITULAIRES[i & 1023], 100_000);
+                }
+            }
+
+            @Override
+            public long executer(int n) {
+                long somme = 0;
+                for (int i = 0; i < n; i++) {
+                    somme += neufs[i].demanderPret(1_000_000 + i, 3.5, 10) ? 1 : 0;
+                }
+                return somme;
+            }
+        });
+        CompteBancaire sansPret = new CompteBancaire("Titulaire", 123_456);
+        mesurer("toString", 0, n -> {
+            long somme = 0;
+            for (int i = 0; i < n; i++) {
+                somme += sansPret.toString().length();
+            }
+            return somme;
+        });
+        mesurer("toString (prêt)", 0, n -> {
+            long somme = 0;
+            for (int i = 0; i < n; i++) {
+                somme += avecPret.toString().length();
+            }
+            return somme;
+        });
+        mesurer("toString (format)", 0, n -> {
+            long somme = 0;
+            for (int i = 0; i < n; i++) {
+                somme += formatReference(avecPret).length();
+            }
+            return somme;
+        });
+        StringBuilder tampon = new StringBuilder(256);
+        mesurer("rendu", 0, n -> {
+            long somme = 0;
+            for (int i = 0; i < n; i++) {
+                tampon.setLength(0);
+                somme += AccountRenderer.ecrire(sansPret, tampon).length();
+            }
+            return somme;
+        });
+        mesurer("rendu (prêt)", 0, n -> {
+            long somme = 0;
+            for (int i = 0; i < n; i++) {
+                tampon.setLength(0);
+                somme += AccountRenderer.ecrire(avecPret, tampon).length();
+            }
+            return somme;
+        });
+    }
+
+    private void mesurerRegistre(AccountRegistry registre, LongListe cles) {
+        int taille = registre.taille();
+        // Accès aléatoires : à grande taille, chaque recherche manque le cache comme en production
+        SplittableRandom hasard = new SplittableRandom(42);
+        String[] ibans = new String[1 << 16];
+        for (int i = 0; i < ibans.length; i++) {
+            ibans[i] = Iban.formater(cles.get(hasard.nextInt(cles.taille())));
+        }
+        mesurer("trouverCompteParIban", taille, new Mesure() {
+            private int suivant;
+
+            @Override
+            public long executer(int n) {
+                long somme = 0;
+                for (int i = 0; i < n; i++) {
+                    somme += registre.trouver(ibans[suivant++ & (ibans.length - 1)]).getSolde();
+                }
+                return somme;
+            }
+        });
+        mesurer("trouver (clé)", taille, new Mesure() {
+            private final SplittableRandom tirage = new SplittableRandom(7);
+
+            @Override
+            public long executer(int n) {
+                long somme = 0;
+                for (int i = 0; i < n; i++) {
+                    somme += registre.trouver(cles.get(tirage.nextInt(cles.taille()))).getSolde();
+                }
+                return somme;
+            }
+        });
+        // IBAN bien formés tirés au hasard : presque tous absents, comme une saisie erronée
+        mesurer("trouver (absent)", taille, new Mesure() {
+            private final SplittableRandom tirage = new SplittableRandom(11);
+
+            @Override
+            public long executer(int n) {
+                long trouves = 0;
+                for (int i = 0; i < n; i++) {
+                    if (registre.ligne(tirage.nextLong(Iban.BORNE)) >= 0) {
+                        trouves++;
+                    }
+                }
+                return trouves;
+            }
+        });
+        // Listage du menu : une ligne formatée par compte, écrite vers une sortie qui ignore les octets
+        PrintStream sortie = new PrintStream(OutputStream.nullOutputStream());
+        mesurer("listage (par compte)", taille, new Mesure() {
+            private Iterator<CompteBancaire> parcours = registre.iterator();
+            private int numero;
+
+            @Override
+            public long executer(int n) {
+                for (int i = 0; i < n; i++) {
+                    if (!parcours.hasNext()) {
+                        parcours = registre.iterator();
+                        numero = 0;
+                    }
+                    sortie.printf("%d. %s\n", ++numero, parcours.next());
+                }
+                return numero;
+            }
+        });
+        // Listage de Main : rendu depuis le stockage dans un tampon vidé vers la sortie par paquets
+        StringBuilder lignes = new StringBuilder(80 * 1024);
+        mesurer("listage rendu", taille, new Mesure() {
+            private int ligne = registre.premiereLigne();
+            private int numero;
+
+            @Override
+            public long executer(int n) {
+                for (int i = 0; i < n; i++) {
+                    if (ligne < 0) {
+                        ligne = registre.premiereLigne();
+                        numero = 0;
+                    }
+                    AccountRenderer.ecrire(registre.stockage(), ligne, lignes.append(++numero).append(". "))
+                            .append('\n');
+                    if (lignes.length() >= 64 * 1024) {
+                        sortie.print(lignes);
+                        lignes.setLength(0);
+                    }
+                    ligne = registre.ligneSuivante(ligne);
+                }
+                return numero;
+            }
+        });
+    }
+
+    private void mesurerVirements(String nom, AccountOperations operations, LongListe cles) {
+        // Virements d'un centime entre comptes tirés au hasard, sous les verrous de tranche
+        mesurer(nom, cles.taille(), new Mesure() {
+            private final SplittableRandom tirage = new SplittableRandom(13);
+
+            @Override
+            public long executer(int n) {
+                long effectues = 0;
+                for (int i = 0; i < n; i++) {
+                    long source = cles.get(tirage.nextInt(cles.taille()));
+                    long destination = cles.get(tirage.nextInt(cles.taille()));
+                    if (operations.virer(source, destination, 1)) {
+                        effectues++;
+                    }
+                }
+                return effectues;
+            }
+        });
+    }
+
+    private void mesurerTitulaires(HolderIndex titulaires, int taille) {
+        // Chaque nom de TITULAIRES désigne taille / 1024 comptes
+        mesurer("titulaire (exact)", taille, new Mesure() {
+            private int suivant;
+
+            @Override
+            public long executer(int n) {
+                long somme = 0;
+                for (int i = 0; i < n; i++) {
+                    somme += titulaires.trouver(TITULAIRES[suivant++ & 1023]).length;
+                }
+                return somme;
+            }
+        });
+        String[] prefixes = new String[1024];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = TITULAIRES[i].substring(0, TITULAIRES[i].length() - 1);
+        }
+        mesurer("titulaire (préfixe)", taille, new Mesure() {
+            private int suivant;
+
+            @Override
+            public long executer(int n) {
+                long somme = 0;
+                for (int i = 0; i < n; i++) {
+                    somme += titulaires.commencantPar(prefixes[suivant++ & 1023], 20).length;
+                }
+                return somme;
+            }
+        });
+    }
+
+    private void mesurerSoldes(BalanceIndex soldes, int taille) {
+        // Soldes de remplir : i * 100 centimes, plus 10 000 € pour un compte sur trois
+        long soldeMax = taille * 100L + 1_000_000;
+        mesurer("solde (compter)", taille, new Mesure() {
+            private final SplittableRandom tirage = new SplittableRandom(11);
+
+            @Override
+            public long executer(int n) {
+                long somme = 0;
+                for (int i = 0; i < n; i++) {
+                    long min = tirage.nextLong(soldeMax);
+                    somme += soldes.compter(min, min + soldeMax / 100);
+                }
+                return somme;
+            }
+        });
+        mesurer("solde (plage, 100)", taille, new Mesure() {
+            private final SplittableRandom tirage = new SplittableRandom(13);
+
+            @Override
+            public long executer(int n) {
+                long somme = 0;
+                for (int i = 0; i < n; i++) {
+                    long min = tirage.nextLong(soldeMax);
+                    somme += soldes.entre(min, Long.MAX_VALUE, 100).length;
+                }
+                return somme;
+            }
+        });
+        mesurer("solde (top 100)", taille, n -> {
+            long somme = 0;
+            for (int i = 0; i < n; i++) {
+                somme += soldes.plusGrosSoldes(100).length;
+            }
+            return somme;
+        });
+    }
+
+    private void mesurerOuvertures(OpeningDateIndex ouvertures, int taille) {
+        int jours = (int) (taille / 86_400L) + 1;
+        LocalDate premier = ORIGINE.toLocalDate();
+        mesurer("ouverture (compter)", taille, new Mesure() {
+            private final SplittableRandom tirage = new SplittableRandom(17);
+
+            @Override
+            public long executer(int n) {
+                long somme = 0;
+                for (int i = 0; i < n; i++) {
+                    LocalDateTime debut = ORIGINE.plusSeconds(tirage.nextInt(taille));
+                    somme += ouvertures.compter(debut, debut.plusHours(1));
+                }
+                return somme;
+            }
+        });
+        mesurer("ouverture (30 jours)", taille, new Mesure() {
+            private final SplittableRandom tirage = new SplittableRandom(19);
+
+            @Override
+            public long executer(int n) {
+                long somme = 0;
+                for (int i = 0; i < n; i++) {
+                    somme += ouvertures.parJour(premier.plusDays(tirage.nextInt(jours)), 30)[0];
+                }
+                return somme;
+            }
+        });
+    }
+
+    /**
+     * Mise en forme de {@link CompteBancaire#toString()} avant {@link AccountRenderer}, comme référence :
+     * même chaîne de format et mêmes arguments en double (montants en euros, intérêts en double).
+     */
+    private static String formatReference(CompteBancaire compte) {
+        double solde = compte.getSolde() / 100.0;
+        double montantPret = compte.getMontantPret() / 100.0;
+        double tauxInteret = compte.getTauxInteret();
+        double dureePret = compte.getDureePret();
+        String texte = String.format("IBAN: %s, Titulaire: %s, Solde: %.2f€, Ouverture: %s",
+                compte.getIban(), compte.getTitulaire(), solde, compte.getDateOuverture());
+        if (montantPret > 0) {
+            double interets = montantPret * (tauxInteret / 100) * dureePret;
+            texte += String.format(", Prêt: %.2f€ (Taux: %.2f%%, Durée: %.1f ans, Intérêts: %.2f€)",
+                    montantPret, tauxInteret, dureePret, interets);
+        }
+        return texte;
+    }
+
+    /**
+     * Complète le registre jusqu'à la taille demandée.
+     */
+    private static void remplir(AccountRegistry registre, LongListe cles, int taille) {
+        IbanGenerator generateur = CompteBancaire.getGenerateurIban();
+        long ouverture = AccountStore.encoderDate(ORIGINE);
+        for (int i = registre.taille(); i < taille; i++) {
+            long cle = generateur.prochain();
+            // Une ouverture par seconde depuis ORIGINE
+            registre.ajouter(cle, TITULAIRES[i & 1023], i * 100L, ouverture + i * 1_000_000_000L);
+            if (i % 3 == 0) {
+                registre.definirPret(registre.ligne(cle), 1_000_000, 3.5, 10, i * 100L + 1_000_000);
+            }
+            cles.ajouter(cle);
+        }
+    }
+
+    private void mesurer(String nom, int taille, Mesure mesure) {
+        if (!nom.contains(filtre)) {
+            return;
+        }
+        for (int i = 0; i < chauffe; i++) {
+            iteration(mesure);
+        }
+        List<double[]> resultats = new ArrayList<>();
+        long gc = collectes();
+        for (int i = 0; i < iterations; i++) {
+            resultats.add(iteration(mesure));
+        }
+        gc = collectes() - gc;
+        double debit = 0;
+        double octets = 0;
+        for (double[] r : resultats) {
+            debit += r[0] / resultats.size();
+            octets += r[1] / resultats.size();
+        }
+        double variance = 0;
+        for (double[] r : resultats) {
+            variance += (r[0] - debit) * (r[0] - debit) / Math.max(1, resultats.size() - 1);
+        }
+        System.out.printf("%-22s %10s %14.0f %12.0f %10.1f %10.1f %5d%n", nom, taille == 0 ? "-" : taille, debit,
+                Math.sqrt(variance), octets, octets * debit / (1 << 20), gc);
+    }
+
+    /**
+     * @return Le débit en opérations par seconde et les octets alloués par opération
+     */
+    private double[] iteration(Mesure mesure) {
+        long operations = 0;
+        long nanos = 0;
+        long octets = 0;
+        long somme = 0;
+        while (nanos < dureeNanos) {
+            mesure.preparer(LOT);
+            long alloues = threads.getCurrentThreadAllocatedBytes();
+            long debut = System.nanoTime();
+            somme += mesure.executer(LOT);
+            nanos += System.nanoTime() - debut;
+            octets += threads.getCurrentThreadAllocatedBytes() - alloues;
+            operations += LOT;
+        }
+        puits = somme;
+        return new double[] {operations * 1e9 / nanos, (double) octets / operations};
+    }
+
+    private static long collectes() {
+        long total = 0;
+        for (GarbageCollectorMXBean collecteur : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collecteur.getCollectionCount());
+        }
+        return total;
+    }
+
+    /**
+     * Liste de clés sans emballage, pour tirer des IBAN existants sans allouer.
+     */
+    private static final class LongListe {
+        private long[] valeurs = new long[1024];
+        private int taille;
+
+        void ajouter(long valeur) {
+            if (taille == valeurs.length) {
+                valeurs = Arrays.copyOf(valeurs, taille * 2);
+            }
+            valeurs[taille++] = valeur;
+        }
+
+        long get(int indice) {
+            return valeurs[indice];
+        }
+
+        int taille() {
+            return taille;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Export de tous les comptes dans un fichier, en flux, sans passer par {@link CompteBancaire#toString()}.
+ * <p>
+ * Les comptes sont lus ligne par ligne du stockage, chacun sous le verrou de sa tranche : chaque compte
+ * exporté est cohérent, et les autres sessions continuent de travailler pendant l'export. Les champs sont
+ * écrits à la main (chiffres, dates, UTF-8, voir {@link SortieOctets}) dans un tampon direct de taille fixe
+ * vidé dans le fichier à mesure, si bien que la mémoire utilisée ne dépend pas du nombre de comptes.
+ * <p>
+ * Formats :
+ * <ul>
+ * <li>{@link Format#CSV} : en-tête puis {@code iban;titulaire;solde;ouverture;pret;taux;duree}, montants en
+ * euros avec un point décimal, date ISO 8601 à la nanoseconde, titulaire entre guillemets au besoin ;</li>
+ * <li>{@link Format#BINAIRE} (petit-boutiste) : magique (4), version (4), puis pour chaque compte IBAN (8),
+ * solde en centimes (8), ouverture (8, voir {@link AccountStore#encoderDate}), prêt en centimes (8),
+ * taux (8), durée (8), longueur du nom (4), nom en UTF-8 ; enfin le nombre de comptes (8).</li>
+ * </ul>
+ */
+public class AccountExporter {
+    private static final int MAGIQUE = 0x45585054; // "EXPT"
+    private static final int VERSION = 1;
+    private static final int TAILLE_TAMPON = 1 << 22;
+    // Place réservée pour les champs d'un compte hors nom, quel que soit le format
+    private static final int TAILLE_FIXE = 160;
+    private static final byte[] ENTETE_CSV =
+            "iban;titulaire;solde;ouverture;pret;taux;duree\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Format du fichier exporté.
+     */
+    public enum Format {
+        CSV,
+        BINAIRE
+    }
+
+    private final AccountOperations operations;
+
+    /**
+     * Constructeur.
+     *
+     * @param operations Les opérations dont les verrous protègent les comptes
+     */
+    public AccountExporter(AccountOperations operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Exporte tous les comptes ; le fichier est remplacé s'il existe.
+     *
+     * @param fichier Le chemin du fichier à écrire
+     * @param format Le format d'export
+     * @return Le nombre de comptes exportés
+     * @throws IOException si le fichier ne peut être écrit
+     */
+    public long exporter(Path fichier, Format format) throws IOException {
+        AccountStore stockage = operations.registre().stockage();
+        int limite;
+        operations.verrouillerTout();
+        try {
+            limite = stockage.limite();
+        } finally {
+            operations.deverrouillerTout();
+        }
+        try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            SortieOctets sortie = new SortieOctets(canal, TAILLE_TAMPON);
+            if (format == Format.CSV) {
+                sortie.ecrire(ENTETE_CSV);
+            } else {
+                sortie.reserver(8);
+                sortie.tampon().putInt(MAGIQUE).putInt(VERSION);
+            }
+            long nombre = 0;
+            for (int ligne = 0; ligne < limite; ligne++) {
+                // Lecture sans verrou pour écarter les lignes libres, confirmée sous le verrou de la tranche
+                long cle = stockage.getCodeIban(ligne);
+                if (cle == Iban.INVALIDE) {
+                    continue;
+                }
+                String titulaire;
+                long solde;
+                long ouverture;
+                long pret;
+                double taux;
+                double duree;
+                ReentrantLock verrou = operations.verrouillerCompte(cle);
+                try {
+                    if (stockage.getCodeIban(ligne) != cle) {
+                        continue;
+                    }
+                    titulaire = stockage.getTitulaire(ligne);
+                    solde = stockage.getSolde(ligne);
+                    ouverture = stockage.getOuverture(ligne);
+                    pret = stockage.getMontantPret(ligne);
+                    taux = stockage.getTauxInteret(ligne);
+                    duree = stockage.getDureePret(ligne);
+                } finally {
+                    verrou.unlock();
+                }
+                if (format == Format.CSV) {
+                    ecrireCsv(sortie, cle, titulaire, solde, ouverture, pret, taux, duree);
+                } else {
+                    ecrireBinaire(sortie, cle, titulaire, solde, ouverture, pret, taux, duree);
+                }
+                nombre++;
+            }
+            if (format == Format.BINAIRE) {
+                sortie.reserver(8);
+                sortie.tampon().putLong(nombre);
+            }
+            sortie.vider();
+            return nombre;
+        }
+    }
+
+    /**
+     * Écrit un compte au format CSV, dans l'ordre des colonnes de l'en-tête.
+     */
+    static void ecrireCsv(SortieOctets sortie, long cle, String titulaire, long solde, long ouverture, long pret,
+            double taux, double duree) throws IOException {
+        sortie.reserver(TAILLE_FIXE);
+        sortie.iban(cle);
+        sortie.octet(';');
+        sortie.champCsv(titulaire, ';');
+        sortie.reserver(TAILLE_FIXE);
+        sortie.octet(';');
+        sortie.montant(solde);
+        sortie.octet(';');
+        sortie.date(ouverture);
+        sortie.octet(';');
+        sortie.montant(pret);
+        sortie.octet(';');
+        sortie.decimal(taux);
+        sortie.octet(';');
+        sortie.decimal(duree);
+        sortie.octet('\n');
+    }
+
+    private static void ecrireBinaire(SortieOctets sortie, long cle, String titulaire, long solde, long ouverture,
+            long pret, double taux, double duree) throws IOException {
+        sortie.reserver(TAILLE_FIXE);
+        sortie.tampon().putLong(cle).putLong(solde).putLong(ouverture).putLong(pret).putDouble(taux)
+                .putDouble(duree);
+        int longueur = titulaire.length();
+        if (longueur * 6 + 4 <= TAILLE_TAMPON) {
+            // Réserve la longueur, encode le nom puis reporte sa taille
+            sortie.reserver(longueur * 6 + 4);
+            int position = sortie.tampon().position();
+            sortie.tampon().position(position + 4);
+            sortie.utf8(titulaire, false);
+            sortie.tampon().putInt(position, sortie.tampon().position() - position - 4);
+        } else {
+            byte[] octets = titulaire.getBytes(StandardCharsets.UTF_8);
+            sortie.reserver(4);
+            sortie.tampon().putInt(octets.length);
+            sortie.ecrire(octets);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * API HTTP/JSON sur les comptes, servie par le serveur HTTP intégré au JDK :
+ * <ul>
+ * <li>{@code POST /comptes} avec {@code {"titulaire": "...", "solde": 100.50}} crée un compte (201) ;</li>
+ * <li>{@code GET /comptes/{iban}} renvoie le compte ;</li>
+ * <li>{@code PUT /comptes/{iban}} avec {@code titulaire} et/ou {@code solde} le modifie ;</li>
+ * <li>{@code DELETE /comptes/{iban}} le supprime (204) ;</li>
+ * <li>{@code POST /comptes/{iban}/pret} avec {@code montant}, {@code taux} et {@code duree} accorde un prêt ;</li>
+ * <li>{@code POST /virements} avec {@code source}, {@code destination} et {@code montant} effectue un virement (204).</li>
+ * </ul>
+ * Un compte est renvoyé sous la forme {@code {"iban": ..., "titulaire": ..., "solde": ..., "dateOuverture": ...,
+ * "montantPret": ..., "tauxInteret": ..., "dureePret": ...}}, montants en euros ; une erreur sous la forme
+ * {@code {"erreur": "motif"}} avec le statut 400, 404, 405, 409 ou 413.
+ * <p>
+ * Les réponses sont écrites à la main dans le tampon d'une {@link SortieOctets} et envoyées avec leur longueur
+ * exacte ; les tampons, le lecteur de corps et le relevé sont recyclés d'une requête à l'autre. Chaque requête
+ * est traitée sur un thread virtuel lorsque la JVM en dispose (voir {@link AccountServer#executeurParTache}).
+ */
+public class AccountHttpApi implements AutoCloseable {
+    private static final int TAILLE_TAMPON = 8 * 1024;
+    private static final int CORPS_MAX = 64 * 1024;
+    // Place réservée pour les champs d'un compte hors nom
+    private static final int TAILLE_FIXE = 256;
+    private static final byte[] IBAN = ascii("{\"iban\":\"");
+    private static final byte[] TITULAIRE = ascii("\",\"titulaire\":");
+    private static final byte[] SOLDE = ascii(",\"solde\":");
+    private static final byte[] OUVERTURE = ascii(",\"dateOuverture\":\"");
+    private static final byte[] PRET = ascii("\",\"montantPret\":");
+    private static final byte[] TAUX = ascii(",\"tauxInteret\":");
+    private static final byte[] DUREE = ascii(",\"dureePret\":");
+    private static final byte[] ERREUR = ascii("{\"erreur\":");
+
+    private final AccountOperations operations;
+    private final HttpServer serveur;
+    private final ExecutorService requetes;
+    // Contextes libres ; au-delà de la capacité, un contexte rendu est abandonné au ramasse-miettes
+    private final ArrayBlockingQueue<Requete> libres = new ArrayBlockingQueue<>(256);
+
+    /**
+     * Constructeur : ouvre le port d'écoute et commence à servir les requêtes.
+     *
+     * @param operations Les opérations exécutées par les requêtes
+     * @param port Le port TCP, 0 pour un port libre choisi par le système
+     * @throws IOException si le port ne peut être ouvert
+     */
+    public AccountHttpApi(AccountOperations operations, int port) throws IOException {
+        this.operations = operations;
+        // Le serveur intégré écrit les en-têtes et le corps séparément : sans TCP_NODELAY, l'algorithme de Nagle
+        // et l'accusé de réception différé du client ajoutent ~40 ms à chaque réponse. L'option est lue une fois,
+        // au premier serveur créé.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.serveur = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.requetes = AccountServer.executeurParTache("http");
+        serveur.setExecutor(requetes);
+        serveur.createContext("/comptes", this::traiter);
+        serveur.createContext("/virements", this::traiter);
+        serveur.start();
+    }
+
+    /**
+     * @return Le port d'écoute effectif
+     */
+    public int port() {
+        return serveur.getAddress().getPort();
+    }
+
+    /**
+     * Cesse de servir les requêtes ; celles en cours se terminent.
+     */
+    @Override
+    public void close() {
+        serveur.stop(0);
+        requetes.shutdown();
+    }
+
+    private void traiter(HttpExchange echange) throws IOException {
+        Requete requete = libres.poll();
+        if (requete == null) {
+            requete = new Requete();
+        }
+        try {
+            requete.traiter(echange);
+        } finally {
+            requete.liberer();
+            libres.offer(requete);
+        }
+    }
+
+    /**
+     * Écrit un compte relevé en JSON.
+     */
+    static void ecrireJson(SortieOctets sortie, ReleveCompte releve) throws IOException {
+        sortie.reserver(TAILLE_FIXE);
+        ByteBuffer tampon = sortie.tampon();
+        tampon.put(IBAN);
+        sortie.iban(releve.cle);
+        tampon.put(TITULAIRE);
+        sortie.chaineJson(releve.titulaire);
+        sortie.reserver(TAILLE_FIXE);
+        tampon.put(SOLDE);
+        sortie.montant(releve.solde);
+        tampon.put(OUVERTURE);
+        sortie.date(releve.ouverture);
+        tampon.put(PRET);
+        sortie.montant(releve.pret);
+        tampon.put(TAUX);
+        sortie.decimal(releve.taux);
+        tampon.put(DUREE);
+        sortie.decimal(releve.duree);
+        sortie.octet('}');
+    }
+
+    private static byte[] ascii(String texte) {
+        return texte.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Contexte recyclable d'une requête : tampons, lecteur de corps, relevé, et canal de réponse qui n'envoie
+     * les en-têtes qu'à la première écriture.
+     */
+    private final class Requete implements WritableByteChannel {
+        private final SortieOctets sortie = new SortieOctets(this, TAILLE_TAMPON);
+        private final ObjetJson json = new ObjetJson();
+        private final ReleveCompte releve = new ReleveCompte();
+        private final byte[] copie = new byte[TAILLE_TAMPON];
+        private byte[] corps = new byte[1024];
+        private ByteBuffer vueCorps = ByteBuffer.wrap(corps);
+        private HttpExchange echange;
+        private OutputStream flux;
+        private int statut = 500;
+
+        void traiter(HttpExchange echange) throws IOException {
+            this.echange = echange;
+            try {
+                router(echange.getRequestMethod(), echange.getRequestURI().getRawPath());
+                terminer();
+            } catch (NumberFormatException | ArithmeticException e) {
+                erreur(400, "montant invalide");
+                terminer();
+            } catch (IllegalArgumentException e) {
+                erreur(400, "requête invalide");
+                terminer();
+            } finally {
+                echange.close();
+            }
+        }
+
+        void liberer() {
+            sortie.tampon().clear();
+            releve.oublier();
+            echange = null;
+            flux = null;
+            statut = 500;
+        }
+
+        private void router(String methode, String chemin) throws IOException {
+            if (chemin.equals("/virements")) {
+                if (autorise(methode, "POST")) {
+                    virer();
+                }
+                return;
+            }
+            if (!chemin.startsWith("/comptes")) {
+                erreur(404, "ressource inconnue");
+                return;
+            }
+            int debut = "/comptes".length();
+            if (chemin.length() <= debut + 1) {
+                if (chemin.length() == debut || chemin.charAt(debut) == '/') {
+                    if (autorise(methode, "POST")) {
+                        creer();
+                    }
+                } else {
+                    erreur(404, "ressource inconnue");
+                }
+                return;
+            }
+            if (chemin.charAt(debut) != '/') {
+                erreur(404, "ressource inconnue");
+                return;
+            }
+            int fin = chemin.indexOf('/', debut + 1);
+            long cle = Iban.encoder(chemin.substring(debut + 1, fin < 0 ? chemin.length() : fin));
+            if (cle == Iban.INVALIDE) {
+                erreur(404, "IBAN invalide");
+            } else if (fin >= 0) {
+                if (!chemin.substring(fin).equals("/pret")) {
+                    erreur(404, "ressource inconnue");
+                } else if (autorise(methode, "POST")) {
+                    preter(cle);
+                }
+            } else if (methode.equals("GET")) {
+                consulter(cle, 200);
+            } else if (methode.equals("PUT")) {
+                modifier(cle);
+            } else if (methode.equals("DELETE")) {
+                statut = operations.supprimer(cle) ? 204 : 404;
+                if (statut == 404) {
+                    erreur(404, "compte introuvable");
+                }
+            } else {
+                echange.getResponseHeaders().set("Allow", "GET, PUT, DELETE");
+                erreur(405, "méthode non autorisée");
+            }
+        }
+
+        private void creer() throws IOException {
+            if (!lireCorps()) {
+                return;
+            }
+            String titulaire = json.chaine("titulaire");
+            long solde = json.estNul("solde") ? 0 : json.montant("solde");
+            if (titulaire == null) {
+                erreur(400, "titulaire manquant");
+            } else if (solde < 0) {
+                erreur(400, "montant invalide");
+            } else {
+                long cle = operations.creer(titulaire, solde).getCodeIban();
+                echange.getResponseHeaders().set("Location", "/comptes/" + Iban.formater(cle));
+                consulter(cle, 201);
+            }
+        }
+
+        private void consulter(long cle, int code) throws IOException {
+            if (!releve.lire(operations, cle)) {
+                erreur(404, "compte introuvable");
+                return;
+            }
+            statut = code;
+            ecrireJson(sortie, releve);
+        }
+
+        private void modifier(long cle) throws IOException {
+            if (!lireCorps()) {
+                return;
+            }
+            String titulaire = json.estNul("titulaire") ? null : json.chaine("titulaire");
+            long solde = json.estNul("solde") ? -1 : json.montant("solde");
+            if (!json.estNul("titulaire") && titulaire == null || !json.estNul("solde") && solde < 0) {
+                erreur(400, "requête invalide");
+                return;
+            }
+            boolean modifie = operations.modifier(cle, c -> {
+                if (titulaire != null) {
+                    c.setTitulaire(titulaire);
+                }
+                if (solde >= 0) {
+                    c.setSolde(solde);
+                }
+            });
+            if (modifie) {
+                consulter(cle, 200);
+            } else {
+                erreur(404, "compte introuvable");
+            }
+        }
+
+        private void preter(long cle) throws IOException {
+            if (!lireCorps()) {
+                return;
+            }
+            long montant = json.montant("montant");
+            double taux = json.decimal("taux");
+            double duree = json.decimal("duree");
+            if (Double.isNaN(taux) || Double.isNaN(duree)) {
+                erreur(400, "montant invalide");
+            } else if (operations.accorderPret(cle, montant, taux, duree)) {
+                consulter(cle, 200);
+            } else if (releve.lire(operations, cle)) {
+                erreur(409, "prêt refusé");
+            } else {
+                erreur(404, "compte introuvable");
+            }
+        }
+
+        private void virer() throws IOException {
+            if (!lireCorps()) {
+                return;
+            }
+            String source = json.chaine("source");
+            String destination = json.chaine("destination");
+            long montant = json.montant("montant");
+            if (source == null || destination == null) {
+                erreur(400, "requête invalide");
+            } else if (operations.virer(Iban.encoder(source), Iban.encoder(destination), montant)) {
+                statut = 204;
+            } else {
+                erreur(409, "virement refusé");
+            }
+        }
+
+        private boolean autorise(String methode, String attendue) throws IOException {
+            if (methode.equals(attendue)) {
+                return true;
+            }
+            echange.getResponseHeaders().set("Allow", attendue);
+            erreur(405, "méthode non autorisée");
+            return false;
+        }
+
+        /**
+         * Lit le corps de la requête et y repère l'objet JSON, en répondant l'erreur en cas d'échec.
+         */
+        private boolean lireCorps() throws IOException {
+            InputStream entree = echange.getRequestBody();
+            int longueur = 0;
+            while (true) {
+                if (longueur == corps.length) {
+                    if (longueur == CORPS_MAX) {
+                        erreur(413, "corps trop long");
+                        return false;
+                    }
+                    corps = Arrays.copyOf(corps, Math.min(CORPS_MAX, longueur * 2));
+                    vueCorps = ByteBuffer.wrap(corps);
+                }
+                int lus = entree.read(corps, longueur, corps.length - longueur);
+                if (lus < 0) {
+                    break;
+                }
+                longueur += lus;
+            }
+            if (!json.analyser(vueCorps, 0, longueur)) {
+                erreur(400, "JSON invalide");
+                return false;
+            }
+            return true;
+        }
+
+        private void erreur(int code, String motif) throws IOException {
+            statut = code;
+            sortie.tampon().clear();
+            sortie.reserver(ERREUR.length);
+            sortie.tampon().put(ERREUR);
+            sortie.chaineJson(motif);
+            sortie.reserver(1);
+            sortie.octet('}');
+        }
+
+        /**
+         * Envoie les en-têtes avec la longueur exacte si la réponse tient dans le tampon, puis le reste du corps.
+         */
+        private void terminer() throws IOException {
+            if (flux == null) {
+                int longueur = sortie.tampon().position();
+                if (longueur > 0) {
+                    echange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                }
+                echange.sendResponseHeaders(statut, longueur == 0 ? -1 : longueur);
+                flux = echange.getResponseBody();
+            }
+            sortie.vider();
+        }
+
+        /**
+         * Premier vidage d'une réponse plus longue que le tampon : en-têtes envoyés en mode fragmenté.
+         */
+        @Override
+        public int write(ByteBuffer octets) throws IOException {
+            if (flux == null) {
+                echange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                echange.sendResponseHeaders(statut, 0);
+                flux = echange.getResponseBody();
+            }
+            int total = octets.remaining();
+            while (octets.hasRemaining()) {
+                int longueur = Math.min(octets.remaining(), copie.length);
+                octets.get(copie, 0, longueur);
+                flux.write(copie, 0, longueur);
+            }
+            return total;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // Le flux de réponse est fermé avec l'échange
+        }
+    }
+}
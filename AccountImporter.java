@@ -0,0 +1,400 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Import en masse de comptes depuis un fichier CSV (reprise d'un portefeuille existant).
+ * <p>
+ * Chaque ligne décrit un compte : {@code titulaire;solde} ou {@code titulaire;solde;pret;taux;duree},
+ * les montants en euros (point ou virgule décimale, deux décimales au plus), le taux en pourcentage et
+ * la durée en années. Le titulaire peut être entre guillemets, les guillemets internes étant doublés.
+ * Une première ligne sans montant est prise pour un en-tête ; les lignes vides sont ignorées et les
+ * lignes invalides (montant illisible, solde négatif, prêt refusé par les règles de
+ * {@link CompteBancaire#demanderPret}) sont rejetées et comptées.
+ * <p>
+ * Le fichier est projeté en mémoire et découpé en morceaux sur des fins de ligne ; les morceaux sont
+ * analysés en parallèle directement dans la projection ({@link ChampsCsv}), sans chaîne intermédiaire
+ * pour les champs numériques (les noms répétés sont partagés par un cache). Les comptes sont ensuite
+ * enregistrés dans l'ordre du fichier, par lots, sous tous les verrous de {@link AccountOperations} :
+ * l'import peut se dérouler pendant que d'autres sessions travaillent.
+ */
+public class AccountImporter {
+    private static final long TAILLE_MORCEAU = 32L << 20;
+    private static final int TAILLE_LOT = 4096;
+
+    private final AccountOperations operations;
+    private final char separateur;
+    private final int threads;
+
+    /**
+     * Constructeur pour des fichiers séparés par des points-virgules, analysés sur tous les processeurs.
+     *
+     * @param operations Les opérations par lesquelles les comptes sont enregistrés
+     */
+    public AccountImporter(AccountOperations operations) {
+        this(operations, ';', Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructeur.
+     *
+     * @param operations Les opérations par lesquelles les comptes sont enregistrés
+     * @param separateur Le séparateur de champs (caractère ASCII)
+     * @param threads Le nombre de threads d'analyse
+     */
+    public AccountImporter(AccountOperations operations, char separateur, int threads) {
+        if (separateur > 127 || separateur == '"' || separateur == '.' || separateur == '\n') {
+            throw new IllegalArgumentException("Séparateur invalide : " + separateur);
+        }
+        this.operations = operations;
+        this.separateur = separateur;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Importe tous les comptes d'un fichier.
+     *
+     * @param fichier Le chemin du fichier CSV
+     * @return Le bilan de l'import
+     * @throws IOException si le fichier ne peut être lu
+     */
+    public Bilan importer(Path fichier) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ)) {
+            long[] bornes = decouper(canal);
+            ExecutorService analyseurs = Executors.newFixedThreadPool(threads, tache -> {
+                Thread thread = new Thread(tache, "import-" + fichier.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                long ouverture = AccountStore.encoderDate(LocalDateTime.now());
+                Bilan bilan = new Bilan();
+                // Fenêtre glissante : au plus deux morceaux analysés d'avance par thread
+                ArrayDeque<Future<Lot>> enCours = new ArrayDeque<>();
+                int suivant = 0;
+                while (suivant < bornes.length - 1 || !enCours.isEmpty()) {
+                    while (suivant < bornes.length - 1 && enCours.size() < threads * 2) {
+                        MappedByteBuffer projection = canal.map(FileChannel.MapMode.READ_ONLY, bornes[suivant],
+                                bornes[suivant + 1] - bornes[suivant]);
+                        enCours.add(analyseurs.submit(new Analyseur(projection, separateur, suivant == 0)));
+                        suivant++;
+                    }
+                    enregistrer(attendre(enCours.poll()), ouverture, bilan);
+                }
+                operations.attendreDurabilite();
+                return bilan;
+            } finally {
+                analyseurs.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Calcule les bornes des morceaux, chacune placée juste après une fin de ligne.
+     */
+    private long[] decouper(FileChannel canal) throws IOException {
+        long taille = canal.size();
+        int morceaux = (int) Math.max(Math.min(threads, taille / TAILLE_LOT + 1),
+                (taille + TAILLE_MORCEAU - 1) / TAILLE_MORCEAU);
+        long[] bornes = new long[morceaux + 1];
+        int n = 1;
+        ByteBuffer lecture = ByteBuffer.allocate(4096);
+        for (int k = 1; k < morceaux; k++) {
+            long position = Math.max(taille * k / morceaux, bornes[n - 1]);
+            long borne = taille;
+            // Cherche la première fin de ligne à partir de l'octet précédant la position visée
+            chercher:
+            for (long p = Math.max(0, position - 1); p < taille; p += lecture.limit()) {
+                lecture.clear();
+                if (canal.read(lecture, p) <= 0) {
+                    break;
+                }
+                lecture.flip();
+                for (int i = 0; i < lecture.limit(); i++) {
+                    if (lecture.get(i) == '\n') {
+                        borne = p + i + 1;
+                        break chercher;
+                    }
+                }
+            }
+            if (borne > bornes[n - 1] && borne < taille) {
+                bornes[n++] = borne;
+            }
+        }
+        bornes[n++] = taille;
+        return Arrays.copyOf(bornes, n);
+    }
+
+    /**
+     * Enregistre les comptes d'un morceau analysé, par lots pris sous tous les verrous ; les observateurs
+     * du registre sont prévenus une fois par lot ({@link AccountListener#comptesAjoutes}).
+     */
+    private void enregistrer(Lot lot, long ouverture, Bilan bilan) {
+        AccountRegistry registre = operations.registre();
+        IbanGenerator generateur = CompteBancaire.getGenerateurIban();
+        int[] lignes = new int[TAILLE_LOT];
+        long importes = 0;
+        for (int debut = 0; debut < lot.nombre; debut += TAILLE_LOT) {
+            int fin = Math.min(lot.nombre, debut + TAILLE_LOT);
+            int ajoutes = 0;
+            operations.verrouillerTout();
+            try {
+                for (int i = debut; i < fin; i++) {
+                    int ligne = registre.ajouterSansNotifier(generateur.prochain(), lot.noms[i], lot.soldes[i],
+                            ouverture, lot.prets[i], lot.taux[i], lot.durees[i]);
+                    if (ligne < 0) {
+                        // IBAN déjà attribué hors du générateur : la ligne du fichier est rejetée
+                        lot.rejeter(lot.numeros[i]);
+                    } else {
+                        lignes[ajoutes++] = ligne;
+                    }
+                }
+                // Journal et index reçoivent le lot d'un coup, avant qu'une autre session ne voie ses comptes
+                registre.notifierAjouts(lignes, ajoutes);
+                importes += ajoutes;
+            } finally {
+                operations.deverrouillerTout();
+            }
+        }
+        if (lot.premiereRejetee >= 0 && bilan.premiereLigneRejetee < 0) {
+            bilan.premiereLigneRejetee = bilan.lignes + lot.premiereRejetee + 1;
+        }
+        bilan.importes += importes;
+        bilan.rejetes += lot.rejetes;
+        bilan.lignes += lot.lignes;
+    }
+
+    private static Lot attendre(Future<Lot> lot) throws IOException {
+        try {
+            return lot.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrompu", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Échec de l'analyse du fichier", e.getCause());
+        }
+    }
+
+    /**
+     * Bilan d'un import.
+     */
+    public static final class Bilan {
+        private long importes;
+        private long rejetes;
+        private long lignes;
+        private long premiereLigneRejetee = -1;
+
+        /**
+         * @return Le nombre de comptes enregistrés
+         */
+        public long getImportes() {
+            return importes;
+        }
+
+        /**
+         * @return Le nombre de lignes rejetées : invalides, ou dont l'IBAN attribué était déjà utilisé
+         */
+        public long getRejetes() {
+            return rejetes;
+        }
+
+        /**
+         * @return Le numéro (à partir de 1) de la première ligne rejetée, ou -1 s'il n'y en a pas
+         */
+        public long getPremiereLigneRejetee() {
+            return premiereLigneRejetee;
+        }
+    }
+
+    /**
+     * Comptes analysés d'un morceau, en colonnes.
+     */
+    private static final class Lot {
+        int nombre;
+        String[] noms;
+        long[] soldes;
+        long[] prets;
+        double[] taux;
+        double[] durees;
+        int[] numeros; // Indice de ligne dans le morceau de chaque compte
+        int lignes;
+        int rejetes;
+        int premiereRejetee = -1; // Indice de ligne dans le morceau
+
+        Lot(int capacite) {
+            noms = new String[capacite];
+            soldes = new long[capacite];
+            prets = new long[capacite];
+            taux = new double[capacite];
+            durees = new double[capacite];
+            numeros = new int[capacite];
+        }
+
+        void ajouter(String nom, long solde, long pret, double t, double duree) {
+            if (nombre == noms.length) {
+                int capacite = nombre * 2;
+                noms = Arrays.copyOf(noms, capacite);
+                soldes = Arrays.copyOf(soldes, capacite);
+                prets = Arrays.copyOf(prets, capacite);
+                taux = Arrays.copyOf(taux, capacite);
+                durees = Arrays.copyOf(durees, capacite);
+                numeros = Arrays.copyOf(numeros, capacite);
+            }
+            noms[nombre] = nom;
+            soldes[nombre] = solde;
+            prets[nombre] = pret;
+            taux[nombre] = t;
+            durees[nombre] = duree;
+            numeros[nombre] = lignes;
+            nombre++;
+        }
+
+        void rejeter(int ligne) {
+            if (premiereRejetee < 0 || ligne < premiereRejetee) {
+                premiereRejetee = ligne;
+            }
+            rejetes++;
+        }
+    }
+
+    /**
+     * Analyse d'un morceau du fichier, ligne par ligne, directement dans sa projection.
+     */
+    private static final class Analyseur implements Callable<Lot> {
+        private static final int CHAMPS_MAX = 5;
+        private static final int TAILLE_CACHE = 4096;
+
+        private final MappedByteBuffer octets;
+        private final boolean premierMorceau;
+        private final ChampsCsv champs;
+
+        // Cache à correspondance directe des noms déjà rencontrés
+        private final byte[][] clesCache = new byte[TAILLE_CACHE][];
+        private final String[] nomsCache = new String[TAILLE_CACHE];
+
+        Analyseur(MappedByteBuffer octets, char separateur, boolean premierMorceau) {
+            this.octets = octets;
+            this.premierMorceau = premierMorceau;
+            this.champs = new ChampsCsv(separateur, CHAMPS_MAX);
+        }
+
+        @Override
+        public Lot call() {
+            int limite = octets.limit();
+            Lot lot = new Lot(Math.max(16, limite / 32));
+            int debut = 0;
+            // Ignore l'indicateur d'ordre des octets UTF-8 en tête de fichier
+            if (premierMorceau && limite >= 3 && octets.get(0) == (byte) 0xEF && octets.get(1) == (byte) 0xBB
+                    && octets.get(2) == (byte) 0xBF) {
+                debut = 3;
+            }
+            while (debut < limite) {
+                int fin = debut;
+                while (fin < limite && octets.get(fin) != '\n') {
+                    fin++;
+                }
+                int finUtile = fin > debut && octets.get(fin - 1) == '\r' ? fin - 1 : fin;
+                if (!analyserLigne(debut, finUtile, premierMorceau && lot.lignes == 0, lot)) {
+                    lot.rejeter(lot.lignes);
+                }
+                lot.lignes++;
+                debut = fin + 1;
+            }
+            return lot;
+        }
+
+        /**
+         * @return false si la ligne est invalide ; une ligne vide ou un en-tête est accepté sans compte
+         */
+        private boolean analyserLigne(int debut, int fin, boolean premiereLigne, Lot lot) {
+            if (debut == fin) {
+                return true;
+            }
+            int nombre = champs.decouper(octets, debut, fin);
+            if (nombre != 2 && nombre != CHAMPS_MAX) {
+                return premiereLigne && estEntete();
+            }
+            long solde;
+            try {
+                solde = champs.montant(1);
+            } catch (NumberFormatException | ArithmeticException e) {
+                return premiereLigne && estEntete();
+            }
+            long pret = 0;
+            double taux = 0;
+            double duree = 0;
+            if (nombre == CHAMPS_MAX && !(champs.estVide(2) && champs.estVide(3) && champs.estVide(4))) {
+                try {
+                    pret = champs.montant(2);
+                } catch (NumberFormatException | ArithmeticException e) {
+                    return false;
+                }
+                taux = champs.decimal(3);
+                duree = champs.decimal(4);
+                // Mêmes règles que CompteBancaire.demanderPret
+                if (pret <= 0 || !(taux > 0 && taux <= 20) || !(duree > 0)) {
+                    return false;
+                }
+                try {
+                    Montant.interets(pret, taux, duree);
+                } catch (ArithmeticException e) {
+                    return false;
+                }
+            }
+            if (solde < 0) {
+                return false;
+            }
+            lot.ajouter(lireNom(), solde, pret, taux, duree);
+            return true;
+        }
+
+        /**
+         * Une première ligne dont le solde ne contient aucun chiffre est un en-tête.
+         */
+        private boolean estEntete() {
+            if (champs.nombre() < 2) {
+                return false;
+            }
+            CharSequence solde = champs.texte(1);
+            for (int i = 0; i < solde.length(); i++) {
+                if (solde.charAt(i) >= '0' && solde.charAt(i) <= '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Lit le nom du titulaire, en partageant l'instance d'un nom déjà rencontré.
+         */
+        private String lireNom() {
+            int longueur = champs.copier(0);
+            byte[] nom = champs.copie();
+            int h = 1;
+            for (int i = 0; i < longueur; i++) {
+                h = 31 * h + nom[i];
+            }
+            int c = (h ^ (h >>> 16)) & (TAILLE_CACHE - 1);
+            byte[] cle = clesCache[c];
+            if (cle != null && Arrays.equals(cle, 0, cle.length, nom, 0, longueur)) {
+                return nomsCache[c];
+            }
+            String resultat = new String(nom, 0, longueur, StandardCharsets.UTF_8);
+            clesCache[c] = Arrays.copyOf(nom, longueur);
+            nomsCache[c] = resultat;
+            return resultat;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Observateur des modifications d'un {@link AccountRegistry} (journal, index secondaires...).
+ * Chaque notification est émise après la modification, sous le verrou qui la protège ;
+ * l'état courant se lit dans le stockage à la ligne indiquée.
+ */
+public interface AccountListener {
+
+    /**
+     * Un compte vient d'être ajouté.
+     *
+     * @param stockage Le stockage des comptes
+     * @param ligne La ligne du compte
+     */
+    default void compteAjoute(AccountStore stockage, int ligne) {
+    }
+
+    /**
+     * Des comptes viennent d'être ajoutés en masse (import), chacun dans son état complet, prêt compris.
+     * Par défaut, chaque ligne passe par {@link #compteAjoute} ; un index peut traiter le lot d'un coup,
+     * sous une seule prise de son verrou.
+     *
+     * @param stockage Le stockage des comptes
+     * @param lignes Les lignes des comptes, dans l'ordre d'ajout
+     * @param nombre Le nombre de lignes à lire au début du tableau
+     */
+    default void comptesAjoutes(AccountStore stockage, int[] lignes, int nombre) {
+        for (int i = 0; i < nombre; i++) {
+            compteAjoute(stockage, lignes[i]);
+        }
+    }
+
+    /**
+     * Le solde d'un compte vient de changer.
+     *
+     * @param stockage Le stockage des comptes
+     * @param ligne La ligne du compte
+     * @param ancienSolde Le solde précédent en centimes
+     */
+    default void soldeModifie(AccountStore stockage, int ligne, long ancienSolde) {
+    }
+
+    /**
+     * Le titulaire d'un compte vient de changer.
+     *
+     * @param stockage Le stockage des comptes
+     * @param ligne La ligne du compte
+     * @param ancienTitulaire Le nom précédent
+     */
+    default void titulaireModifie(AccountStore stockage, int ligne, String ancienTitulaire) {
+    }
+
+    /**
+     * Un prêt vient d'être enregistré sur un compte, avec le nouveau solde qui en résulte.
+     *
+     * @param stockage Le stockage des comptes
+     * @param ligne La ligne du compte
+     * @param ancienSolde Le solde précédent en centimes
+     */
+    default void pretModifie(AccountStore stockage, int ligne, long ancienSolde) {
+    }
+
+    /**
+     * Un compte va être supprimé ; sa ligne est encore lisible.
+     *
+     * @param stockage Le stockage des comptes
+     * @param ligne La ligne du compte
+     */
+    default void compteSupprime(AccountStore stockage, int ligne) {
+    }
+
+    /**
+     * Ouvre un groupe de modifications indissociables (virement, commit d'un lot) sur le thread courant.
+     */
+    default void debutTransaction() {
+    }
+
+    /**
+     * Ferme le groupe ouvert par {@link #debutTransaction()} sur le thread courant.
+     */
+    default void finTransaction() {
+    }
+}
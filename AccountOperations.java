@@ -0,0 +1,569 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Opérations atomiques sur les comptes d'un {@link AccountRegistry}, utilisables depuis plusieurs threads.
+ * <p>
+ * Les comptes sont répartis sur un nombre fixe de verrous selon le hachage de leur IBAN :
+ * une opération sur un compte ne prend que le verrou de sa tranche, si bien que des opérations
+ * sur des comptes sans rapport ne se bloquent pas. Les changements de structure du registre
+ * (création, suppression) prennent toutes les tranches, toujours dans l'ordre croissant.
+ * <p>
+ * Un {@link BatchPostingEngine} réserve les comptes d'un commit le temps de l'appliquer tranche par tranche :
+ * les opérations sur un compte réservé, et celles qui prennent toutes les tranches, attendent sa libération.
+ * Les montants sont exprimés en centimes (voir {@link Montant}).
+ * <p>
+ * Si un {@link Journal} est associé, chaque opération qui modifie un compte attend, une fois ses verrous
+ * relâchés, que ses modifications soient durables selon la politique du journal. Une session qui traite
+ * ses commandes par lots peut différer cette attente et ne la faire qu'une fois par lot, avant d'envoyer
+ * ses réponses (voir {@link #differerDurabilite(boolean)}).
+ * <p>
+ * Si des {@link OperationMetrics} sont associées, la durée de chaque opération, attente du journal comprise,
+ * y est enregistrée.
+ */
+public class AccountOperations {
+    private final AccountRegistry comptes;
+    private final ReentrantLock[] verrous;
+    private final int masque;
+    // Comptes réservés par un lot en cours, par tranche, et signal de leur libération ; gardés par le verrou
+    private final List<Set<Long>> reserves;
+    private final Condition[] liberations;
+    private volatile Journal journal;
+    private volatile OperationMetrics metriques;
+    // Threads dont l'attente de durabilité est différée jusqu'à leur prochain appel à attendreDurabilite
+    private final ThreadLocal<boolean[]> differe = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    /**
+     * Constructeur avec un nombre de tranches adapté au nombre de processeurs.
+     *
+     * @param comptes Le registre protégé
+     */
+    public AccountOperations(AccountRegistry comptes) {
+        this(comptes, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Constructeur.
+     *
+     * @param comptes Le registre protégé
+     * @param tranches Le nombre minimal de tranches, arrondi à la puissance de deux supérieure
+     */
+    public AccountOperations(AccountRegistry comptes, int tranches) {
+        int nombre = Integer.highestOneBit(Math.max(1, tranches - 1)) << 1;
+        this.comptes = comptes;
+        this.verrous = new ReentrantLock[nombre];
+        this.reserves = new ArrayList<>(nombre);
+        this.liberations = new Condition[nombre];
+        for (int i = 0; i < nombre; i++) {
+            verrous[i] = new ReentrantLock();
+            reserves.add(new HashSet<>());
+            liberations[i] = verrous[i].newCondition();
+        }
+        this.masque = nombre - 1;
+    }
+
+    /**
+     * Crée un compte et l'enregistre, sous un nouvel IBAN tant que celui attribué est déjà utilisé.
+     *
+     * @param titulaire Le nom du titulaire
+     * @param solde Le solde initial en centimes
+     * @return La vue sur le compte enregistré
+     * @throws IllegalStateException si l'espace des IBAN est épuisé
+     */
+    public CompteBancaire creer(String titulaire, long solde) {
+        long debut = debutMesure();
+        try {
+            CompteBancaire compte = new CompteBancaire(titulaire, solde);
+            CompteBancaire vue;
+            verrouillerTout();
+            try {
+                // IBAN déjà enregistré sans être passé par le générateur : on en tire un autre
+                while (!comptes.ajouter(compte)) {
+                    compte = new CompteBancaire(titulaire, solde);
+                }
+                vue = comptes.trouver(compte.getCodeIban());
+            } finally {
+                deverrouillerTout();
+            }
+            confirmer(true);
+            return vue;
+        } finally {
+            finMesure(OperationMetrics.Operation.CREATION, debut);
+        }
+    }
+
+    /**
+     * Supprime un compte.
+     *
+     * @param iban La clé compacte de l'IBAN
+     * @return true si le compte a été supprimé, false s'il est introuvable
+     */
+    public boolean supprimer(long iban) {
+        long debut = debutMesure();
+        try {
+            boolean supprime;
+            verrouillerTout();
+            try {
+                supprime = comptes.supprimer(iban);
+            } finally {
+                deverrouillerTout();
+            }
+            return confirmer(supprime);
+        } finally {
+            finMesure(OperationMetrics.Operation.SUPPRESSION, debut);
+        }
+    }
+
+    /**
+     * Lit un compte de manière cohérente.
+     *
+     * @param iban La clé compacte de l'IBAN
+     * @param lecture La lecture à effectuer, sous verrou
+     * @param <R> Le type du résultat
+     * @return Le résultat de la lecture, ou null si le compte est introuvable
+     */
+    public <R> R consulter(long iban, Function<CompteBancaire, R> lecture) {
+        long debut = debutMesure();
+        try {
+            ReentrantLock verrou = verrouillerCompte(iban);
+            try {
+                CompteBancaire compte = comptes.trouver(iban);
+                return compte == null ? null : lecture.apply(compte);
+            } finally {
+                verrou.unlock();
+            }
+        } finally {
+            finMesure(OperationMetrics.Operation.CONSULTATION, debut);
+        }
+    }
+
+    /**
+     * Modifie un compte de manière atomique.
+     *
+     * @param iban La clé compacte de l'IBAN
+     * @param modification La modification à appliquer, sous verrou
+     * @return true si le compte a été modifié, false s'il est introuvable
+     */
+    public boolean modifier(long iban, Consumer<CompteBancaire> modification) {
+        long debut = debutMesure();
+        try {
+            ReentrantLock verrou = verrouillerCompte(iban);
+            try {
+                CompteBancaire compte = comptes.trouver(iban);
+                if (compte == null) {
+                    return false;
+                }
+                comptes.debutTransaction();
+                try {
+                    modification.accept(compte);
+                } finally {
+                    comptes.finTransaction();
+                }
+            } finally {
+                verrou.unlock();
+            }
+            return confirmer(true);
+        } finally {
+            finMesure(OperationMetrics.Operation.MODIFICATION, debut);
+        }
+    }
+
+    /**
+     * Crédite un compte.
+     *
+     * @param iban La clé compacte de l'IBAN
+     * @param montant Le montant à créditer en centimes, positif
+     * @return true si le compte a été crédité, false s'il est introuvable ou si le montant est invalide
+     * @throws ArithmeticException si le nouveau solde déborde
+     */
+    public boolean crediter(long iban, long montant) {
+        long debut = debutMesure();
+        try {
+            if (montant <= 0) {
+                return false;
+            }
+            ReentrantLock verrou = verrouillerCompte(iban);
+            try {
+                CompteBancaire compte = comptes.trouver(iban);
+                if (compte == null) {
+                    return false;
+                }
+                compte.setSolde(Montant.ajouter(compte.getSolde(), montant));
+            } finally {
+                verrou.unlock();
+            }
+            return confirmer(true);
+        } finally {
+            finMesure(OperationMetrics.Operation.CREDIT, debut);
+        }
+    }
+
+    /**
+     * Débite un compte, sans jamais le rendre débiteur.
+     *
+     * @param iban La clé compacte de l'IBAN
+     * @param montant Le montant à débiter en centimes, positif
+     * @return true si le compte a été débité, false s'il est introuvable, si le montant est invalide
+     *         ou si le solde est insuffisant
+     */
+    public boolean debiter(long iban, long montant) {
+        long debut = debutMesure();
+        try {
+            if (montant <= 0) {
+                return false;
+            }
+            ReentrantLock verrou = verrouillerCompte(iban);
+            try {
+                CompteBancaire compte = comptes.trouver(iban);
+                if (compte == null || compte.getSolde() < montant) {
+                    return false;
+                }
+                compte.setSolde(Montant.soustraire(compte.getSolde(), montant));
+            } finally {
+                verrou.unlock();
+            }
+            return confirmer(true);
+        } finally {
+            finMesure(OperationMetrics.Operation.DEBIT, debut);
+        }
+    }
+
+    /**
+     * Accorde un prêt : la vérification de l'absence de prêt existant et le crédit sont atomiques.
+     *
+     * @param iban La clé compacte de l'IBAN
+     * @param montant Montant du prêt en centimes
+     * @param taux Taux d'intérêt annuel en pourcentage
+     * @param duree Durée du prêt en années
+     * @return true si le prêt est accordé, false si le compte est introuvable ou le prêt refusé
+     * @throws ArithmeticException si le nouveau solde ou les intérêts du prêt débordent
+     */
+    public boolean accorderPret(long iban, long montant, double taux, double duree) {
+        long debut = debutMesure();
+        try {
+            boolean accorde;
+            ReentrantLock verrou = verrouillerCompte(iban);
+            try {
+                CompteBancaire compte = comptes.trouver(iban);
+                accorde = compte != null && compte.demanderPret(montant, taux, duree);
+            } finally {
+                verrou.unlock();
+            }
+            return confirmer(accorde);
+        } finally {
+            finMesure(OperationMetrics.Operation.PRET, debut);
+        }
+    }
+
+    /**
+     * Transfère un montant d'un compte à un autre de manière atomique.
+     * Les verrous des deux tranches sont pris dans l'ordre croissant de leur indice, ce qui exclut
+     * tout interblocage entre virements croisés.
+     *
+     * @param source La clé compacte de l'IBAN débité
+     * @param destination La clé compacte de l'IBAN crédité
+     * @param montant Le montant à transférer en centimes, positif
+     * @return true si le virement est effectué, false si un compte est introuvable, si les deux comptes
+     *         sont identiques, si le montant est invalide ou si le solde de la source est insuffisant
+     * @throws ArithmeticException si le solde de la destination déborde
+     */
+    public boolean virer(long source, long destination, long montant) {
+        long debut = debutMesure();
+        try {
+            if (montant <= 0 || source == destination) {
+                return false;
+            }
+            int premiere = Math.min(tranche(source), tranche(destination));
+            int seconde = Math.max(tranche(source), tranche(destination));
+            while (true) {
+                verrous[premiere].lock();
+                if (seconde != premiere) {
+                    verrous[seconde].lock();
+                }
+                long reserve = reserve(source) ? source : reserve(destination) ? destination : Iban.INVALIDE;
+                if (reserve == Iban.INVALIDE) {
+                    break;
+                }
+                // Attend la libération sous le seul verrou du compte réservé, puis recommence
+                if (seconde != premiere) {
+                    verrous[seconde].unlock();
+                }
+                verrous[premiere].unlock();
+                verrouillerCompte(reserve).unlock();
+            }
+            try {
+                CompteBancaire debite = comptes.trouver(source);
+                CompteBancaire credite = comptes.trouver(destination);
+                if (debite == null || credite == null || debite.getSolde() < montant) {
+                    return false;
+                }
+                // Calcule le crédit avant toute écriture pour qu'un débordement laisse les deux comptes intacts
+                long nouveauSolde = Montant.ajouter(credite.getSolde(), montant);
+                comptes.debutTransaction();
+                try {
+                    debite.setSolde(Montant.soustraire(debite.getSolde(), montant));
+                    credite.setSolde(nouveauSolde);
+                } finally {
+                    comptes.finTransaction();
+                }
+            } finally {
+                if (seconde != premiere) {
+                    verrous[seconde].unlock();
+                }
+                verrous[premiere].unlock();
+            }
+            return confirmer(true);
+        } finally {
+            finMesure(OperationMetrics.Operation.VIREMENT, debut);
+        }
+    }
+
+    /**
+     * Associe un journal dont la durabilité conditionne la fin des opérations.
+     * Le journal doit par ailleurs être abonné au registre.
+     *
+     * @param journal Le journal, ou null pour ne plus attendre
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Associe des métriques où enregistrer la durée de chaque opération.
+     *
+     * @param metriques Les métriques, ou null pour ne plus mesurer
+     */
+    public void setMetriques(OperationMetrics metriques) {
+        this.metriques = metriques;
+    }
+
+    /**
+     * @return Les métriques associées, ou null
+     */
+    public OperationMetrics getMetriques() {
+        return metriques;
+    }
+
+    /**
+     * Attend, hors verrou, que les modifications émises par le thread courant soient durables.
+     */
+    void attendreDurabilite() {
+        Journal j = journal;
+        if (j != null) {
+            j.attendreDurabilite();
+        }
+    }
+
+    /**
+     * Diffère ou non, pour le thread courant, l'attente de durabilité des opérations suivantes : le thread
+     * doit alors appeler {@link #attendreDurabilite()} avant de confirmer ces opérations à quiconque.
+     *
+     * @param differer true pour différer, false pour revenir à une attente par opération
+     */
+    void differerDurabilite(boolean differer) {
+        differe.get()[0] = differer;
+    }
+
+    /**
+     * @return L'instant de début d'une opération, ou 0 si elle n'est pas mesurée
+     */
+    private long debutMesure() {
+        return metriques == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Enregistre la durée d'une opération commencée à {@code debut}, si elle est mesurée.
+     */
+    private void finMesure(OperationMetrics.Operation operation, long debut) {
+        OperationMetrics m = metriques;
+        if (m != null && debut != 0) {
+            m.enregistrer(operation, debut);
+        }
+    }
+
+    /**
+     * Attend la durabilité si l'opération a modifié un compte, sauf si le thread courant la diffère.
+     *
+     * @param modifie true si l'opération a modifié un compte
+     * @return modifie, pour chaînage
+     */
+    private boolean confirmer(boolean modifie) {
+        if (modifie && journal != null && !differe.get()[0]) {
+            attendreDurabilite();
+        }
+        return modifie;
+    }
+
+    /**
+     * @return Le registre protégé
+     */
+    public AccountRegistry registre() {
+        return comptes;
+    }
+
+    /**
+     * Relève les clés de tous les comptes dans leur ordre de création, sous toutes les tranches. Un listage
+     * parcourt ensuite cet instantané en relisant chaque compte sous le verrou de sa tranche, sans bloquer
+     * les sessions pendant tout le rendu.
+     *
+     * @return Les clés compactes des IBAN
+     */
+    long[] cles() {
+        verrouillerTout();
+        try {
+            AccountStore stockage = comptes.stockage();
+            long[] cles = new long[comptes.taille()];
+            int n = 0;
+            for (int ligne = comptes.premiereLigne(); ligne >= 0; ligne = comptes.ligneSuivante(ligne)) {
+                cles[n++] = stockage.getCodeIban(ligne);
+            }
+            return cles;
+        } finally {
+            deverrouillerTout();
+        }
+    }
+
+    /**
+     * Donne la tranche d'un IBAN.
+     *
+     * @param iban La clé compacte de l'IBAN
+     * @return L'indice de la tranche
+     */
+    int tranche(long iban) {
+        return (int) Iban.hacher(iban) & masque;
+    }
+
+    /**
+     * @return Le nombre de tranches
+     */
+    int nombreTranches() {
+        return verrous.length;
+    }
+
+    /**
+     * Donne le verrou d'une tranche ; plusieurs verrous doivent être pris dans l'ordre croissant des tranches.
+     *
+     * @param tranche L'indice de la tranche
+     * @return Le verrou de la tranche
+     */
+    ReentrantLock verrouTranche(int tranche) {
+        return verrous[tranche];
+    }
+
+    /**
+     * Prend le verrou de la tranche d'un compte, une fois le compte libéré de toute réservation d'un lot.
+     *
+     * @param iban La clé compacte de l'IBAN
+     * @return Le verrou pris, à relâcher par l'appelant
+     */
+    ReentrantLock verrouillerCompte(long iban) {
+        int tranche = tranche(iban);
+        verrous[tranche].lock();
+        while (reserve(iban)) {
+            liberations[tranche].awaitUninterruptibly();
+        }
+        return verrous[tranche];
+    }
+
+    /**
+     * Indique si un compte est réservé par un lot ; l'appelant tient le verrou de sa tranche.
+     */
+    private boolean reserve(long iban) {
+        Set<Long> reservesTranche = reserves.get(tranche(iban));
+        return !reservesTranche.isEmpty() && reservesTranche.contains(iban);
+    }
+
+    /**
+     * Réserve pour un lot des comptes d'une même tranche, dont l'appelant tient le verrou : aucun ne l'est
+     * si l'un d'eux est déjà réservé par un autre lot. Un lot réserve ses tranches dans l'ordre croissant,
+     * ce qui exclut tout interblocage entre lots.
+     *
+     * @param tranche L'indice de la tranche
+     * @param cles Les clés compactes des IBAN
+     * @param debut L'indice du premier compte à réserver
+     * @param fin L'indice suivant le dernier compte à réserver
+     * @return true si les comptes sont réservés, false s'il faut attendre une libération et recommencer
+     */
+    boolean reserver(int tranche, long[] cles, int debut, int fin) {
+        Set<Long> reservesTranche = reserves.get(tranche);
+        if (!reservesTranche.isEmpty()) {
+            for (int i = debut; i < fin; i++) {
+                if (reservesTranche.contains(cles[i])) {
+                    return false;
+                }
+            }
+        }
+        for (int i = debut; i < fin; i++) {
+            reservesTranche.add(cles[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Attend, en relâchant le verrou de la tranche, qu'un lot y libère des comptes.
+     *
+     * @param tranche L'indice de la tranche, dont l'appelant tient le verrou
+     */
+    void attendreLiberation(int tranche) {
+        liberations[tranche].awaitUninterruptibly();
+    }
+
+    /**
+     * Libère des comptes réservés par {@link #reserver} et réveille les opérations qui les attendent.
+     *
+     * @param tranche L'indice de la tranche, dont l'appelant tient le verrou
+     * @param cles Les clés compactes des IBAN
+     * @param debut L'indice du premier compte à libérer
+     * @param fin L'indice suivant le dernier compte à libérer
+     */
+    void liberer(int tranche, long[] cles, int debut, int fin) {
+        Set<Long> reservesTranche = reserves.get(tranche);
+        for (int i = debut; i < fin; i++) {
+            reservesTranche.remove(cles[i]);
+        }
+        liberations[tranche].signalAll();
+    }
+
+    /**
+     * Prend toutes les tranches dans l'ordre croissant, une fois libérés les comptes réservés par les lots :
+     * plus aucune modification n'est en cours.
+     */
+    void verrouillerTout() {
+        while (true) {
+            for (ReentrantLock verrou : verrous) {
+                verrou.lock();
+            }
+            int reservee = 0;
+            while (reservee < verrous.length && reserves.get(reservee).isEmpty()) {
+                reservee++;
+            }
+            if (reservee == verrous.length) {
+                return;
+            }
+            deverrouillerTout();
+            verrous[reservee].lock();
+            try {
+                while (!reserves.get(reservee).isEmpty()) {
+                    liberations[reservee].awaitUninterruptibly();
+                }
+            } finally {
+                verrous[reservee].unlock();
+            }
+        }
+    }
+
+    /**
+     * Relâche les tranches prises par {@link #verrouillerTout()}.
+     */
+    void deverrouillerTout() {
+        for (int i = verrous.length - 1; i >= 0; i--) {
+            verrous[i].unlock();
+        }
+    }
+}
@@ -0,0 +1,550 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Registre des comptes bancaires indexé par IBAN.
+ * Conserve l'ordre d'insertion pour l'affichage tout en offrant une recherche,
+ * un ajout et une suppression en temps constant.
+ * <p>
+ * Les comptes sont rangés dans un {@link AccountStore} (en colonnes dans le tas par défaut, ou hors du tas) ;
+ * l'index est une table à adressage ouvert sur la clé compacte de l'IBAN (voir {@link Iban}) qui associe
+ * chaque clé à sa ligne. Les comptes rendus par le registre sont des vues sur ces lignes.
+ * <p>
+ * Chaque case garde, à côté de la ligne, une empreinte de la clé (la moitié basse de son hachage) : une
+ * recherche ne lit une clé dans le stockage que si l'empreinte concorde. Un IBAN absent (saisie erronée,
+ * IBAN étranger) est ainsi écarté en lisant une ou deux cases de la table, sans accès au stockage sauf
+ * collision d'empreintes, et une recherche fructueuse ne lit que la ligne trouvée. L'empreinte contenant
+ * les bits qui désignent la case idéale, une suppression ou un agrandissement déplace les cases sans lire
+ * le stockage ; en contrepartie, seules les clés de même case idéale peuvent partager une empreinte,
+ * avec une chance sur 2^(32 - log2(taille de la table)) (1 sur 128 à 10 millions de comptes).
+ * <p>
+ * Toute modification d'un compte passe par le registre, qui en notifie ses {@link AccountListener}.
+ */
+public class AccountRegistry implements Iterable<CompteBancaire> {
+    private static final int CAPACITE_INITIALE = 16;
+    private static final int AUCUNE = -1;
+
+    // Stockage des comptes ; une entrée du registre correspond à une ligne du stockage
+    private final AccountStore comptes;
+    // Chaînage des lignes dans l'ordre d'insertion
+    private int[] suivant;
+    private int[] precedent;
+    private int tete = AUCUNE;
+    private int queue = AUCUNE;
+
+    // Table de hachage à sondage linéaire : 32 bits de poids faible du hachage de la clé dans les 32 bits
+    // de poids fort,
+    // numéro de ligne + 1 dans les 32 bits de poids faible, 0 pour une case vide
+    private long[] table = new long[CAPACITE_INITIALE * 2];
+    private int taille;
+
+    // Observateurs des modifications, remplacés en bloc pour un parcours sans verrou
+    private volatile AccountListener[] ecouteurs = new AccountListener[0];
+
+    /**
+     * Constructeur d'un registre vide conservé dans le tas.
+     */
+    public AccountRegistry() {
+        this(new AccountTable());
+    }
+
+    /**
+     * Constructeur d'un registre sur un stockage donné, éventuellement déjà rempli.
+     * Les comptes présents sont indexés dans l'ordre de leurs lignes et leurs IBAN sont réservés
+     * auprès du générateur courant pour ne jamais être réattribués.
+     *
+     * @param comptes Le stockage des comptes
+     */
+    public AccountRegistry(AccountStore comptes) {
+        this.comptes = comptes;
+        int capacite = Math.max(CAPACITE_INITIALE, comptes.capacite());
+        this.suivant = new int[capacite];
+        this.precedent = new int[capacite];
+        IbanGenerator generateur = CompteBancaire.getGenerateurIban();
+        for (int ligne = 0; ligne < comptes.limite(); ligne++) {
+            long cle = comptes.getCodeIban(ligne);
+            if (cle != Iban.INVALIDE) {
+                generateur.reserver(cle);
+                indexer(cle, ligne);
+            }
+        }
+    }
+
+    /**
+     * Ajoute un compte au registre en recopiant son état dans la table des comptes.
+     * Le compte passé en paramètre n'est pas conservé : utiliser {@link #trouver(long)} pour obtenir
+     * la vue enregistrée.
+     *
+     * @param compte Le compte à enregistrer
+     * @return true si le compte a été ajouté, false si son IBAN est déjà utilisé
+     */
+    public boolean ajouter(CompteBancaire compte) {
+        int i = chercherCaseLibre(compte.getCodeIban());
+        if (i == AUCUNE) {
+            return false;
+        }
+        int ligne = comptes.ajouter(compte);
+        indexer(i, ligne, compte.getCodeIban());
+        for (AccountListener ecouteur : ecouteurs) {
+            ecouteur.compteAjoute(comptes, ligne);
+        }
+        return true;
+    }
+
+    /**
+     * Ajoute un compte sans prêt dont l'état est déjà connu (relecture, import).
+     *
+     * @param cle La clé compacte de l'IBAN
+     * @param titulaire Le nom du titulaire
+     * @param solde Le solde en centimes
+     * @param ouverture La date d'ouverture encodée par {@link AccountStore#encoderDate}
+     * @return La ligne occupée, ou -1 si l'IBAN est déjà utilisé
+     */
+    public int ajouter(long cle, String titulaire, long solde, long ouverture) {
+        int i = chercherCaseLibre(cle);
+        if (i == AUCUNE) {
+            return AUCUNE;
+        }
+        int ligne = comptes.ajouter(cle, titulaire, solde, ouverture);
+        indexer(i, ligne, cle);
+        for (AccountListener ecouteur : ecouteurs) {
+            ecouteur.compteAjoute(comptes, ligne);
+        }
+        return ligne;
+    }
+
+    /**
+     * Ajoute un compte dont l'état est déjà connu, prêt compris, sans prévenir les observateurs : pour les
+     * ajouts en masse, qui les préviennent ensuite du lot entier par {@link #notifierAjouts}, sous les mêmes
+     * verrous.
+     *
+     * @param cle La clé compacte de l'IBAN
+     * @param titulaire Le nom du titulaire
+     * @param solde Le solde en centimes
+     * @param ouverture La date d'ouverture encodée par {@link AccountStore#encoderDate}
+     * @param pret Montant du prêt en centimes, 0 sans prêt
+     * @param taux Taux d'intérêt annuel du prêt en pourcentage
+     * @param duree Durée du prêt en années
+     * @return La ligne occupée, ou -1 si l'IBAN est déjà utilisé
+     */
+    public int ajouterSansNotifier(long cle, String titulaire, long solde, long ouverture, long pret, double taux,
+            double duree) {
+        int i = chercherCaseLibre(cle);
+        if (i == AUCUNE) {
+            return AUCUNE;
+        }
+        int ligne = comptes.ajouter(cle, titulaire, solde, ouverture);
+        if (pret != 0) {
+            comptes.setPret(ligne, pret, taux, duree);
+        }
+        indexer(i, ligne, cle);
+        return ligne;
+    }
+
+    /**
+     * Prévient les observateurs d'un lot de comptes ajoutés par {@link #ajouterSansNotifier}.
+     *
+     * @param lignes Les lignes des comptes, dans l'ordre d'ajout
+     * @param nombre Le nombre de lignes à lire au début du tableau
+     */
+    public void notifierAjouts(int[] lignes, int nombre) {
+        if (nombre == 0) {
+            return;
+        }
+        for (AccountListener ecouteur : ecouteurs) {
+            ecouteur.comptesAjoutes(comptes, lignes, nombre);
+        }
+    }
+
+    /**
+     * Recherche un compte par son IBAN.
+     *
+     * @param iban L'IBAN du compte à trouver
+     * @return Le compte correspondant, ou null si introuvable
+     */
+    public CompteBancaire trouver(String iban) {
+        long cle = Iban.encoder(iban);
+        return cle == Iban.INVALIDE ? null : trouver(cle);
+    }
+
+    /**
+     * Recherche un compte par la clé compacte de son IBAN.
+     *
+     * @param cle La clé compacte de l'IBAN
+     * @return Le compte correspondant, ou null si introuvable
+     */
+    public CompteBancaire trouver(long cle) {
+        int i = chercherCase(cle);
+        return i == AUCUNE ? null : new VueCompte(this, ligneCase(table[i]));
+    }
+
+    /**
+     * Donne la ligne du stockage occupée par un compte, pour les traitements qui travaillent
+     * directement sur le stockage.
+     *
+     * @param cle La clé compacte de l'IBAN
+     * @return Le numéro de la ligne, ou -1 si le compte est introuvable
+     */
+    public int ligne(long cle) {
+        int i = chercherCase(cle);
+        return i == AUCUNE ? AUCUNE : ligneCase(table[i]);
+    }
+
+    /**
+     * Supprime un compte du registre.
+     *
+     * @param iban L'IBAN du compte à supprimer
+     * @return true si le compte a été supprimé, false s'il est introuvable
+     */
+    public boolean supprimer(String iban) {
+        long cle = Iban.encoder(iban);
+        return cle != Iban.INVALIDE && supprimer(cle);
+    }
+
+    /**
+     * Supprime un compte du registre par la clé compacte de son IBAN.
+     *
+     * @param cle La clé compacte de l'IBAN
+     * @return true si le compte a été supprimé, false s'il est introuvable
+     */
+    public boolean supprimer(long cle) {
+        int i = chercherCase(cle);
+        if (i == AUCUNE) {
+            return false;
+        }
+        int entree = ligneCase(table[i]);
+        for (AccountListener ecouteur : ecouteurs) {
+            ecouteur.compteSupprime(comptes, entree);
+        }
+        retirerCase(i);
+        // Déchaîne l'entrée de l'ordre d'insertion
+        int avant = precedent[entree];
+        int apres = suivant[entree];
+        if (avant == AUCUNE) {
+            tete = apres;
+        } else {
+            suivant[avant] = apres;
+        }
+        if (apres == AUCUNE) {
+            queue = avant;
+        } else {
+            precedent[apres] = avant;
+        }
+        // Rend la ligne à la table
+        comptes.liberer(entree);
+        taille--;
+        return true;
+    }
+
+    /**
+     * Modifie le solde d'un compte.
+     *
+     * @param ligne La ligne du compte
+     * @param solde Le nouveau solde en centimes
+     */
+    public void modifierSolde(int ligne, long solde) {
+        long ancien = comptes.getSolde(ligne);
+        comptes.setSolde(ligne, solde);
+        for (AccountListener ecouteur : ecouteurs) {
+            ecouteur.soldeModifie(comptes, ligne, ancien);
+        }
+    }
+
+    /**
+     * Modifie le titulaire d'un compte.
+     *
+     * @param ligne La ligne du compte
+     * @param titulaire Le nouveau nom du titulaire
+     */
+    public void modifierTitulaire(int ligne, String titulaire) {
+        String ancien = comptes.getTitulaire(ligne);
+        comptes.setTitulaire(ligne, titulaire);
+        for (AccountListener ecouteur : ecouteurs) {
+            ecouteur.titulaireModifie(comptes, ligne, ancien);
+        }
+    }
+
+    /**
+     * Enregistre un prêt et le solde qui en résulte en une seule modification.
+     *
+     * @param ligne La ligne du compte
+     * @param montant Montant du prêt en centimes
+     * @param taux Taux d'intérêt annuel en pourcentage
+     * @param duree Durée du prêt en années
+     * @param solde Le nouveau solde en centimes
+     */
+    public void definirPret(int ligne, long montant, double taux, double duree, long solde) {
+        long ancien = comptes.getSolde(ligne);
+        comptes.setPret(ligne, montant, taux, duree);
+        comptes.setSolde(ligne, solde);
+        for (AccountListener ecouteur : ecouteurs) {
+            ecouteur.pretModifie(comptes, ligne, ancien);
+        }
+    }
+
+    /**
+     * Ouvre, sur le thread courant, un groupe de modifications que les observateurs doivent traiter
+     * comme un tout (par exemple les deux soldes d'un virement).
+     */
+    public void debutTransaction() {
+        for (AccountListener ecouteur : ecouteurs) {
+            ecouteur.debutTransaction();
+        }
+    }
+
+    /**
+     * Ferme le groupe ouvert par {@link #debutTransaction()}.
+     */
+    public void finTransaction() {
+        for (AccountListener ecouteur : ecouteurs) {
+            ecouteur.finTransaction();
+        }
+    }
+
+    /**
+     * Abonne un observateur aux modifications des comptes.
+     *
+     * @param ecouteur L'observateur
+     */
+    public synchronized void ajouterEcouteur(AccountListener ecouteur) {
+        AccountListener[] nouveaux = Arrays.copyOf(ecouteurs, ecouteurs.length + 1);
+        nouveaux[ecouteurs.length] = ecouteur;
+        ecouteurs = nouveaux;
+    }
+
+    /**
+     * Désabonne un observateur.
+     *
+     * @param ecouteur L'observateur
+     */
+    public synchronized void retirerEcouteur(AccountListener ecouteur) {
+        AccountListener[] restants = new AccountListener[ecouteurs.length];
+        int n = 0;
+        for (AccountListener e : ecouteurs) {
+            if (e != ecouteur) {
+                restants[n++] = e;
+            }
+        }
+        ecouteurs = Arrays.copyOf(restants, n);
+    }
+
+    /**
+     * @return Le nombre de comptes enregistrés
+     */
+    public int taille() {
+        return taille;
+    }
+
+    /**
+     * @return true si aucun compte n'est enregistré
+     */
+    public boolean estVide() {
+        return taille == 0;
+    }
+
+    /**
+     * Donne accès au stockage des comptes, notamment pour les parcours agrégés.
+     *
+     * @return Le stockage des comptes
+     */
+    public AccountStore stockage() {
+        return comptes;
+    }
+
+    /**
+     * Première ligne dans l'ordre de création, pour parcourir le stockage sans créer de vues :
+     * {@code for (int l = premiereLigne(); l >= 0; l = ligneSuivante(l))}.
+     *
+     * @return Le numéro de la ligne, ou -1 si le registre est vide
+     */
+    int premiereLigne() {
+        return tete;
+    }
+
+    /**
+     * @param ligne Une ligne occupée
+     * @return La ligne suivante dans l'ordre de création, ou -1 après la dernière
+     */
+    int ligneSuivante(int ligne) {
+        return suivant[ligne];
+    }
+
+    /**
+     * Parcourt les comptes dans leur ordre de création.
+     *
+     * @return Un itérateur sur les comptes
+     */
+    @Override
+    public Iterator<CompteBancaire> iterator() {
+        return new Iterator<>() {
+            private int courant = tete;
+
+            @Override
+            public boolean hasNext() {
+                return courant != AUCUNE;
+            }
+
+            @Override
+            public CompteBancaire next() {
+                if (courant == AUCUNE) {
+                    throw new NoSuchElementException();
+                }
+                CompteBancaire compte = new VueCompte(AccountRegistry.this, courant);
+                courant = suivant[courant];
+                return compte;
+            }
+        };
+    }
+
+    /**
+     * Indexe une ligne nouvellement occupée dans une case libre et la chaîne en fin d'ordre d'insertion.
+     *
+     * @param i La case libre de la table de hachage
+     * @param entree Le numéro de la ligne
+     * @param cle La clé compacte de l'IBAN de la ligne
+     */
+    private void indexer(int i, int entree, long cle) {
+        if (suivant.length < comptes.capacite()) {
+            suivant = Arrays.copyOf(suivant, comptes.capacite());
+            precedent = Arrays.copyOf(precedent, comptes.capacite());
+        }
+        suivant[entree] = AUCUNE;
+        precedent[entree] = queue;
+        if (queue == AUCUNE) {
+            tete = entree;
+        } else {
+            suivant[queue] = entree;
+        }
+        queue = entree;
+        table[i] = occuper(Iban.hacher(cle), entree);
+        // Maintient un taux de remplissage inférieur à 1/2
+        if (++taille * 2 > table.length) {
+            redimensionnerTable();
+        }
+    }
+
+    /**
+     * Indexe une ligne existante lors de la reconstruction de l'index.
+     *
+     * @param cle La clé compacte de l'IBAN de la ligne
+     * @param entree Le numéro de la ligne
+     */
+    private void indexer(long cle, int entree) {
+        int masque = table.length - 1;
+        int i = (int) Iban.hacher(cle) & masque;
+        while (table[i] != 0) {
+            i = (i + 1) & masque;
+        }
+        indexer(i, entree, cle);
+    }
+
+    /**
+     * Localise la case libre où insérer une clé.
+     *
+     * @param cle La clé compacte de l'IBAN
+     * @return L'indice de la case, ou -1 si la clé est déjà présente
+     */
+    private int chercherCaseLibre(long cle) {
+        int masque = table.length - 1;
+        long hachage = Iban.hacher(cle);
+        int i = (int) hachage & masque;
+        while (table[i] != 0) {
+            if (concorde(table[i], hachage) && comptes.getCodeIban(ligneCase(table[i])) == cle) {
+                return AUCUNE;
+            }
+            i = (i + 1) & masque;
+        }
+        return i;
+    }
+
+    /**
+     * Localise la case de la table contenant une clé.
+     *
+     * @param cle La clé compacte de l'IBAN
+     * @return L'indice de la case, ou -1 si la clé est absente
+     */
+    private int chercherCase(long cle) {
+        int masque = table.length - 1;
+        long hachage = Iban.hacher(cle);
+        int i = (int) hachage & masque;
+        while (table[i] != 0) {
+            if (concorde(table[i], hachage) && comptes.getCodeIban(ligneCase(table[i])) == cle) {
+                return i;
+            }
+            i = (i + 1) & masque;
+        }
+        return AUCUNE;
+    }
+
+    /**
+     * Vide une case de la table en recompactant la suite de sondage (suppression par décalage arrière).
+     *
+     * @param trou L'indice de la case à vider
+     */
+    private void retirerCase(int trou) {
+        int masque = table.length - 1;
+        int i = (trou + 1) & masque;
+        while (table[i] != 0) {
+            int ideale = caseIdeale(table[i], masque);
+            // Déplace l'élément si sa case idéale ne se situe pas entre le trou et sa position
+            if (((i - ideale) & masque) >= ((i - trou) & masque)) {
+                table[trou] = table[i];
+                trou = i;
+            }
+            i = (i + 1) & masque;
+        }
+        table[trou] = 0;
+    }
+
+    /**
+     * Double la taille de la table de hachage et y réinsère toutes les entrées vivantes.
+     */
+    private void redimensionnerTable() {
+        long[] nouvelle = new long[table.length * 2];
+        int masque = nouvelle.length - 1;
+        for (long contenu : table) {
+            if (contenu == 0) {
+                continue;
+            }
+            int i = caseIdeale(contenu, masque);
+            while (nouvelle[i] != 0) {
+                i = (i + 1) & masque;
+            }
+            nouvelle[i] = contenu;
+        }
+        table = nouvelle;
+    }
+
+    /**
+     * Compose le contenu d'une case occupée.
+     *
+     * @param hachage Le hachage de la clé, dont la moitié basse sert d'empreinte
+     * @param entree Le numéro de la ligne
+     * @return Le contenu de la case, jamais nul
+     */
+    private static long occuper(long hachage, int entree) {
+        return hachage << 32 | (entree + 1);
+    }
+
+    /**
+     * @return La case idéale, dans une table de ce masque, de la clé d'une case occupée
+     */
+    private static int caseIdeale(long contenu, int masque) {
+        return (int) (contenu >>> 32) & masque;
+    }
+
+    /**
+     * @return La ligne désignée par une case occupée
+     */
+    private static int ligneCase(long contenu) {
+        return (int) contenu - 1;
+    }
+
+    /**
+     * @return false si la clé de la case ne peut pas être celle de ce hachage, sans lire le stockage
+     */
+    private static boolean concorde(long contenu, long hachage) {
+        return (int) (contenu >>> 32) == (int) hachage;
+    }
+}
@@ -0,0 +1,189 @@
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDateTime;
+import java.util.Locale;
+
+/**
+ * Rendu texte d'un compte, identique caractère pour caractère à l'ancien {@code CompteBancaire#toString()}
+ * fondé sur {@code String.format}, mais écrit directement dans un {@link StringBuilder} réutilisable :
+ * montants, taux, durée et date d'ouverture sont mis en forme à la main, sans objet intermédiaire.
+ * <p>
+ * Les fragments de texte fixes, le séparateur décimal de la locale et les puissances de dix sont calculés
+ * une fois pour toutes. Les cas que la mise en forme manuelle ne couvre pas exactement (nombre sans écriture
+ * décimale courte, année hors de 0 à 9999, locale aux chiffres non latins) repassent par la bibliothèque
+ * standard : le résultat reste le même, seule l'allocation change.
+ */
+public final class AccountRenderer {
+    private static final Locale LOCALE = Locale.getDefault(Locale.Category.FORMAT);
+    private static final DecimalFormatSymbols SYMBOLES = DecimalFormatSymbols.getInstance(LOCALE);
+    // Séparateur de String.format("%.2f") ; chiffres latins requis pour la mise en forme manuelle
+    private static final char SEPARATEUR = SYMBOLES.getDecimalSeparator();
+    private static final boolean CHIFFRES_LATINS = SYMBOLES.getZeroDigit() == '0';
+    private static final int DECIMALES_MAX = 6;
+    private static final long[] PUISSANCES =
+            {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000, 1_000_000_000};
+    private static final double MISE_MAX = 1e15;
+
+    private AccountRenderer() {
+    }
+
+    /**
+     * Écrit un compte à partir de ses accesseurs.
+     *
+     * @param compte Le compte
+     * @param sortie Le tampon de destination
+     * @return Le tampon, pour chaînage
+     */
+    public static StringBuilder ecrire(CompteBancaire compte, StringBuilder sortie) {
+        debut(compte.getCodeIban(), compte.getTitulaire(), compte.getSolde(), sortie);
+        LocalDateTime ouverture = compte.getDateOuverture();
+        if (ouverture == null || ouverture.getYear() < 0 || ouverture.getYear() > 9999) {
+            sortie.append(ouverture);
+        } else {
+            date(ouverture.getYear(), ouverture.getMonthValue(), ouverture.getDayOfMonth(), ouverture.getHour(),
+                    ouverture.getMinute(), ouverture.getSecond(), ouverture.getNano(), sortie);
+        }
+        return pret(compte.getMontantPret(), compte.getTauxInteret(), compte.getDureePret(), sortie);
+    }
+
+    /**
+     * Écrit un compte directement depuis une ligne du stockage, sans vue ni date intermédiaire.
+     *
+     * @param stockage Le stockage des comptes
+     * @param ligne Le numéro de la ligne
+     * @param sortie Le tampon de destination
+     * @return Le tampon, pour chaînage
+     */
+    public static StringBuilder ecrire(AccountStore stockage, int ligne, StringBuilder sortie) {
+        debut(stockage.getCodeIban(ligne), stockage.getTitulaire(ligne), stockage.getSolde(ligne), sortie);
+        date(stockage.getOuverture(ligne), sortie);
+        return pret(stockage.getMontantPret(ligne), stockage.getTauxInteret(ligne), stockage.getDureePret(ligne),
+                sortie);
+    }
+
+    /**
+     * Convertit un compte en texte.
+     *
+     * @param compte Le compte
+     * @return Le texte de {@link CompteBancaire#toString()}
+     */
+    public static String texte(CompteBancaire compte) {
+        return ecrire(compte, new StringBuilder(160)).toString();
+    }
+
+    private static void debut(long cle, String titulaire, long solde, StringBuilder sortie) {
+        sortie.append("IBAN: ");
+        Iban.formater(cle, sortie);
+        sortie.append(", Titulaire: ").append(titulaire).append(", Solde: ");
+        Montant.formater(solde, sortie).append("€, Ouverture: ");
+    }
+
+    private static StringBuilder pret(long montant, double taux, double duree, StringBuilder sortie) {
+        if (montant > 0) {
+            sortie.append(", Prêt: ");
+            Montant.formater(montant, sortie).append("€ (Taux: ");
+            decimal(taux, 2, sortie).append("%, Durée: ");
+            decimal(duree, 1, sortie).append(" ans, Intérêts: ");
+            Montant.formater(Montant.interets(montant, taux, duree), sortie).append("€)");
+        }
+        return sortie;
+    }
+
+    /**
+     * Écrit un nombre comme {@code String.format("%.Nf")} : arrondi au demi supérieur de son écriture
+     * décimale la plus courte, celle de {@link Double#toString(double)}.
+     *
+     * @param valeur Le nombre
+     * @param decimales Le nombre de décimales, au plus {@value #DECIMALES_MAX}
+     * @param sortie Le tampon de destination
+     * @return Le tampon, pour chaînage
+     */
+    static StringBuilder decimal(double valeur, int decimales, StringBuilder sortie) {
+        double absolue = Math.abs(valeur);
+        if (CHIFFRES_LATINS) {
+            // Plus petit nombre de décimales qui redonne exactement la valeur
+            for (int k = 0; k <= DECIMALES_MAX; k++) {
+                double mise = Math.rint(absolue * PUISSANCES[k]);
+                if (mise >= MISE_MAX) {
+                    break;
+                }
+                if (mise / PUISSANCES[k] == absolue) {
+                    long chiffres = (long) mise;
+                    if (k > decimales) {
+                        long diviseur = PUISSANCES[k - decimales];
+                        chiffres = (chiffres + diviseur / 2) / diviseur;
+                    } else {
+                        chiffres *= PUISSANCES[decimales - k];
+                    }
+                    if (Double.doubleToRawLongBits(valeur) < 0) {
+                        sortie.append('-');
+                    }
+                    long unite = PUISSANCES[decimales];
+                    sortie.append(chiffres / unite).append(SEPARATEUR);
+                    long reste = chiffres % unite;
+                    for (long p = unite / 10; p > 0; p /= 10) {
+                        sortie.append((char) ('0' + reste / p % 10));
+                    }
+                    return sortie;
+                }
+            }
+        }
+        return sortie.append(String.format(LOCALE, "%." + decimales + "f", valeur));
+    }
+
+    /**
+     * Écrit une date encodée par {@link AccountStore#encoderDate} comme {@link LocalDateTime#toString()}.
+     */
+    static void date(long nanos, StringBuilder sortie) {
+        long secondes = Math.floorDiv(nanos, 1_000_000_000L);
+        int fraction = (int) Math.floorMod(nanos, 1_000_000_000L);
+        long jours = Math.floorDiv(secondes, 86_400L);
+        int seconde = (int) Math.floorMod(secondes, 86_400L);
+        // Conversion jours depuis l'époque -> date civile, comme SortieOctets#date
+        long z = jours + 719_468;
+        long ere = Math.floorDiv(z, 146_097);
+        long jourEre = z - ere * 146_097;
+        long anneeEre = (jourEre - jourEre / 1_460 + jourEre / 36_524 - jourEre / 146_096) / 365;
+        long jourAnnee = jourEre - (365 * anneeEre + anneeEre / 4 - anneeEre / 100);
+        long moisDecale = (5 * jourAnnee + 2) / 153;
+        int jour = (int) (jourAnnee - (153 * moisDecale + 2) / 5 + 1);
+        int mois = (int) (moisDecale < 10 ? moisDecale + 3 : moisDecale - 9);
+        long annee = anneeEre + ere * 400 + (mois <= 2 ? 1 : 0);
+        if (annee < 0 || annee > 9999) {
+            sortie.append(AccountStore.decoderDate(nanos));
+            return;
+        }
+        date((int) annee, mois, jour, seconde / 3_600, seconde / 60 % 60, seconde % 60, fraction, sortie);
+    }
+
+    private static void date(int annee, int mois, int jour, int heure, int minute, int seconde, int nano,
+            StringBuilder sortie) {
+        chiffres(annee, 4, sortie).append('-');
+        chiffres(mois, 2, sortie).append('-');
+        chiffres(jour, 2, sortie).append('T');
+        chiffres(heure, 2, sortie).append(':');
+        chiffres(minute, 2, sortie);
+        if (seconde > 0 || nano > 0) {
+            chiffres(seconde, 2, sortie.append(':'));
+            if (nano > 0) {
+                sortie.append('.');
+                if (nano % 1_000_000 == 0) {
+                    chiffres(nano / 1_000_000, 3, sortie);
+                } else if (nano % 1_000 == 0) {
+                    chiffres(nano / 1_000, 6, sortie);
+                } else {
+                    chiffres(nano, 9, sortie);
+                }
+            }
+        }
+    }
+
+    /**
+     * Écrit un entier positif sur un nombre fixe de chiffres, complété à gauche par des zéros.
+     */
+    private static StringBuilder chiffres(int valeur, int nombre, StringBuilder sortie) {
+        for (long p = PUISSANCES[nombre - 1]; p > 0; p /= 10) {
+            sortie.append((char) ('0' + valeur / p % 10));
+        }
+        return sortie;
+    }
+}
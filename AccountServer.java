@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serveur TCP exposant les opérations du menu à des clients distants, avec le protocole ligne à ligne
+ * du mode commandes (voir {@link CommandProcessor}) ou le protocole binaire pipeliné
+ * (voir {@link BinaryCommandProcessor}) : chaque connexion est une session sur le registre partagé.
+ * <p>
+ * Chaque connexion est servie par son propre thread, en entrées-sorties bloquantes : un thread virtuel
+ * lorsque la JVM en dispose (Java 21 et suivants), ce qui permet des dizaines de milliers de clients
+ * simultanés, sinon un thread classique d'un pool extensible. Les tampons d'une session sont petits
+ * ({@value #TAILLE_TAMPON} octets) pour que la mémoire reste proportionnée au nombre de clients.
+ */
+public class AccountServer implements AutoCloseable {
+    private static final int TAILLE_TAMPON = 8 * 1024;
+
+    /**
+     * Protocole parlé sur les connexions.
+     */
+    public enum Protocole {
+        TEXTE,
+        BINAIRE
+    }
+
+    private final AccountOperations operations;
+    private final Protocole protocole;
+    private final ServerSocketChannel ecoute;
+    private final ExecutorService sessions;
+    private final Set<SocketChannel> connexions = ConcurrentHashMap.newKeySet();
+    private final AtomicLong acceptees = new AtomicLong();
+    private final Thread accepteur;
+
+    /**
+     * Constructeur d'un serveur du protocole texte : ouvre le port d'écoute et commence à accepter
+     * les connexions.
+     *
+     * @param operations Les opérations exécutées par les clients
+     * @param port Le port TCP, 0 pour un port libre choisi par le système
+     * @throws IOException si le port ne peut être ouvert
+     */
+    public AccountServer(AccountOperations operations, int port) throws IOException {
+        this(operations, port, Protocole.TEXTE);
+    }
+
+    /**
+     * Constructeur : ouvre le port d'écoute et commence à accepter les connexions.
+     *
+     * @param operations Les opérations exécutées par les clients
+     * @param port Le port TCP, 0 pour un port libre choisi par le système
+     * @param protocole Le protocole des connexions
+     * @throws IOException si le port ne peut être ouvert
+     */
+    public AccountServer(AccountOperations operations, int port, Protocole protocole) throws IOException {
+        this.operations = operations;
+        this.protocole = protocole;
+        this.ecoute = ServerSocketChannel.open();
+        ecoute.bind(new InetSocketAddress(port), 1024);
+        this.sessions = executeurParTache("session");
+        this.accepteur = new Thread(this::accepter, "serveur-" + port());
+        accepteur.setDaemon(true);
+        accepteur.start();
+    }
+
+    /**
+     * @return Le port d'écoute effectif
+     */
+    public int port() {
+        try {
+            return ((InetSocketAddress) ecoute.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return Le nombre de connexions acceptées depuis le démarrage
+     */
+    public long getAcceptees() {
+        return acceptees.get();
+    }
+
+    /**
+     * @return Le nombre de connexions ouvertes
+     */
+    public int getConnexions() {
+        return connexions.size();
+    }
+
+    /**
+     * Cesse d'accepter des connexions et ferme celles en cours ; les commandes en cours d'exécution se terminent.
+     *
+     * @throws IOException si le port d'écoute ne peut être fermé
+     */
+    @Override
+    public void close() throws IOException {
+        ecoute.close();
+        sessions.shutdown();
+        for (SocketChannel connexion : connexions) {
+            try {
+                connexion.close();
+            } catch (IOException e) {
+                // La session se termine de toute façon
+            }
+        }
+    }
+
+    private void accepter() {
+        while (true) {
+            SocketChannel connexion;
+            try {
+                connexion = ecoute.accept();
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException e) {
+                if (!ecoute.isOpen()) {
+                    return;
+                }
+                // Typiquement trop de descripteurs ouverts : les clients suivants réessaieront
+                System.err.println("Échec de l'acceptation d'une connexion : " + e);
+                continue;
+            }
+            acceptees.incrementAndGet();
+            connexions.add(connexion);
+            try {
+                sessions.execute(() -> servir(connexion));
+            } catch (RejectedExecutionException e) {
+                fermer(connexion);
+                return;
+            }
+        }
+    }
+
+    private void servir(SocketChannel connexion) {
+        try {
+            // Réponses courtes : pas d'attente de Nagle entre deux lignes
+            connexion.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (protocole == Protocole.TEXTE) {
+                new BatchCommandRunner(operations, TAILLE_TAMPON).executer(connexion, connexion);
+            } else {
+                new BinaryCommandProcessor(operations).executer(connexion, connexion);
+            }
+        } catch (IOException e) {
+            // Client parti, trame incohérente ou serveur arrêté : rien à répondre
+        } finally {
+            fermer(connexion);
+        }
+    }
+
+    private void fermer(SocketChannel connexion) {
+        connexions.remove(connexion);
+        try {
+            connexion.close();
+        } catch (IOException e) {
+            // Déjà fermée
+        }
+    }
+
+    /**
+     * Un thread virtuel par tâche si la JVM le permet, cherché par réflexion pour que le code reste
+     * compilable et exécutable sur les versions antérieures à Java 21 ; sinon un pool extensible de threads
+     * démons à petite pile.
+     *
+     * @param nom Le nom des threads du pool de repli
+     * @return L'exécuteur
+     */
+    static ExecutorService executeurParTache(String nom) {
+        try {
+            Method fabrique = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) fabrique.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(tache -> {
+                Thread thread = new Thread(null, tache, nom, 256 * 1024);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
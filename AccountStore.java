@@ -0,0 +1,134 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Stockage des champs des comptes bancaires, organisé en lignes numérotées.
+ * Le registre ({@link AccountRegistry}) indexe ces lignes par IBAN ; les appelants manipulent
+ * les comptes au travers des vues {@link CompteBancaire} qu'il fournit.
+ * <p>
+ * Une ligne libre a un IBAN égal à {@link Iban#INVALIDE} et des valeurs numériques nulles.
+ * Les montants (solde, prêt) sont exprimés en centimes (voir {@link Montant}).
+ */
+public interface AccountStore {
+
+    /**
+     * Occupe une nouvelle ligne pour un compte sans prêt.
+     *
+     * @param codeIban La clé compacte de l'IBAN
+     * @param titulaire Le nom du titulaire
+     * @param solde Le solde initial en centimes
+     * @param ouverture La date d'ouverture encodée par {@link #encoderDate(LocalDateTime)}
+     * @return Le numéro de la ligne occupée
+     */
+    int ajouter(long codeIban, String titulaire, long solde, long ouverture);
+
+    /**
+     * Recopie un compte dans une nouvelle ligne.
+     *
+     * @param compte Le compte à recopier
+     * @return Le numéro de la ligne occupée
+     */
+    default int ajouter(CompteBancaire compte) {
+        int ligne = ajouter(compte.getCodeIban(), compte.getTitulaire(), compte.getSolde(),
+                encoderDate(compte.getDateOuverture()));
+        setPret(ligne, compte.getMontantPret(), compte.getTauxInteret(), compte.getDureePret());
+        return ligne;
+    }
+
+    /**
+     * Libère une ligne pour qu'elle soit réutilisée ; ses valeurs sont remises à zéro.
+     *
+     * @param ligne Le numéro de la ligne à libérer
+     */
+    void liberer(int ligne);
+
+    /**
+     * @return Le nombre de lignes occupées
+     */
+    int taille();
+
+    /**
+     * @return Le nombre de lignes allouées, occupées ou non
+     */
+    int capacite();
+
+    /**
+     * @return Le nombre de lignes déjà utilisées au moins une fois ; aucune ligne au-delà n'est occupée
+     */
+    int limite();
+
+    /**
+     * Calcule la somme des soldes de tous les comptes.
+     *
+     * @return Le solde total en centimes
+     * @throws ArithmeticException si la somme déborde
+     */
+    long soldeTotal();
+
+    /**
+     * Calcule la somme des intérêts simples dus sur tous les prêts actifs.
+     *
+     * @return L'exposition totale aux intérêts, en centimes
+     * @throws ArithmeticException si la somme déborde
+     */
+    long interetsTotaux();
+
+    // Accès par ligne
+    long getCodeIban(int ligne);
+
+    String getTitulaire(int ligne);
+
+    void setTitulaire(int ligne, String titulaire);
+
+    long getSolde(int ligne);
+
+    void setSolde(int ligne, long solde);
+
+    long getOuverture(int ligne);
+
+    long getMontantPret(int ligne);
+
+    double getTauxInteret(int ligne);
+
+    double getDureePret(int ligne);
+
+    /**
+     * Écrit les caractéristiques du prêt d'une ligne, sans toucher au solde.
+     *
+     * @param ligne Le numéro de la ligne
+     * @param montant Montant du prêt en centimes
+     * @param taux Taux d'intérêt annuel en pourcentage
+     * @param duree Durée du prêt en années
+     */
+    void setPret(int ligne, long montant, double taux, double duree);
+
+    /**
+     * Encode une date d'ouverture en nanosecondes depuis l'époque, l'heure locale étant lue comme UTC.
+     * Couvre les années 1677 à 2262 sans perte de précision.
+     *
+     * @param date La date à encoder
+     * @return La date encodée
+     */
+    static long encoderDate(LocalDateTime date) {
+        long secondes = date.toEpochSecond(ZoneOffset.UTC);
+        long nanos = date.getNano();
+        // Avant 1970, une seconde de plus et des nanosecondes négatives : la plus ancienne date encodable
+        // ne déborde pas dans la multiplication
+        if (secondes < 0 && nanos > 0) {
+            secondes++;
+            nanos -= 1_000_000_000L;
+        }
+        return Math.addExact(Math.multiplyExact(secondes, 1_000_000_000L), nanos);
+    }
+
+    /**
+     * Décode une date produite par {@link #encoderDate(LocalDateTime)}.
+     *
+     * @param nanos La date encodée
+     * @return La date correspondante
+     */
+    static LocalDateTime decoderDate(long nanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+                (int) Math.floorMod(nanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+}
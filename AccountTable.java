@@ -0,0 +1,200 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stockage en colonnes des comptes bancaires, conservé dans le tas.
+ * Chaque champ de {@link CompteBancaire} est rangé dans un tableau primitif indexé par numéro de ligne,
+ * et les titulaires sont internés dans un dictionnaire. Les parcours (solde total, exposition aux intérêts)
+ * deviennent de simples boucles sur des tableaux contigus.
+ * <p>
+ * Les appelants existants manipulent les lignes au travers de vues {@link CompteBancaire} légères
+ * fournies par le registre, dont les accesseurs lisent directement les colonnes.
+ */
+public class AccountTable implements AccountStore {
+    private static final int CAPACITE_INITIALE = 16;
+
+    // Colonnes ; une ligne libre a un IBAN invalide et des valeurs numériques nulles
+    private long[] iban = new long[CAPACITE_INITIALE];
+    private int[] titulaire = new int[CAPACITE_INITIALE]; // Identifiant dans le dictionnaire des noms
+    private long[] solde = new long[CAPACITE_INITIALE]; // En centimes
+    private long[] ouverture = new long[CAPACITE_INITIALE]; // Voir AccountStore.encoderDate
+    private long[] montantPret = new long[CAPACITE_INITIALE]; // En centimes
+    private double[] tauxInteret = new double[CAPACITE_INITIALE];
+    private double[] dureePret = new double[CAPACITE_INITIALE];
+
+    // Lignes déjà utilisées au moins une fois, et pile des lignes libérées
+    private int limite;
+    private int[] lignesLibres = new int[CAPACITE_INITIALE];
+    private int nbLibres;
+    private int taille;
+
+    // Dictionnaire des titulaires : identifiant -> nom et nom -> identifiant.
+    // Un renommage ne prend que le verrou de tranche de son compte : le dictionnaire est complété sous le
+    // moniteur de la table, et le tableau des noms republié à chaque agrandissement pour les lecteurs
+    private volatile String[] noms = new String[CAPACITE_INITIALE];
+    private int nbNoms;
+    private final Map<String, Integer> idsNoms = new HashMap<>();
+
+    @Override
+    public int ajouter(long codeIban, String nom, long montant, long dateOuverture) {
+        int ligne;
+        if (nbLibres > 0) {
+            ligne = lignesLibres[--nbLibres];
+        } else {
+            if (limite == iban.length) {
+                agrandir();
+            }
+            ligne = limite++;
+        }
+        iban[ligne] = codeIban;
+        titulaire[ligne] = interner(nom);
+        solde[ligne] = montant;
+        ouverture[ligne] = dateOuverture;
+        taille++;
+        return ligne;
+    }
+
+    /**
+     * {@inheritDoc}
+     * La remise à zéro permet aux parcours d'inclure les lignes libres sans test.
+     */
+    @Override
+    public void liberer(int ligne) {
+        iban[ligne] = Iban.INVALIDE;
+        titulaire[ligne] = 0;
+        solde[ligne] = 0L;
+        ouverture[ligne] = 0L;
+        montantPret[ligne] = 0L;
+        tauxInteret[ligne] = 0.0;
+        dureePret[ligne] = 0.0;
+        if (nbLibres == lignesLibres.length) {
+            lignesLibres = Arrays.copyOf(lignesLibres, nbLibres * 2);
+        }
+        lignesLibres[nbLibres++] = ligne;
+        taille--;
+    }
+
+    @Override
+    public int taille() {
+        return taille;
+    }
+
+    @Override
+    public int capacite() {
+        return iban.length;
+    }
+
+    @Override
+    public int limite() {
+        return limite;
+    }
+
+    @Override
+    public long soldeTotal() {
+        long total = 0;
+        for (int i = 0; i < limite; i++) {
+            total = Math.addExact(total, solde[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public long interetsTotaux() {
+        long total = 0;
+        for (int i = 0; i < limite; i++) {
+            total = Math.addExact(total, Montant.interets(montantPret[i], tauxInteret[i], dureePret[i]));
+        }
+        return total;
+    }
+
+    @Override
+    public long getCodeIban(int ligne) {
+        return iban[ligne];
+    }
+
+    @Override
+    public String getTitulaire(int ligne) {
+        return noms[titulaire[ligne]];
+    }
+
+    @Override
+    public void setTitulaire(int ligne, String nom) {
+        titulaire[ligne] = interner(nom);
+    }
+
+    @Override
+    public long getSolde(int ligne) {
+        return solde[ligne];
+    }
+
+    @Override
+    public void setSolde(int ligne, long montant) {
+        solde[ligne] = montant;
+    }
+
+    @Override
+    public long getOuverture(int ligne) {
+        return ouverture[ligne];
+    }
+
+    @Override
+    public long getMontantPret(int ligne) {
+        return montantPret[ligne];
+    }
+
+    @Override
+    public double getTauxInteret(int ligne) {
+        return tauxInteret[ligne];
+    }
+
+    @Override
+    public double getDureePret(int ligne) {
+        return dureePret[ligne];
+    }
+
+    @Override
+    public void setPret(int ligne, long montant, double taux, double duree) {
+        montantPret[ligne] = montant;
+        tauxInteret[ligne] = taux;
+        dureePret[ligne] = duree;
+    }
+
+    /**
+     * Retourne l'identifiant d'un nom dans le dictionnaire, en l'y ajoutant au besoin.
+     * Des renommages de comptes de tranches différentes peuvent l'appeler en même temps.
+     * Un nom ajouté est écrit dans le tableau avant que son identifiant ne soit rangé dans une ligne.
+     * Un lecteur de cette ligne le trouve donc, que ce soit dans ce tableau ou dans sa copie agrandie.
+     *
+     * @param nom Le nom du titulaire
+     * @return Son identifiant
+     */
+    private synchronized int interner(String nom) {
+        Integer id = idsNoms.get(nom);
+        if (id != null) {
+            return id;
+        }
+        String[] noms = this.noms;
+        if (nbNoms == noms.length) {
+            noms = Arrays.copyOf(noms, nbNoms * 2);
+            this.noms = noms;
+        }
+        noms[nbNoms] = nom;
+        idsNoms.put(nom, nbNoms);
+        return nbNoms++;
+    }
+
+    /**
+     * Double la capacité de toutes les colonnes.
+     */
+    private void agrandir() {
+        int capacite = iban.length * 2;
+        iban = Arrays.copyOf(iban, capacite);
+        titulaire = Arrays.copyOf(titulaire, capacite);
+        solde = Arrays.copyOf(solde, capacite);
+        ouverture = Arrays.copyOf(ouverture, capacite);
+        montantPret = Arrays.copyOf(montantPret, capacite);
+        tauxInteret = Arrays.copyOf(tauxInteret, capacite);
+        dureePret = Arrays.copyOf(dureePret, capacite);
+    }
+}
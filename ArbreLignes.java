@@ -0,0 +1,284 @@
+import java.util.Arrays;
+
+/**
+ * Arbre de recherche ordonné des lignes du stockage selon une valeur entière (solde, date...), avec la taille
+ * de chaque sous-arbre pour compter et classer en temps logarithmique.
+ * <p>
+ * C'est un arbre-tas (treap) dont les nœuds sont les lignes elles-mêmes : fils gauche, fils droit, taille et
+ * valeur sont rangés dans des tableaux indexés par ligne, sans objet par nœud, soit 20 octets par ligne.
+ * La priorité d'une ligne est un mélange de son numéro, ce qui garde l'arbre équilibré en moyenne quel que
+ * soit l'ordre des valeurs. Les valeurs égales sont départagées par numéro de ligne.
+ * <p>
+ * L'arbre n'est pas protégé contre les accès concurrents.
+ */
+final class ArbreLignes {
+    private static final int AUCUNE = -1;
+
+    private int[] gauches = new int[0];
+    private int[] droites = new int[0];
+    // Taille du sous-arbre, 0 pour une ligne absente
+    private int[] tailles = new int[0];
+    private long[] valeurs = new long[0];
+    private int racine = AUCUNE;
+
+    /**
+     * Ajoute une ligne, ou la déplace si elle est déjà présente.
+     *
+     * @param ligne La ligne
+     * @param valeur Sa valeur
+     */
+    void placer(int ligne, long valeur) {
+        if (contient(ligne)) {
+            if (valeurs[ligne] == valeur) {
+                return;
+            }
+            racine = retirer(racine, ligne);
+        } else if (ligne >= tailles.length) {
+            int capacite = Math.max(ligne + 1, Math.max(16, tailles.length * 2));
+            gauches = Arrays.copyOf(gauches, capacite);
+            droites = Arrays.copyOf(droites, capacite);
+            tailles = Arrays.copyOf(tailles, capacite);
+            valeurs = Arrays.copyOf(valeurs, capacite);
+        }
+        valeurs[ligne] = valeur;
+        gauches[ligne] = AUCUNE;
+        droites[ligne] = AUCUNE;
+        tailles[ligne] = 1;
+        racine = inserer(racine, ligne);
+    }
+
+    /**
+     * Retire une ligne.
+     *
+     * @param ligne La ligne
+     * @return false si elle était absente
+     */
+    boolean enlever(int ligne) {
+        if (!contient(ligne)) {
+            return false;
+        }
+        racine = retirer(racine, ligne);
+        tailles[ligne] = 0;
+        return true;
+    }
+
+    /**
+     * @return true si la ligne est dans l'arbre
+     */
+    boolean contient(int ligne) {
+        return ligne < tailles.length && tailles[ligne] != 0;
+    }
+
+    /**
+     * @return Le nombre de lignes
+     */
+    int taille() {
+        return taille(racine);
+    }
+
+    /**
+     * Compte les lignes de valeur strictement inférieure à une borne.
+     *
+     * @param borne La borne
+     * @return Le nombre de lignes
+     */
+    int rang(long borne) {
+        int rang = 0;
+        int t = racine;
+        while (t != AUCUNE) {
+            if (valeurs[t] < borne) {
+                rang += taille(gauches[t]) + 1;
+                t = droites[t];
+            } else {
+                t = gauches[t];
+            }
+        }
+        return rang;
+    }
+
+    /**
+     * Compte les lignes dont la valeur est comprise entre deux bornes incluses.
+     *
+     * @param min La borne inférieure
+     * @param max La borne supérieure
+     * @return Le nombre de lignes
+     */
+    int compter(long min, long max) {
+        if (min > max) {
+            return 0;
+        }
+        int jusquaMax = max == Long.MAX_VALUE ? taille() : rang(max + 1);
+        return jusquaMax - rang(min);
+    }
+
+    /**
+     * Donne les lignes dont la valeur est comprise entre deux bornes incluses, par valeur croissante.
+     *
+     * @param min La borne inférieure
+     * @param max La borne supérieure
+     * @param limite Le nombre maximal de lignes
+     * @return Les lignes, au plus {@code limite}
+     */
+    int[] entre(long min, long max, int limite) {
+        Collecte collecte = new Collecte(Math.min(limite, compter(min, max)));
+        croissant(racine, min, max, collecte);
+        return collecte.lignes;
+    }
+
+    /**
+     * Donne les lignes de plus grande valeur, par valeur décroissante.
+     *
+     * @param limite Le nombre maximal de lignes
+     * @return Les lignes, au plus {@code limite}
+     */
+    int[] plusGrandes(int limite) {
+        Collecte collecte = new Collecte(Math.min(limite, taille()));
+        decroissant(racine, collecte);
+        return collecte.lignes;
+    }
+
+    /**
+     * @return La valeur d'une ligne présente
+     */
+    long valeur(int ligne) {
+        return valeurs[ligne];
+    }
+
+    private int taille(int t) {
+        return t == AUCUNE ? 0 : tailles[t];
+    }
+
+    private void recompter(int t) {
+        tailles[t] = taille(gauches[t]) + taille(droites[t]) + 1;
+    }
+
+    private boolean avant(int a, int b) {
+        return valeurs[a] < valeurs[b] || valeurs[a] == valeurs[b] && a < b;
+    }
+
+    private static int priorite(int ligne) {
+        int h = ligne * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int inserer(int t, int ligne) {
+        if (t == AUCUNE) {
+            return ligne;
+        }
+        if (priorite(ligne) > priorite(t)) {
+            // La ligne devient la racine de ce sous-arbre, qu'elle partage en deux
+            couper(t, ligne);
+            recompter(ligne);
+            return ligne;
+        }
+        if (avant(ligne, t)) {
+            gauches[t] = inserer(gauches[t], ligne);
+        } else {
+            droites[t] = inserer(droites[t], ligne);
+        }
+        recompter(t);
+        return t;
+    }
+
+    /**
+     * Partage un sous-arbre autour d'une ligne qui n'y figure pas : ce qui la précède devient son fils
+     * gauche, le reste son fils droit.
+     */
+    private void couper(int t, int ligne) {
+        if (t == AUCUNE) {
+            gauches[ligne] = AUCUNE;
+            droites[ligne] = AUCUNE;
+            return;
+        }
+        if (avant(t, ligne)) {
+            couper(droites[t], ligne);
+            droites[t] = gauches[ligne];
+            recompter(t);
+            gauches[ligne] = t;
+        } else {
+            couper(gauches[t], ligne);
+            gauches[t] = droites[ligne];
+            recompter(t);
+            droites[ligne] = t;
+        }
+    }
+
+    private int retirer(int t, int ligne) {
+        if (t == ligne) {
+            return fusionner(gauches[t], droites[t]);
+        }
+        if (avant(ligne, t)) {
+            gauches[t] = retirer(gauches[t], ligne);
+        } else {
+            droites[t] = retirer(droites[t], ligne);
+        }
+        recompter(t);
+        return t;
+    }
+
+    /**
+     * Fusionne deux sous-arbres dont toutes les lignes du premier précèdent celles du second.
+     */
+    private int fusionner(int a, int b) {
+        if (a == AUCUNE) {
+            return b;
+        }
+        if (b == AUCUNE) {
+            return a;
+        }
+        if (priorite(a) > priorite(b)) {
+            droites[a] = fusionner(droites[a], b);
+            recompter(a);
+            return a;
+        }
+        gauches[b] = fusionner(a, gauches[b]);
+        recompter(b);
+        return b;
+    }
+
+    private void croissant(int t, long min, long max, Collecte collecte) {
+        if (t == AUCUNE || collecte.pleine()) {
+            return;
+        }
+        if (valeurs[t] >= min) {
+            croissant(gauches[t], min, max, collecte);
+        }
+        if (valeurs[t] >= min && valeurs[t] <= max) {
+            collecte.ajouter(t);
+        }
+        if (valeurs[t] <= max) {
+            croissant(droites[t], min, max, collecte);
+        }
+    }
+
+    private void decroissant(int t, Collecte collecte) {
+        if (t == AUCUNE || collecte.pleine()) {
+            return;
+        }
+        decroissant(droites[t], collecte);
+        collecte.ajouter(t);
+        decroissant(gauches[t], collecte);
+    }
+
+    /**
+     * Lignes recueillies par un parcours, dans un tableau de la taille du résultat.
+     */
+    private static final class Collecte {
+        private final int[] lignes;
+        private int nombre;
+
+        Collecte(int capacite) {
+            lignes = new int[Math.max(0, capacite)];
+        }
+
+        boolean pleine() {
+            return nombre == lignes.length;
+        }
+
+        void ajouter(int ligne) {
+            if (nombre < lignes.length) {
+                lignes[nombre++] = ligne;
+            }
+        }
+    }
+}
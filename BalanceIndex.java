@@ -0,0 +1,236 @@
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index ordonné des comptes par solde, tenu à jour comme observateur du registre : comptes dont le solde est
+ * dans une plage, nombre de ces comptes et plus gros soldes, en temps logarithmique (plus le nombre de
+ * comptes renvoyés) au lieu d'un parcours complet suivi d'un tri.
+ * <p>
+ * Tout changement de solde passe par le registre ({@code setSolde}, prêt, virement, crédit, débit) et le notifie
+ * par {@link AccountListener#soldeModifie} ou {@link AccountListener#pretModifie} : l'index les suit tous.
+ * <p>
+ * Les soldes changent sous les seuls verrous de tranche des comptes, depuis toutes les sessions : un verrou
+ * unique pour l'index sérialiserait tous les crédits, débits et virements. Les lignes sont donc réparties
+ * selon leur numéro entre plusieurs {@link ArbreLignes}, chacun sous son propre verrou. Une modification
+ * ne prend que le verrou d'écriture de son arbre. Une recherche prend les verrous de lecture de tous les
+ * arbres, dans l'ordre, ce qui lui donne une vue cohérente, et fusionne leurs réponses. Elle coûte donc
+ * environ autant de fois plus cher qu'il y a d'arbres.
+ */
+public class BalanceIndex implements AccountListener {
+    private final AccountStore stockage;
+    // Arbre i : lignes de numéro congru à i modulo le nombre d'arbres, sous le numéro ligne >>> decalage
+    private final ArbreLignes[] arbres;
+    private final ReentrantReadWriteLock[] verrous;
+    private final int decalage;
+
+    /**
+     * Construit l'index des comptes déjà enregistrés et l'abonne aux modifications du registre, avec un arbre
+     * par processeur : de quoi ne pas freiner les sessions, sans trop alourdir les recherches.
+     * À créer avant que des sessions concurrentes ne modifient le registre, ou sous tous leurs verrous
+     * (voir {@link AccountOperations#verrouillerTout()}).
+     *
+     * @param registre Le registre à indexer
+     */
+    public BalanceIndex(AccountRegistry registre) {
+        this(registre, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construit l'index des comptes déjà enregistrés et l'abonne aux modifications du registre.
+     * À créer avant que des sessions concurrentes ne modifient le registre, ou sous tous leurs verrous.
+     *
+     * @param registre Le registre à indexer
+     * @param tranches Le nombre minimal d'arbres, arrondi à la puissance de deux supérieure
+     */
+    public BalanceIndex(AccountRegistry registre, int tranches) {
+        int nombre = Integer.highestOneBit(Math.max(1, tranches - 1)) << 1;
+        this.stockage = registre.stockage();
+        this.arbres = new ArbreLignes[nombre];
+        this.verrous = new ReentrantReadWriteLock[nombre];
+        for (int i = 0; i < nombre; i++) {
+            arbres[i] = new ArbreLignes();
+            verrous[i] = new ReentrantReadWriteLock();
+        }
+        this.decalage = Integer.numberOfTrailingZeros(nombre);
+        for (int ligne = registre.premiereLigne(); ligne >= 0; ligne = registre.ligneSuivante(ligne)) {
+            placer(ligne);
+        }
+        registre.ajouterEcouteur(this);
+    }
+
+    /**
+     * Compte les comptes dont le solde est dans une plage.
+     *
+     * @param min Le solde minimal en centimes, inclus
+     * @param max Le solde maximal en centimes, inclus
+     * @return Le nombre de comptes
+     */
+    public int compter(long min, long max) {
+        verrouillerLecture();
+        try {
+            int nombre = 0;
+            for (ArbreLignes arbre : arbres) {
+                nombre += arbre.compter(min, max);
+            }
+            return nombre;
+        } finally {
+            deverrouillerLecture();
+        }
+    }
+
+    /**
+     * Recherche les comptes dont le solde est dans une plage, par solde croissant.
+     *
+     * @param min Le solde minimal en centimes, inclus
+     * @param max Le solde maximal en centimes, inclus
+     * @param limite Le nombre maximal de comptes à renvoyer
+     * @return Les clés compactes des IBAN, au plus {@code limite}
+     */
+    public long[] entre(long min, long max, int limite) {
+        verrouillerLecture();
+        try {
+            int[][] parArbre = new int[arbres.length][];
+            for (int i = 0; i < arbres.length; i++) {
+                parArbre[i] = arbres[i].entre(min, max, limite);
+            }
+            return fusionner(parArbre, limite, true);
+        } finally {
+            deverrouillerLecture();
+        }
+    }
+
+    /**
+     * Donne les comptes aux plus gros soldes, par solde décroissant.
+     *
+     * @param limite Le nombre de comptes
+     * @return Les clés compactes des IBAN, au plus {@code limite}
+     */
+    public long[] plusGrosSoldes(int limite) {
+        verrouillerLecture();
+        try {
+            int[][] parArbre = new int[arbres.length][];
+            for (int i = 0; i < arbres.length; i++) {
+                parArbre[i] = arbres[i].plusGrandes(limite);
+            }
+            return fusionner(parArbre, limite, false);
+        } finally {
+            deverrouillerLecture();
+        }
+    }
+
+    /**
+     * @return Le nombre de comptes indexés
+     */
+    public int taille() {
+        verrouillerLecture();
+        try {
+            int taille = 0;
+            for (ArbreLignes arbre : arbres) {
+                taille += arbre.taille();
+            }
+            return taille;
+        } finally {
+            deverrouillerLecture();
+        }
+    }
+
+    @Override
+    public void compteAjoute(AccountStore stockage, int ligne) {
+        placer(ligne);
+    }
+
+    @Override
+    public void soldeModifie(AccountStore stockage, int ligne, long ancienSolde) {
+        placer(ligne, ancienSolde);
+    }
+
+    @Override
+    public void pretModifie(AccountStore stockage, int ligne, long ancienSolde) {
+        placer(ligne, ancienSolde);
+    }
+
+    @Override
+    public void compteSupprime(AccountStore stockage, int ligne) {
+        ReentrantReadWriteLock verrou = verrous[arbre(ligne)];
+        verrou.writeLock().lock();
+        try {
+            arbres[arbre(ligne)].enlever(ligne >>> decalage);
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace une ligne dont le solde a pu changer, sans prendre de verrou s'il est inchangé.
+     */
+    private void placer(int ligne, long ancienSolde) {
+        if (stockage.getSolde(ligne) != ancienSolde) {
+            placer(ligne);
+        }
+    }
+
+    private void placer(int ligne) {
+        ReentrantReadWriteLock verrou = verrous[arbre(ligne)];
+        verrou.writeLock().lock();
+        try {
+            arbres[arbre(ligne)].placer(ligne >>> decalage, stockage.getSolde(ligne));
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    private int arbre(int ligne) {
+        return ligne & (arbres.length - 1);
+    }
+
+    /**
+     * Fusionne les réponses triées des arbres en une seule liste triée, les soldes égaux étant départagés
+     * par numéro de ligne comme dans un arbre.
+     *
+     * @param parArbre Les lignes locales renvoyées par chaque arbre
+     * @param limite Le nombre maximal de comptes
+     * @param croissant true pour l'ordre croissant des soldes
+     * @return Les clés compactes des IBAN
+     */
+    private long[] fusionner(int[][] parArbre, int limite, boolean croissant) {
+        int total = 0;
+        for (int[] lignes : parArbre) {
+            total += lignes.length;
+        }
+        long[] cles = new long[Math.min(limite, total)];
+        int[] positions = new int[parArbre.length];
+        for (int n = 0; n < cles.length; n++) {
+            int meilleur = -1;
+            long valeur = 0;
+            int ligne = 0;
+            for (int i = 0; i < parArbre.length; i++) {
+                if (positions[i] == parArbre[i].length) {
+                    continue;
+                }
+                int locale = parArbre[i][positions[i]];
+                long v = arbres[i].valeur(locale);
+                int l = locale << decalage | i;
+                boolean avant = v != valeur ? v < valeur == croissant : l < ligne == croissant;
+                if (meilleur < 0 || avant) {
+                    meilleur = i;
+                    valeur = v;
+                    ligne = l;
+                }
+            }
+            positions[meilleur]++;
+            cles[n] = stockage.getCodeIban(ligne);
+        }
+        return cles;
+    }
+
+    private void verrouillerLecture() {
+        for (ReentrantReadWriteLock verrou : verrous) {
+            verrou.readLock().lock();
+        }
+    }
+
+    private void deverrouillerLecture() {
+        for (int i = verrous.length - 1; i >= 0; i--) {
+            verrous[i].readLock().unlock();
+        }
+    }
+}
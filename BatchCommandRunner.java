@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Mode commandes : exécute sans invite un flux de commandes (fichier de traitement de nuit, entrée standard)
+ * et écrit une ligne de réponse par commande (voir {@link CommandProcessor}).
+ * <p>
+ * L'entrée est lue par blocs dans un tampon réutilisé et découpée en lignes sur place ; les réponses
+ * sont accumulées dans un tampon de sortie, vidé avant chaque nouvelle lecture : un client interactif
+ * (connexion du {@link AccountServer}) reçoit ses réponses dès que ses commandes en attente sont traitées,
+ * un fichier est traité par blocs. Avec un journal, les commandes d'un même bloc n'attendent le disque
+ * qu'une fois, juste avant l'envoi de leurs réponses. Les lignes vides et celles commençant par {@code #}
+ * sont ignorées.
+ */
+public class BatchCommandRunner {
+    private static final int TAILLE_TAMPON = 1 << 20;
+    private static final byte[] TROP_LONGUE = "ERREUR;ligne trop longue".getBytes(StandardCharsets.US_ASCII);
+
+    private final AccountOperations operations;
+    private final CommandProcessor interpreteur;
+    private final int tailleTampon;
+    private long executees;
+    private long echecs;
+
+    /**
+     * Constructeur.
+     *
+     * @param operations Les opérations exécutées par les commandes
+     */
+    public BatchCommandRunner(AccountOperations operations) {
+        this(operations, TAILLE_TAMPON);
+    }
+
+    /**
+     * Constructeur.
+     *
+     * @param operations Les opérations exécutées par les commandes
+     * @param tailleTampon La taille des tampons d'entrée et de sortie, qui borne la longueur d'une ligne
+     */
+    BatchCommandRunner(AccountOperations operations, int tailleTampon) {
+        this.operations = operations;
+        this.interpreteur = new CommandProcessor(operations);
+        this.tailleTampon = tailleTampon;
+    }
+
+    /**
+     * Exécute toutes les commandes d'un flux.
+     *
+     * @param entree Le flux des commandes
+     * @param canalSortie Le flux des réponses
+     * @throws IOException si la lecture ou l'écriture échoue
+     */
+    public void executer(ReadableByteChannel entree, WritableByteChannel canalSortie) throws IOException {
+        operations.differerDurabilite(true);
+        try {
+            // Aucune réponse ne part avant que les modifications qui la précèdent soient durables
+            executerLots(entree, new SortieOctets(canalSortie, tailleTampon, operations::attendreDurabilite));
+        } finally {
+            operations.differerDurabilite(false);
+        }
+    }
+
+    /**
+     * @return Le nombre de commandes exécutées
+     */
+    public long getExecutees() {
+        return executees;
+    }
+
+    /**
+     * @return Le nombre de commandes en échec
+     */
+    public long getEchecs() {
+        return echecs;
+    }
+
+    private void executerLots(ReadableByteChannel entree, SortieOctets sortie) throws IOException {
+        ByteBuffer tampon = ByteBuffer.allocate(tailleTampon);
+        boolean ignorerLigne = false; // Reste d'une ligne trop longue
+        boolean finFlux = false;
+        while (!finFlux) {
+            // Les réponses déjà prêtes partent avant une lecture qui peut attendre le client
+            sortie.vider();
+            finFlux = entree.read(tampon) < 0;
+            tampon.flip();
+            int debut = 0;
+            int limite = tampon.limit();
+            for (int i = 0; i < limite; i++) {
+                if (tampon.get(i) == '\n') {
+                    if (!ignorerLigne) {
+                        traiterLigne(tampon, debut, i, sortie);
+                    }
+                    ignorerLigne = false;
+                    debut = i + 1;
+                }
+            }
+            if (finFlux) {
+                if (!ignorerLigne && debut < limite) {
+                    traiterLigne(tampon, debut, limite, sortie);
+                }
+            } else if (debut == 0 && limite == tampon.capacity()) {
+                // Tampon plein sans fin de ligne : la commande est rejetée et son reste ignoré
+                if (!ignorerLigne) {
+                    echec(sortie);
+                }
+                ignorerLigne = true;
+                tampon.clear();
+                continue;
+            }
+            tampon.position(debut);
+            tampon.compact();
+        }
+        sortie.vider();
+    }
+
+    private void traiterLigne(ByteBuffer tampon, int debut, int fin, SortieOctets sortie) throws IOException {
+        if (fin > debut && tampon.get(fin - 1) == '\r') {
+            fin--;
+        }
+        int premier = debut;
+        while (premier < fin && tampon.get(premier) == ' ') {
+            premier++;
+        }
+        if (premier == fin || tampon.get(premier) == '#') {
+            return;
+        }
+        executees++;
+        if (!interpreteur.executer(tampon, debut, fin, sortie)) {
+            echecs++;
+        }
+    }
+
+    private void echec(SortieOctets sortie) throws IOException {
+        executees++;
+        echecs++;
+        sortie.reserver(TROP_LONGUE.length + 1);
+        sortie.tampon().put(TROP_LONGUE);
+        sortie.octet('\n');
+    }
+}
@@ -0,0 +1,417 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Moteur de comptabilisation par lots des virements (fichiers de compensation de fin de journée).
+ * <p>
+ * Les écritures sont traitées par commits de taille fixe. Pour chaque commit, le moteur réserve les comptes
+ * concernés tranche par tranche, dans l'ordre croissant (voir {@link AccountOperations#reserver}), en ne
+ * tenant le verrou d'une tranche que le temps de relever ses soldes. Il valide ensuite chaque ligne contre
+ * les soldes tenus en mémoire, hors de tout verrou, puis écrit le solde final des comptes dont le mouvement
+ * net n'est pas nul, une tranche à la fois, avant de libérer les réservations. Les autres sessions continuent
+ * d'opérer sur les comptes non réservés ; celles qui visent un compte réservé attendent la fin du commit, qui
+ * leur apparaît ainsi atomique, comme au journal où il forme une seule transaction.
+ * <p>
+ * Le résultat est celui d'appels successifs à {@link AccountOperations#virer} : une ligne dont un compte est
+ * introuvable ou dont la source est insuffisamment provisionnée est rejetée, les autres sont appliquées.
+ * Seul un débordement du solde de la destination diffère : là où {@code virer} lève une
+ * {@link ArithmeticException}, le moteur rejette la ligne, pour qu'une ligne aberrante n'interrompe pas
+ * le reste du fichier.
+ * <p>
+ * Un moteur réutilise ses tampons d'un commit à l'autre : il ne doit être utilisé que par un thread à la fois.
+ */
+public class BatchPostingEngine {
+    private static final int TAILLE_COMMIT_DEFAUT = 4096;
+    // Nombre de lignes d'un fichier de compensation lues avant de les comptabiliser
+    private static final int LIGNES_PAR_LECTURE = 65536;
+
+    private final AccountOperations operations;
+    private final AccountRegistry comptes;
+    private final int tailleCommit;
+
+    // Comptes touchés par le commit courant : table de hachage (numéro d'entrée + 1) et colonnes des entrées
+    private final int[] table;
+    private final long[] cles;
+    private final int[] lignes; // -1 si le compte est introuvable
+    private final long[] departs; // Solde relevé à la réservation
+    private final long[] soldes; // Solde courant, mouvements du commit inclus
+    private final int[] tranches;
+    private final int[] cases;
+    private int nbComptes;
+
+    // Tranches touchées par le commit courant, et nombre d'entre elles déjà réservées
+    private final boolean[] trancheUtilisee;
+    private final int[] tranchesUtilisees;
+    private int nbTranches;
+    private int nbReservees;
+
+    // Entrées triées par tranche : la tranche t occupe [finsTranches[t - 1], finsTranches[t])
+    private final int[] finsTranches;
+    private final int[] ordre;
+    private final long[] clesTriees;
+
+    /**
+     * Constructeur avec une taille de commit par défaut.
+     *
+     * @param operations Les opérations dont les verrous protègent les comptes
+     */
+    public BatchPostingEngine(AccountOperations operations) {
+        this(operations, TAILLE_COMMIT_DEFAUT);
+    }
+
+    /**
+     * Constructeur.
+     *
+     * @param operations Les opérations dont les verrous protègent les comptes
+     * @param tailleCommit Le nombre d'écritures appliquées par commit
+     */
+    public BatchPostingEngine(AccountOperations operations, int tailleCommit) {
+        if (tailleCommit <= 0) {
+            throw new IllegalArgumentException("La taille de commit doit être positive : " + tailleCommit);
+        }
+        this.operations = operations;
+        this.comptes = operations.registre();
+        this.tailleCommit = tailleCommit;
+        int entrees = tailleCommit * 2; // Chaque écriture touche au plus deux comptes
+        this.table = new int[Integer.highestOneBit(entrees) << 2];
+        this.cles = new long[entrees];
+        this.lignes = new int[entrees];
+        this.departs = new long[entrees];
+        this.soldes = new long[entrees];
+        this.tranches = new int[entrees];
+        this.cases = new int[entrees];
+        this.ordre = new int[entrees];
+        this.clesTriees = new long[entrees];
+        this.trancheUtilisee = new boolean[operations.nombreTranches()];
+        this.tranchesUtilisees = new int[operations.nombreTranches()];
+        this.finsTranches = new int[operations.nombreTranches()];
+    }
+
+    /**
+     * Comptabilise un lot de virements.
+     *
+     * @param sources Les clés compactes des IBAN débités
+     * @param destinations Les clés compactes des IBAN crédités
+     * @param montants Les montants en centimes
+     * @param acceptees Reçoit, si non null, l'acceptation de chaque ligne
+     * @return Le nombre de lignes appliquées
+     */
+    public int comptabiliser(long[] sources, long[] destinations, long[] montants, boolean[] acceptees) {
+        int n = sources.length;
+        if (destinations.length != n || montants.length != n || (acceptees != null && acceptees.length < n)) {
+            throw new IllegalArgumentException("Les tableaux du lot n'ont pas la même longueur");
+        }
+        return comptabiliser(sources, destinations, montants, acceptees, n);
+    }
+
+    /**
+     * Comptabilise les {@code n} premières lignes d'un lot, commit par commit.
+     */
+    private int comptabiliser(long[] sources, long[] destinations, long[] montants, boolean[] acceptees, int n) {
+        int appliquees = 0;
+        for (int debut = 0; debut < n; debut += tailleCommit) {
+            appliquees += commit(sources, destinations, montants, acceptees, debut, Math.min(n, debut + tailleCommit));
+        }
+        return appliquees;
+    }
+
+    /**
+     * Comptabilise un fichier de compensation, une ligne {@code ibanSource;ibanDestination;montant} par virement,
+     * le montant étant en euros. Une ligne mal formée est rejetée comme un virement refusé.
+     *
+     * @param fichier Le chemin du fichier CSV
+     * @return Le bilan de la comptabilisation
+     * @throws IOException si le fichier ne peut être lu
+     */
+    public Bilan comptabiliser(Path fichier) throws IOException {
+        long[] sources = new long[LIGNES_PAR_LECTURE];
+        long[] destinations = new long[LIGNES_PAR_LECTURE];
+        long[] montants = new long[LIGNES_PAR_LECTURE];
+        boolean[] acceptees = new boolean[LIGNES_PAR_LECTURE];
+        Bilan bilan = new Bilan();
+        try (BufferedReader lecteur = Files.newBufferedReader(fichier, StandardCharsets.UTF_8)) {
+            int n = 0;
+            String ligne;
+            while (true) {
+                ligne = lecteur.readLine();
+                if (ligne != null) {
+                    analyserLigne(ligne, n, sources, destinations, montants);
+                    n++;
+                }
+                if (n > 0 && (n == LIGNES_PAR_LECTURE || ligne == null)) {
+                    bilan.appliquees += comptabiliser(sources, destinations, montants, acceptees, n);
+                    for (int i = 0; i < n; i++) {
+                        if (!acceptees[i]) {
+                            bilan.rejetees++;
+                            if (bilan.premiereLigneRejetee < 0) {
+                                bilan.premiereLigneRejetee = bilan.lignes + i + 1;
+                            }
+                        }
+                    }
+                    bilan.lignes += n;
+                    n = 0;
+                }
+                if (ligne == null) {
+                    return bilan;
+                }
+            }
+        }
+    }
+
+    /**
+     * Analyse une ligne de fichier de compensation ; une ligne mal formée reçoit un montant nul.
+     */
+    private static void analyserLigne(String ligne, int i, long[] sources, long[] destinations, long[] montants) {
+        String[] champs = ligne.split(";", -1);
+        sources[i] = Iban.INVALIDE;
+        destinations[i] = Iban.INVALIDE;
+        montants[i] = 0;
+        if (champs.length != 3) {
+            return;
+        }
+        sources[i] = Iban.encoder(champs[0].trim());
+        destinations[i] = Iban.encoder(champs[1].trim());
+        try {
+            montants[i] = Montant.analyser(champs[2].trim());
+        } catch (NumberFormatException | ArithmeticException e) {
+            montants[i] = 0;
+        }
+    }
+
+    /**
+     * Applique un commit en réservant ses comptes.
+     *
+     * @return Le nombre de lignes appliquées
+     */
+    private int commit(long[] sources, long[] destinations, long[] montants, boolean[] acceptees, int debut, int fin) {
+        for (int i = debut; i < fin; i++) {
+            if (montants[i] > 0 && sources[i] != destinations[i]) {
+                entree(sources[i]);
+                entree(destinations[i]);
+            }
+        }
+        trier();
+        try {
+            reserver();
+            int appliquees = 0;
+            for (int i = debut; i < fin; i++) {
+                boolean acceptee = valider(sources[i], destinations[i], montants[i]);
+                if (acceptee) {
+                    appliquees++;
+                }
+                if (acceptees != null) {
+                    acceptees[i] = acceptee;
+                }
+            }
+            ecrireSoldes();
+            return appliquees;
+        } finally {
+            liberer();
+            reinitialiser();
+            operations.attendreDurabilite();
+        }
+    }
+
+    /**
+     * Trie les entrées par tranche (tri par dénombrement) et relève les tranches touchées, dans l'ordre croissant.
+     */
+    private void trier() {
+        Arrays.fill(finsTranches, 0);
+        for (int e = 0; e < nbComptes; e++) {
+            finsTranches[tranches[e]]++;
+            marquerTranche(tranches[e]);
+        }
+        Arrays.sort(tranchesUtilisees, 0, nbTranches);
+        for (int t = 1; t < finsTranches.length; t++) {
+            finsTranches[t] += finsTranches[t - 1];
+        }
+        for (int e = nbComptes - 1; e >= 0; e--) {
+            int k = --finsTranches[tranches[e]];
+            ordre[k] = e;
+            clesTriees[k] = cles[e];
+        }
+        // Chaque case désigne maintenant le début de sa tranche : on la ramène à sa fin
+        for (int t = 0; t < finsTranches.length - 1; t++) {
+            finsTranches[t] = finsTranches[t + 1];
+        }
+        finsTranches[finsTranches.length - 1] = nbComptes;
+    }
+
+    /**
+     * Réserve les comptes du commit tranche par tranche et relève leurs lignes et leurs soldes.
+     */
+    private void reserver() {
+        AccountStore stockage = comptes.stockage();
+        while (nbReservees < nbTranches) {
+            int t = tranchesUtilisees[nbReservees];
+            int debut = t == 0 ? 0 : finsTranches[t - 1];
+            ReentrantLock verrou = operations.verrouTranche(t);
+            verrou.lock();
+            try {
+                while (!operations.reserver(t, clesTriees, debut, finsTranches[t])) {
+                    operations.attendreLiberation(t);
+                }
+                nbReservees++;
+                for (int k = debut; k < finsTranches[t]; k++) {
+                    int e = ordre[k];
+                    int ligne = comptes.ligne(cles[e]);
+                    lignes[e] = ligne;
+                    departs[e] = ligne < 0 ? 0 : stockage.getSolde(ligne);
+                    soldes[e] = departs[e];
+                }
+            } finally {
+                verrou.unlock();
+            }
+        }
+    }
+
+    /**
+     * Valide une écriture contre les soldes courants et, si elle est acceptée, l'impute en mémoire.
+     *
+     * @return true si l'écriture est acceptée
+     */
+    private boolean valider(long source, long destination, long montant) {
+        if (montant <= 0 || source == destination) {
+            return false;
+        }
+        int debite = entree(source);
+        int credite = entree(destination);
+        if (lignes[debite] < 0 || lignes[credite] < 0 || soldes[debite] < montant) {
+            return false;
+        }
+        long credit;
+        try {
+            credit = Montant.ajouter(soldes[credite], montant);
+        } catch (ArithmeticException e) {
+            return false; // Voir la documentation de la classe
+        }
+        soldes[debite] -= montant;
+        soldes[credite] = credit;
+        return true;
+    }
+
+    /**
+     * Écrit, une tranche à la fois, le solde final des comptes dont le mouvement net n'est pas nul.
+     * Les écritures forment une seule transaction du journal, émise avant la libération des comptes.
+     */
+    private void ecrireSoldes() {
+        comptes.debutTransaction();
+        try {
+            for (int i = 0; i < nbTranches; i++) {
+                int t = tranchesUtilisees[i];
+                int debut = t == 0 ? 0 : finsTranches[t - 1];
+                ReentrantLock verrou = operations.verrouTranche(t);
+                verrou.lock();
+                try {
+                    for (int k = debut; k < finsTranches[t]; k++) {
+                        int e = ordre[k];
+                        if (lignes[e] >= 0 && soldes[e] != departs[e]) {
+                            comptes.modifierSolde(lignes[e], soldes[e]);
+                        }
+                    }
+                } finally {
+                    verrou.unlock();
+                }
+            }
+        } finally {
+            comptes.finTransaction();
+        }
+    }
+
+    /**
+     * Libère les comptes réservés, tranche par tranche.
+     */
+    private void liberer() {
+        for (int i = 0; i < nbReservees; i++) {
+            int t = tranchesUtilisees[i];
+            ReentrantLock verrou = operations.verrouTranche(t);
+            verrou.lock();
+            try {
+                operations.liberer(t, clesTriees, t == 0 ? 0 : finsTranches[t - 1], finsTranches[t]);
+            } finally {
+                verrou.unlock();
+            }
+        }
+    }
+
+    /**
+     * Retrouve l'entrée d'un compte dans le commit courant, en la créant à la première rencontre.
+     *
+     * @param cle La clé compacte de l'IBAN
+     * @return Le numéro d'entrée
+     */
+    private int entree(long cle) {
+        int masque = table.length - 1;
+        int i = (int) Iban.hacher(cle) & masque;
+        while (table[i] != 0) {
+            if (cles[table[i] - 1] == cle) {
+                return table[i] - 1;
+            }
+            i = (i + 1) & masque;
+        }
+        int e = nbComptes++;
+        cles[e] = cle;
+        tranches[e] = operations.tranche(cle);
+        cases[e] = i;
+        table[i] = e + 1;
+        return e;
+    }
+
+    private void marquerTranche(int tranche) {
+        if (!trancheUtilisee[tranche]) {
+            trancheUtilisee[tranche] = true;
+            tranchesUtilisees[nbTranches++] = tranche;
+        }
+    }
+
+    /**
+     * Vide les structures du commit en ne touchant que les cases utilisées.
+     */
+    private void reinitialiser() {
+        for (int e = 0; e < nbComptes; e++) {
+            table[cases[e]] = 0;
+        }
+        nbComptes = 0;
+        for (int t = 0; t < nbTranches; t++) {
+            trancheUtilisee[tranchesUtilisees[t]] = false;
+        }
+        nbTranches = 0;
+        nbReservees = 0;
+    }
+
+    /**
+     * Bilan de la comptabilisation d'un fichier.
+     */
+    public static final class Bilan {
+        private long appliquees;
+        private long rejetees;
+        private long lignes;
+        private long premiereLigneRejetee = -1;
+
+        /**
+         * @return Le nombre de virements appliqués
+         */
+        public long getAppliquees() {
+            return appliquees;
+        }
+
+        /**
+         * @return Le nombre de lignes rejetées
+         */
+        public long getRejetees() {
+            return rejetees;
+        }
+
+        /**
+         * @return Le numéro (à partir de 1) de la première ligne rejetée, ou -1 s'il n'y en a pas
+         */
+        public long getPremiereLigneRejetee() {
+            return premiereLigneRejetee;
+        }
+    }
+}
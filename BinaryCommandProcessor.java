@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocole binaire pipeliné sur les comptes : un client envoie autant de requêtes qu'il le souhaite sans
+ * attendre les réponses, qui lui reviennent dans l'ordre des requêtes.
+ * <p>
+ * Trames (petit-boutiste) : longueur du reste de la trame (4), identifiant de corrélation choisi par le client
+ * et recopié dans la réponse (8), code (1), données. Données des requêtes, montants en centimes :
+ * <ul>
+ * <li>{@link #CREER} : solde (8), titulaire en UTF-8 (reste) ; réponse : IBAN (8) ;</li>
+ * <li>{@link #CONSULTER} : IBAN (8) ; réponse : solde (8), ouverture (8, voir {@link AccountStore#encoderDate}),
+ * prêt (8), taux (8), durée (8), titulaire en UTF-8 (reste) ;</li>
+ * <li>{@link #MODIFIER} : IBAN (8), drapeaux (1 : bit 0 titulaire, bit 1 solde), solde (8), titulaire (reste) ;</li>
+ * <li>{@link #SUPPRIMER} : IBAN (8) ;</li>
+ * <li>{@link #PRET} : IBAN (8), montant (8), taux (8), durée (8) ;</li>
+ * <li>{@link #VIRER} : source (8), destination (8), montant (8) ;</li>
+ * <li>{@link #CREDITER}, {@link #DEBITER} : IBAN (8), montant (8).</li>
+ * </ul>
+ * Le code d'une réponse est un statut : {@link #OK}, {@link #INTROUVABLE}, {@link #REFUSE},
+ * {@link #INVALIDE} ou {@link #INCONNUE} ; une exception des opérations donne {@link #REFUSE} (ou
+ * {@link #INVALIDE} pour un argument refusé) à sa seule requête. Une trame de longueur incohérente met fin
+ * à la connexion.
+ * <p>
+ * Les requêtes sont décodées en place dans le tampon de lecture et passées telles quelles aux opérations ;
+ * toutes celles reçues d'un bloc sont exécutées avant que leurs réponses partent ensemble, après une seule
+ * attente de durabilité du journal. Un interpréteur n'est pas partagé entre threads.
+ */
+public class BinaryCommandProcessor {
+    /** Crée un compte. */
+    public static final byte CREER = 1;
+    /** Lit un compte. */
+    public static final byte CONSULTER = 2;
+    /** Modifie le titulaire et/ou le solde d'un compte. */
+    public static final byte MODIFIER = 3;
+    /** Supprime un compte. */
+    public static final byte SUPPRIMER = 4;
+    /** Accorde un prêt. */
+    public static final byte PRET = 5;
+    /** Effectue un virement. */
+    public static final byte VIRER = 6;
+    /** Crédite un compte. */
+    public static final byte CREDITER = 7;
+    /** Débite un compte. */
+    public static final byte DEBITER = 8;
+
+    /** Opération effectuée. */
+    public static final byte OK = 0;
+    /** Compte introuvable. */
+    public static final byte INTROUVABLE = 1;
+    /** Opération refusée (solde insuffisant, prêt existant, montant invalide, échec du stockage...). */
+    public static final byte REFUSE = 2;
+    /** Trame mal formée pour son code. */
+    public static final byte INVALIDE = 3;
+    /** Code inconnu. */
+    public static final byte INCONNUE = 4;
+
+    /** Taille maximale d'une trame de requête, préfixe de longueur compris. */
+    public static final int TRAME_MAX = 64 * 1024;
+    // Corrélation et code, comptés dans la longueur
+    private static final int ENTETE = 9;
+    private static final int RELEVE = 40;
+
+    private final AccountOperations operations;
+    private final ReleveCompte releve = new ReleveCompte();
+    private byte[] nom = new byte[256];
+    private long executees;
+
+    /**
+     * Constructeur.
+     *
+     * @param operations Les opérations exécutées par les requêtes
+     */
+    public BinaryCommandProcessor(AccountOperations operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Exécute toutes les requêtes d'un flux, jusqu'à sa fin.
+     *
+     * @param entree Le flux des requêtes
+     * @param canalSortie Le flux des réponses
+     * @throws IOException si la lecture ou l'écriture échoue, ou si une trame est incohérente
+     */
+    public void executer(ReadableByteChannel entree, WritableByteChannel canalSortie) throws IOException {
+        operations.differerDurabilite(true);
+        try {
+            // Aucune réponse ne part avant que les modifications qui la précèdent soient durables
+            SortieOctets sortie = new SortieOctets(canalSortie, TRAME_MAX, operations::attendreDurabilite);
+            ByteBuffer tampon = ByteBuffer.allocateDirect(TRAME_MAX).order(ByteOrder.LITTLE_ENDIAN);
+            while (true) {
+                sortie.vider();
+                if (entree.read(tampon) < 0) {
+                    return;
+                }
+                tampon.flip();
+                while (tampon.remaining() >= 4) {
+                    int debut = tampon.position();
+                    int longueur = tampon.getInt(debut);
+                    if (longueur < ENTETE || longueur > TRAME_MAX - 4) {
+                        throw new IOException("Trame de longueur invalide : " + longueur);
+                    }
+                    if (tampon.remaining() < 4 + longueur) {
+                        break;
+                    }
+                    executer(tampon, debut + 4, debut + 4 + longueur, sortie);
+                    tampon.position(debut + 4 + longueur);
+                }
+                tampon.compact();
+            }
+        } finally {
+            operations.differerDurabilite(false);
+        }
+    }
+
+    /**
+     * @return Le nombre de requêtes exécutées
+     */
+    public long getExecutees() {
+        return executees;
+    }
+
+    private void executer(ByteBuffer trame, int debut, int fin, SortieOctets sortie) throws IOException {
+        executees++;
+        long correlation = trame.getLong(debut);
+        byte code = trame.get(debut + 8);
+        int p = debut + ENTETE;
+        int taille = fin - p;
+        try {
+            switch (code) {
+                case CREER -> {
+                    long solde = taille < 8 ? -1 : trame.getLong(p);
+                    if (solde < 0) {
+                        repondre(sortie, correlation, INVALIDE);
+                    } else {
+                        long cle = operations.creer(chaine(trame, p + 8, fin), solde).getCodeIban();
+                        repondre(sortie, correlation, OK, 8).putLong(cle);
+                    }
+                }
+                case CONSULTER -> {
+                    if (taille != 8) {
+                        repondre(sortie, correlation, INVALIDE);
+                    } else if (!releve.lire(operations, trame.getLong(p))) {
+                        repondre(sortie, correlation, INTROUVABLE);
+                    } else {
+                        ecrireReleve(sortie, correlation);
+                    }
+                }
+                case MODIFIER -> {
+                    if (taille < 17) {
+                        repondre(sortie, correlation, INVALIDE);
+                        return;
+                    }
+                    byte drapeaux = trame.get(p + 8);
+                    String titulaire = (drapeaux & 1) != 0 ? chaine(trame, p + 17, fin) : null;
+                    long solde = (drapeaux & 2) != 0 ? trame.getLong(p + 9) : -1;
+                    if ((drapeaux & 2) != 0 && solde < 0) {
+                        repondre(sortie, correlation, INVALIDE);
+                        return;
+                    }
+                    boolean modifie = operations.modifier(trame.getLong(p), c -> {
+                        if (titulaire != null) {
+                            c.setTitulaire(titulaire);
+                        }
+                        if (solde >= 0) {
+                            c.setSolde(solde);
+                        }
+                    });
+                    repondre(sortie, correlation, modifie ? OK : INTROUVABLE);
+                }
+                case SUPPRIMER -> repondre(sortie, correlation, taille != 8 ? INVALIDE
+                        : operations.supprimer(trame.getLong(p)) ? OK : INTROUVABLE);
+                case PRET -> {
+                    double taux = taille == 32 ? trame.getDouble(p + 16) : Double.NaN;
+                    double duree = taille == 32 ? trame.getDouble(p + 24) : Double.NaN;
+                    repondre(sortie, correlation, Double.isNaN(taux) || Double.isNaN(duree) ? INVALIDE
+                            : operations.accorderPret(trame.getLong(p), trame.getLong(p + 8), taux, duree) ? OK
+                            : REFUSE);
+                }
+                case VIRER -> repondre(sortie, correlation, taille != 24 ? INVALIDE
+                        : operations.virer(trame.getLong(p), trame.getLong(p + 8), trame.getLong(p + 16)) ? OK
+                        : REFUSE);
+                case CREDITER -> repondre(sortie, correlation, taille != 16 ? INVALIDE
+                        : operations.crediter(trame.getLong(p), trame.getLong(p + 8)) ? OK : REFUSE);
+                case DEBITER -> repondre(sortie, correlation, taille != 16 ? INVALIDE
+                        : operations.debiter(trame.getLong(p), trame.getLong(p + 8)) ? OK : REFUSE);
+                default -> repondre(sortie, correlation, INCONNUE);
+            }
+        } catch (ArithmeticException e) {
+            // Solde qui déborderait
+            repondre(sortie, correlation, REFUSE);
+        } catch (IllegalArgumentException e) {
+            repondre(sortie, correlation, INVALIDE);
+        } catch (RuntimeException e) {
+            // Échec des opérations (segment non projeté, IBAN épuisés...) : seule la requête est refusée,
+            // la connexion continue avec les suivantes
+            repondre(sortie, correlation, REFUSE);
+        }
+    }
+
+    private void ecrireReleve(SortieOctets sortie, long correlation) throws IOException {
+        String titulaire = releve.titulaire;
+        // Place réservée par SortieOctets#utf8 pour encoder le nom sans vider le tampon
+        int longueurMax = titulaire.length() * 6;
+        if (4 + ENTETE + RELEVE + longueurMax <= TRAME_MAX) {
+            // Encode le nom puis reporte la longueur de la trame
+            ByteBuffer tampon = repondre(sortie, correlation, OK, RELEVE + longueurMax);
+            int position = tampon.position() - ENTETE - 4;
+            tampon.putLong(releve.solde).putLong(releve.ouverture).putLong(releve.pret).putDouble(releve.taux)
+                    .putDouble(releve.duree);
+            sortie.utf8(titulaire, false);
+            tampon.putInt(position, tampon.position() - position - 4);
+        } else {
+            byte[] octets = titulaire.getBytes(StandardCharsets.UTF_8);
+            repondre(sortie, correlation, OK, RELEVE + octets.length).putLong(releve.solde).putLong(releve.ouverture)
+                    .putLong(releve.pret).putDouble(releve.taux).putDouble(releve.duree);
+            sortie.ecrire(octets);
+        }
+        releve.oublier();
+    }
+
+    private static void repondre(SortieOctets sortie, long correlation, byte statut) throws IOException {
+        repondre(sortie, correlation, statut, 0);
+    }
+
+    /**
+     * Écrit l'en-tête d'une réponse et réserve la place de ses données.
+     *
+     * @return Le tampon où écrire les données
+     */
+    private static ByteBuffer repondre(SortieOctets sortie, long correlation, byte statut, int donnees)
+            throws IOException {
+        sortie.reserver(4 + ENTETE + Math.min(donnees, TRAME_MAX - 4 - ENTETE));
+        return sortie.tampon().putInt(ENTETE + donnees).putLong(correlation).put(statut);
+    }
+
+    /**
+     * Décode un texte UTF-8 du tampon de lecture, copié dans un tableau réutilisé.
+     */
+    private String chaine(ByteBuffer trame, int debut, int fin) {
+        int longueur = fin - debut;
+        if (longueur > nom.length) {
+            nom = new byte[Math.max(longueur, nom.length * 2)];
+        }
+        trame.get(debut, nom, 0, longueur);
+        return new String(nom, 0, longueur, StandardCharsets.UTF_8);
+    }
+}
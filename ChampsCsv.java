@@ -0,0 +1,253 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Découpage d'une ligne CSV en champs, lus directement dans un tampon d'octets sans créer de chaîne
+ * pour les champs numériques (import, mode commandes, serveurs).
+ * <p>
+ * Les espaces autour d'un champ sont ignorés ; un champ peut être entre guillemets, les guillemets
+ * internes étant doublés. Un découpeur réutilise ses tableaux d'une ligne à l'autre : il n'est pas
+ * partagé entre threads.
+ */
+final class ChampsCsv {
+    private static final double[] PUISSANCES_DIX = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private final byte separateur;
+    private final int[] debuts;
+    private final int[] fins;
+    private final boolean[] guillemets;
+    private final VueOctets texte = new VueOctets();
+    private ByteBuffer octets;
+    private int nombre;
+    private byte[] copie = new byte[256];
+
+    /**
+     * Constructeur.
+     *
+     * @param separateur Le séparateur de champs (caractère ASCII)
+     * @param champsMax Le nombre maximal de champs d'une ligne
+     */
+    ChampsCsv(char separateur, int champsMax) {
+        this.separateur = (byte) separateur;
+        this.debuts = new int[champsMax];
+        this.fins = new int[champsMax];
+        this.guillemets = new boolean[champsMax];
+    }
+
+    /**
+     * Repère les champs d'une ligne.
+     *
+     * @param source Le tampon contenant la ligne
+     * @param debut La position du premier octet de la ligne
+     * @param fin La position suivant le dernier octet, fin de ligne exclue
+     * @return Le nombre de champs, ou -1 s'il y en a trop ou si des guillemets ne sont pas fermés
+     */
+    int decouper(ByteBuffer source, int debut, int fin) {
+        octets = source;
+        nombre = 0;
+        int i = debut;
+        while (true) {
+            if (nombre == debuts.length) {
+                return nombre = -1;
+            }
+            while (i < fin && octets.get(i) == ' ') {
+                i++;
+            }
+            guillemets[nombre] = i < fin && octets.get(i) == '"';
+            int finChamp;
+            if (guillemets[nombre]) {
+                debuts[nombre] = ++i;
+                while (true) {
+                    if (i >= fin) {
+                        return nombre = -1;
+                    }
+                    if (octets.get(i) == '"') {
+                        if (i + 1 < fin && octets.get(i + 1) == '"') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                finChamp = i++;
+                while (i < fin && octets.get(i) != separateur) {
+                    i++;
+                }
+            } else {
+                debuts[nombre] = i;
+                while (i < fin && octets.get(i) != separateur) {
+                    i++;
+                }
+                finChamp = i;
+                while (finChamp > debuts[nombre] && octets.get(finChamp - 1) == ' ') {
+                    finChamp--;
+                }
+            }
+            fins[nombre++] = finChamp;
+            if (i >= fin) {
+                return nombre;
+            }
+            i++; // Saute le séparateur
+        }
+    }
+
+    /**
+     * @return Le nombre de champs de la dernière ligne découpée
+     */
+    int nombre() {
+        return nombre;
+    }
+
+    /**
+     * @return true si le champ est vide
+     */
+    boolean estVide(int champ) {
+        return fins[champ] == debuts[champ];
+    }
+
+    /**
+     * Vue ASCII d'un champ, valable jusqu'au prochain appel (guillemets doublés non simplifiés).
+     */
+    CharSequence texte(int champ) {
+        return texte.sur(octets, debuts[champ], fins[champ]);
+    }
+
+    /**
+     * Compare un champ à un mot ASCII en majuscules, sans tenir compte de la casse du champ.
+     */
+    boolean egal(int champ, String mot) {
+        if (fins[champ] - debuts[champ] != mot.length()) {
+            return false;
+        }
+        for (int i = 0; i < mot.length(); i++) {
+            int c = octets.get(debuts[champ] + i);
+            if ((c >= 'a' && c <= 'z' ? c - ('a' - 'A') : c) != mot.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lit un montant en euros (voir {@link Montant#analyser(CharSequence)}).
+     *
+     * @return Le montant en centimes
+     * @throws NumberFormatException si le champ n'est pas un montant valide
+     * @throws ArithmeticException si le montant déborde
+     */
+    long montant(int champ) {
+        return Montant.analyser(texte(champ));
+    }
+
+    /**
+     * Lit un IBAN (voir {@link Iban#encoder(CharSequence)}).
+     *
+     * @return La clé compacte, ou {@link Iban#INVALIDE}
+     */
+    long iban(int champ) {
+        return Iban.encoder(texte(champ));
+    }
+
+    /**
+     * Lit un nombre décimal positif ({@code 12}, {@code 3.5} ou {@code 3,5}).
+     *
+     * @return Sa valeur, ou NaN s'il est invalide
+     */
+    double decimal(int champ) {
+        return decimal(octets, debuts[champ], fins[champ]);
+    }
+
+    /**
+     * Lit un nombre décimal positif ({@code 12}, {@code 3.5} ou {@code 3,5}) dans un tampon d'octets.
+     *
+     * @param octets Le tampon
+     * @param debut La position du premier chiffre
+     * @param fin La position suivant le dernier chiffre
+     * @return Sa valeur, ou NaN s'il est invalide
+     */
+    static double decimal(ByteBuffer octets, int debut, int fin) {
+        long mantisse = 0;
+        int chiffres = 0;
+        int decimales = -1;
+        for (int i = debut; i < fin; i++) {
+            byte b = octets.get(i);
+            if (b >= '0' && b <= '9') {
+                if (chiffres == 15) {
+                    return decimalLong(octets, debut, fin);
+                }
+                mantisse = mantisse * 10 + (b - '0');
+                chiffres++;
+                if (decimales >= 0) {
+                    decimales++;
+                }
+            } else if ((b == '.' || b == ',') && decimales < 0) {
+                decimales = 0;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (chiffres == 0) {
+            return Double.NaN;
+        }
+        // Au plus 15 chiffres : mantisse (< 2^53) et puissance de dix exactes en double, division correctement arrondie
+        return decimales > 0 ? mantisse / PUISSANCES_DIX[decimales] : mantisse;
+    }
+
+    /**
+     * Lit un nombre décimal de plus de 15 chiffres, dont la mantisse ne serait plus exacte en double,
+     * par {@link Double#parseDouble}, correctement arrondi lui aussi.
+     */
+    private static double decimalLong(ByteBuffer octets, int debut, int fin) {
+        StringBuilder texte = new StringBuilder(fin - debut);
+        boolean separateur = false;
+        for (int i = debut; i < fin; i++) {
+            byte b = octets.get(i);
+            if (b >= '0' && b <= '9') {
+                texte.append((char) b);
+            } else if ((b == '.' || b == ',') && !separateur) {
+                texte.append('.');
+                separateur = true;
+            } else {
+                return Double.NaN;
+            }
+        }
+        return Double.parseDouble(texte.toString());
+    }
+
+    /**
+     * Copie les octets d'un champ, guillemets doublés simplifiés, dans un tableau réutilisé.
+     *
+     * @return La longueur copiée ; les octets se lisent dans {@link #copie()}
+     */
+    int copier(int champ) {
+        int longueur = 0;
+        for (int i = debuts[champ]; i < fins[champ]; i++) {
+            if (longueur == copie.length) {
+                copie = Arrays.copyOf(copie, longueur * 2);
+            }
+            copie[longueur++] = octets.get(i);
+            if (guillemets[champ] && octets.get(i) == '"') {
+                i++; // Guillemet doublé
+            }
+        }
+        return longueur;
+    }
+
+    /**
+     * @return Le tableau rempli par le dernier appel à {@link #copier(int)}
+     */
+    byte[] copie() {
+        return copie;
+    }
+
+    /**
+     * Décode un champ texte en UTF-8.
+     */
+    String chaine(int champ) {
+        return new String(copie, 0, copier(champ), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Points de reprise : instantanés binaires de tous les comptes, associés à une position du {@link Journal}.
+ * Au démarrage, l'instantané le plus récent est chargé puis seule la fin du journal est rejouée.
+ * <p>
+ * L'instantané est flou : les écritures continuent pendant qu'il est pris. Le point de coupure est fixé
+ * sous tous les verrous de tranche, ce qui donne une position du journal couvrant exactement les
+ * modifications déjà faites ; chaque compte est ensuite copié sous le verrou de sa tranche, dans un état
+ * au moins aussi récent que la coupure. Les enregistrements du journal portant l'état complet des champs
+ * modifiés, rejouer les trames postérieures à la coupure ramène l'ensemble à un état cohérent.
+ * <p>
+ * Format (petit-boutiste) : magique (4), version (4), position du journal (8), puis pour chaque compte
+ * IBAN (8), solde (8), ouverture (8), montant du prêt (8), taux (8), durée (8), longueur du nom (4), nom
+ * en UTF-8 ; enfin le nombre de comptes (8) et le CRC32C de tout ce qui précède (4).
+ * Le fichier est écrit à côté puis renommé, si bien qu'un instantané interrompu laisse le précédent intact.
+ * Une fois l'instantané durable, les trames du journal qu'il couvre sont retirées (voir {@link Journal#tronquer}).
+ */
+public class Checkpointer implements AutoCloseable {
+    private static final int MAGIQUE = 0x494E5354; // "INST"
+    private static final int VERSION = 1;
+    private static final int TAILLE_ENTETE = 16;
+    private static final int TAILLE_PIED = 12;
+    private static final int TAILLE_FIXE_COMPTE = 52;
+    private static final int TAILLE_TAMPON = 1 << 20;
+
+    private final AccountOperations operations;
+    private final Journal journal;
+    private final Path fichier;
+    private ScheduledExecutorService planificateur;
+
+    /**
+     * Constructeur.
+     *
+     * @param operations Les opérations dont les verrous protègent les comptes
+     * @param journal Le journal dont l'instantané dispense de relire le début, ou null
+     * @param fichier Le chemin de l'instantané
+     */
+    public Checkpointer(AccountOperations operations, Journal journal, Path fichier) {
+        this.operations = operations;
+        this.journal = journal;
+        this.fichier = fichier;
+    }
+
+    /**
+     * Prend un instantané à intervalle régulier sur un thread dédié.
+     *
+     * @param intervalleSecondes Le délai entre la fin d'un instantané et le début du suivant
+     */
+    public synchronized void demarrer(long intervalleSecondes) {
+        if (planificateur != null) {
+            return;
+        }
+        planificateur = Executors.newSingleThreadScheduledExecutor(tache -> {
+            Thread thread = new Thread(tache, "instantane-" + fichier.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        planificateur.scheduleWithFixedDelay(() -> {
+            try {
+                ecrire();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Échec de l'instantané " + fichier + " : " + e);
+            }
+        }, intervalleSecondes, intervalleSecondes, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Prend un instantané, remplace le précédent et retire du journal les trames qu'il couvre.
+     *
+     * @return La position du journal couverte par l'instantané
+     * @throws IOException si l'instantané ne peut être écrit
+     */
+    public synchronized long ecrire() throws IOException {
+        AccountRegistry registre = operations.registre();
+        AccountStore stockage = registre.stockage();
+
+        // Point de coupure : aucune modification n'est en cours sous tous les verrous
+        long lsn;
+        int limite;
+        operations.verrouillerTout();
+        try {
+            lsn = journal == null ? 0 : journal.position();
+            limite = stockage.limite();
+        } finally {
+            operations.deverrouillerTout();
+        }
+
+        Path temporaire = fichier.resolveSibling(fichier.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporaire, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer tampon = ByteBuffer.allocate(TAILLE_TAMPON).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32C crc = new CRC32C();
+            tampon.putInt(MAGIQUE).putInt(VERSION).putLong(lsn);
+            long nombre = 0;
+            for (int ligne = 0; ligne < limite; ligne++) {
+                // Lecture sans verrou pour écarter les lignes libres, confirmée sous le verrou de la tranche
+                long cle = stockage.getCodeIban(ligne);
+                if (cle == Iban.INVALIDE) {
+                    continue;
+                }
+                byte[] nom;
+                ReentrantLock verrou = operations.verrouTranche(operations.tranche(cle));
+                verrou.lock();
+                try {
+                    if (stockage.getCodeIban(ligne) != cle) {
+                        continue; // Ligne libérée ou réattribuée après la coupure : le journal s'en charge
+                    }
+                    nom = stockage.getTitulaire(ligne).getBytes(StandardCharsets.UTF_8);
+                    if (tampon.remaining() < TAILLE_FIXE_COMPTE + nom.length) {
+                        vider(canal, tampon, crc, TAILLE_FIXE_COMPTE + nom.length);
+                    }
+                    tampon.putLong(cle).putLong(stockage.getSolde(ligne)).putLong(stockage.getOuverture(ligne))
+                            .putLong(stockage.getMontantPret(ligne)).putDouble(stockage.getTauxInteret(ligne))
+                            .putDouble(stockage.getDureePret(ligne));
+                } finally {
+                    verrou.unlock();
+                }
+                tampon.putInt(nom.length).put(nom);
+                nombre++;
+            }
+            vider(canal, tampon, crc, TAILLE_PIED);
+            tampon.putLong(nombre);
+            crc.update(tampon.array(), 0, tampon.position());
+            tampon.putInt((int) crc.getValue());
+            tampon.flip();
+            while (tampon.hasRemaining()) {
+                canal.write(tampon);
+            }
+            canal.force(true);
+        }
+        // Les trames antérieures à la coupure doivent être durables avant que l'instantané ne les remplace
+        if (journal != null) {
+            journal.forcer();
+        }
+        Files.move(temporaire, fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (journal != null) {
+            // Le début du journal ne peut disparaître qu'une fois le nouvel instantané sûr d'être retrouvé
+            Journal.synchroniserRepertoire(fichier);
+            journal.tronquer(lsn);
+        }
+        return lsn;
+    }
+
+    /**
+     * Charge un instantané dans un registre. Un compte déjà présent est remplacé par sa copie.
+     *
+     * @param fichier Le chemin de l'instantané
+     * @param registre Le registre à remplir
+     * @return La position du journal à partir de laquelle rejouer, 0 si aucun instantané n'existe
+     * @throws IOException si l'instantané ne peut être lu ou s'il est corrompu
+     */
+    public static long charger(Path fichier, AccountRegistry registre) throws IOException {
+        if (!Files.exists(fichier)) {
+            return 0;
+        }
+        IbanGenerator generateur = CompteBancaire.getGenerateurIban();
+        try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ)) {
+            long corps = canal.size() - TAILLE_PIED;
+            if (corps < TAILLE_ENTETE) {
+                throw new IOException("Instantané tronqué : " + fichier);
+            }
+            ByteBuffer tampon = ByteBuffer.allocate(TAILLE_TAMPON).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32C crc = new CRC32C();
+            long lus = remplir(canal, tampon, crc, corps, 0);
+            tampon.flip();
+            if (tampon.getInt() != MAGIQUE || tampon.getInt() != VERSION) {
+                throw new IOException("Instantané invalide ou de version inconnue : " + fichier);
+            }
+            long lsn = tampon.getLong();
+            long nombre = 0;
+            while (true) {
+                int longueurNom = tampon.remaining() < TAILLE_FIXE_COMPTE ? 0 : tampon.getInt(tampon.position() + 48);
+                if (longueurNom < 0 || longueurNom > TAILLE_TAMPON - TAILLE_FIXE_COMPTE) {
+                    throw new IOException("Instantané corrompu : " + fichier);
+                }
+                if (tampon.remaining() < TAILLE_FIXE_COMPTE + longueurNom) {
+                    if (lus == corps) {
+                        break;
+                    }
+                    tampon.compact();
+                    lus = remplir(canal, tampon, crc, corps, lus);
+                    tampon.flip();
+                    continue;
+                }
+                long cle = tampon.getLong();
+                long solde = tampon.getLong();
+                long ouverture = tampon.getLong();
+                long montantPret = tampon.getLong();
+                double taux = tampon.getDouble();
+                double duree = tampon.getDouble();
+                byte[] nom = new byte[tampon.getInt()];
+                tampon.get(nom);
+                String titulaire = new String(nom, StandardCharsets.UTF_8);
+                int ligne = registre.ajouter(cle, titulaire, solde, ouverture);
+                if (ligne < 0) {
+                    registre.supprimer(cle);
+                    ligne = registre.ajouter(cle, titulaire, solde, ouverture);
+                }
+                if (montantPret != 0) {
+                    registre.definirPret(ligne, montantPret, taux, duree, solde);
+                }
+                generateur.reserver(cle);
+                nombre++;
+            }
+            if (tampon.hasRemaining()) {
+                throw new IOException("Instantané corrompu : " + fichier);
+            }
+            ByteBuffer pied = ByteBuffer.allocate(TAILLE_PIED).order(ByteOrder.LITTLE_ENDIAN);
+            while (pied.hasRemaining()) {
+                if (canal.read(pied, corps + pied.position()) < 0) {
+                    throw new IOException("Instantané tronqué : " + fichier);
+                }
+            }
+            crc.update(pied.array(), 0, 8);
+            if (pied.getLong(0) != nombre || pied.getInt(8) != (int) crc.getValue()) {
+                throw new IOException("Instantané corrompu : " + fichier);
+            }
+            return lsn;
+        }
+    }
+
+    /**
+     * Arrête les instantanés périodiques ; un instantané en cours se termine.
+     */
+    @Override
+    public synchronized void close() {
+        if (planificateur != null) {
+            planificateur.shutdown();
+            planificateur = null;
+        }
+    }
+
+    /**
+     * Écrit le tampon jusqu'à y libérer la place demandée, en l'agrandissant si un compte n'y tient pas.
+     */
+    private static void vider(FileChannel canal, ByteBuffer tampon, CRC32C crc, int place) throws IOException {
+        crc.update(tampon.array(), 0, tampon.position());
+        tampon.flip();
+        while (tampon.hasRemaining()) {
+            canal.write(tampon);
+        }
+        tampon.clear();
+        if (tampon.capacity() < place) {
+            throw new IOException("Nom de titulaire trop long pour l'instantané : " + place + " octets");
+        }
+    }
+
+    /**
+     * Complète le tampon depuis le fichier sans dépasser le corps de l'instantané.
+     *
+     * @return Le nombre d'octets du corps lus jusqu'ici
+     */
+    private static long remplir(FileChannel canal, ByteBuffer tampon, CRC32C crc, long corps, long lus)
+            throws IOException {
+        int debut = tampon.position();
+        tampon.limit((int) Math.min(tampon.capacity(), debut + (corps - lus)));
+        while (tampon.hasRemaining()) {
+            int n = canal.read(tampon, lus + tampon.position() - debut);
+            if (n < 0) {
+                throw new IOException("Fin d'instantané inattendue");
+            }
+        }
+        crc.update(tampon.array(), debut, tampon.position() - debut);
+        return lus + tampon.position() - debut;
+    }
+}
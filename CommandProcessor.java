@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Interpréteur de commandes texte sur les comptes, une commande par ligne, champs séparés par des
+ * points-virgules (mêmes règles que {@link ChampsCsv}) :
+ * <ul>
+ * <li>{@code CREER;titulaire;solde} répond {@code OK;iban} ;</li>
+ * <li>{@code CONSULTER;iban} répond {@code OK;} suivi du compte au format CSV de {@link AccountExporter} ;</li>
+ * <li>{@code MODIFIER;iban;titulaire;solde}, un champ vide laissant la valeur inchangée ;</li>
+ * <li>{@code SUPPRIMER;iban} ;</li>
+ * <li>{@code PRET;iban;montant;taux;duree} ;</li>
+ * <li>{@code VIRER;source;destination;montant}.</li>
+ * </ul>
+ * Les mots-clés ne tiennent pas compte de la casse, les montants sont en euros. Chaque commande reçoit
+ * une ligne de réponse : {@code OK} (éventuellement suivi de champs) ou {@code ERREUR;motif}.
+ * <p>
+ * Les lignes sont lues directement dans un tampon d'octets et les réponses écrites dans une
+ * {@link SortieOctets} : seuls les noms de titulaires donnent lieu à des chaînes. Un interpréteur
+ * n'est pas partagé entre threads ; chaque session (fichier de commandes, connexion) a le sien.
+ */
+public class CommandProcessor {
+    private static final int CHAMPS_MAX = 5;
+    private static final byte[] OK = "OK".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INTROUVABLE = erreur("compte introuvable");
+    private static final byte[] REFUSE = erreur("opération refusée");
+    private static final byte[] INCONNUE = erreur("commande inconnue");
+    private static final byte[] ARGUMENTS = erreur("nombre d'arguments invalide");
+    private static final byte[] MONTANT = erreur("montant invalide");
+    private static final byte[] IBAN = erreur("IBAN invalide");
+
+    private final AccountOperations operations;
+    private final ChampsCsv champs = new ChampsCsv(';', CHAMPS_MAX);
+    private final ReleveCompte releve = new ReleveCompte();
+
+    /**
+     * Constructeur.
+     *
+     * @param operations Les opérations exécutées par les commandes
+     */
+    public CommandProcessor(AccountOperations operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Exécute une commande et écrit sa ligne de réponse.
+     *
+     * @param octets Le tampon contenant la commande
+     * @param debut La position du premier octet de la commande
+     * @param fin La position suivant le dernier octet, fin de ligne exclue
+     * @param sortie La sortie des réponses
+     * @return true si la commande a réussi
+     * @throws IOException si l'écriture de la réponse échoue
+     */
+    boolean executer(ByteBuffer octets, int debut, int fin, SortieOctets sortie) throws IOException {
+        int nombre = champs.decouper(octets, debut, fin);
+        if (nombre < 1) {
+            return repondre(sortie, ARGUMENTS);
+        }
+        try {
+            if (champs.egal(0, "CREER")) {
+                return creer(nombre, sortie);
+            } else if (champs.egal(0, "CONSULTER")) {
+                return consulter(nombre, sortie);
+            } else if (champs.egal(0, "MODIFIER")) {
+                return modifier(nombre, sortie);
+            } else if (champs.egal(0, "SUPPRIMER")) {
+                return nombre != 2 ? repondre(sortie, ARGUMENTS)
+                        : repondre(sortie, operations.supprimer(iban(1)) ? OK : INTROUVABLE);
+            } else if (champs.egal(0, "PRET")) {
+                return preter(nombre, sortie);
+            } else if (champs.egal(0, "VIRER")) {
+                return nombre != 4 ? repondre(sortie, ARGUMENTS)
+                        : repondre(sortie, operations.virer(iban(1), iban(2), champs.montant(3)) ? OK : REFUSE);
+            }
+            return repondre(sortie, INCONNUE);
+        } catch (NumberFormatException | ArithmeticException e) {
+            return repondre(sortie, MONTANT);
+        } catch (IllegalArgumentException e) {
+            return repondre(sortie, IBAN);
+        }
+    }
+
+    private boolean creer(int nombre, SortieOctets sortie) throws IOException {
+        if (nombre != 3) {
+            return repondre(sortie, ARGUMENTS);
+        }
+        long montant = champs.montant(2);
+        if (montant < 0) {
+            return repondre(sortie, MONTANT);
+        }
+        long cle = operations.creer(champs.chaine(1), montant).getCodeIban();
+        sortie.reserver(OK.length + 1 + Iban.CHIFFRES + 3);
+        sortie.tampon().put(OK);
+        sortie.octet(';');
+        sortie.iban(cle);
+        sortie.octet('\n');
+        return true;
+    }
+
+    private boolean consulter(int nombre, SortieOctets sortie) throws IOException {
+        if (nombre != 2) {
+            return repondre(sortie, ARGUMENTS);
+        }
+        if (!releve.lire(operations, iban(1))) {
+            return repondre(sortie, INTROUVABLE);
+        }
+        sortie.reserver(OK.length + 1);
+        sortie.tampon().put(OK);
+        sortie.octet(';');
+        AccountExporter.ecrireCsv(sortie, releve.cle, releve.titulaire, releve.solde, releve.ouverture, releve.pret,
+                releve.taux, releve.duree);
+        releve.oublier();
+        return true;
+    }
+
+    private boolean modifier(int nombre, SortieOctets sortie) throws IOException {
+        if (nombre != 4) {
+            return repondre(sortie, ARGUMENTS);
+        }
+        long cle = iban(1);
+        String nouveauTitulaire = champs.estVide(2) ? null : champs.chaine(2);
+        long nouveauSolde = champs.estVide(3) ? -1 : champs.montant(3);
+        if (!champs.estVide(3) && nouveauSolde < 0) {
+            return repondre(sortie, MONTANT);
+        }
+        boolean modifie = operations.modifier(cle, c -> {
+            if (nouveauTitulaire != null) {
+                c.setTitulaire(nouveauTitulaire);
+            }
+            if (nouveauSolde >= 0) {
+                c.setSolde(nouveauSolde);
+            }
+        });
+        return repondre(sortie, modifie ? OK : INTROUVABLE);
+    }
+
+    private boolean preter(int nombre, SortieOctets sortie) throws IOException {
+        if (nombre != 5) {
+            return repondre(sortie, ARGUMENTS);
+        }
+        double tauxDemande = champs.decimal(3);
+        double dureeDemandee = champs.decimal(4);
+        if (Double.isNaN(tauxDemande) || Double.isNaN(dureeDemandee)) {
+            return repondre(sortie, MONTANT);
+        }
+        boolean accorde = operations.accorderPret(iban(1), champs.montant(2), tauxDemande, dureeDemandee);
+        return repondre(sortie, accorde ? OK : REFUSE);
+    }
+
+    /**
+     * Lit un IBAN.
+     *
+     * @throws IllegalArgumentException si le champ n'est pas un IBAN
+     */
+    private long iban(int champ) {
+        long cle = champs.iban(champ);
+        if (cle == Iban.INVALIDE) {
+            throw new IllegalArgumentException();
+        }
+        return cle;
+    }
+
+    private static boolean repondre(SortieOctets sortie, byte[] reponse) throws IOException {
+        sortie.reserver(reponse.length + 1);
+        sortie.tampon().put(reponse);
+        sortie.octet('\n');
+        return reponse == OK;
+    }
+
+    private static byte[] erreur(String motif) {
+        return ("ERREUR;" + motif).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,543 @@
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index inversé des noms de titulaires par trigrammes, pour une recherche approchée qui tolère les fautes
+ * de frappe : « Dupond » retrouve « Dupont », « Jean Dupont » retrouve « Dupont Jean ».
+ * <p>
+ * Chaque nom est normalisé (minuscules, sans accents ni ponctuation), puis chacun de ses mots, complété par
+ * deux espaces devant et un derrière, est découpé en trigrammes. Un trigramme désigne la liste triée des
+ * lignes des comptes dont le nom le contient, compressée par {@link ListeCompressee} : environ un octet et
+ * demi par occurrence, de quoi tenir un registre de 10 millions de comptes en mémoire.
+ * <p>
+ * Une recherche classe les comptes par similarité de Jaccard entre les trigrammes de la requête et ceux
+ * du nom (trigrammes communs sur trigrammes distincts des deux), au-dessus de {@value #SIMILARITE_MIN} ;
+ * le nombre de trigrammes de chaque nom est gardé par ligne sur un octet. Un compte retenu partage au moins
+ * une part des trigrammes de la requête : quand ses listes sont courtes, les candidats sont pris dans les plus
+ * courtes, puis leur nombre de trigrammes communs est complété en testant leur présence dans les autres ;
+ * quand elles couvrent une bonne part du registre, toutes sont parcourues une fois en comptant les trigrammes
+ * communs de chaque ligne dans un tableau d'un octet par ligne, propre à chaque thread.
+ * <p>
+ * L'index suit le registre comme observateur ; les modifications prennent son verrou d'écriture,
+ * les recherches son verrou de lecture.
+ */
+public class HolderNgramIndex implements AccountListener {
+    private static final double SIMILARITE_MIN = 0.3;
+    // Au-delà, le nombre de trigrammes d'un nom est plafonné dans le calcul de la similarité
+    private static final int GRAMMES_MAX = 255;
+    // Listes de la requête assez longues, par rapport au nombre de lignes, pour compter plutôt que fusionner
+    private static final int DENSITE_COMPTAGE = 16;
+    // Compteurs de trigrammes communs par ligne, réutilisés d'une recherche à l'autre par chaque thread
+    private static final ThreadLocal<byte[]> COMPTEURS = ThreadLocal.withInitial(() -> new byte[0]);
+
+    private final AccountStore stockage;
+    private final ReentrantReadWriteLock verrou = new ReentrantReadWriteLock();
+    // Table à sondage linéaire des trigrammes : code + 1, 0 pour une case vide
+    private long[] codes = new long[1 << 12];
+    private ListeCompressee[] listes = new ListeCompressee[1 << 12];
+    private int nombreGrammes;
+    // Nombre de trigrammes distincts du nom de chaque ligne, pour la similarité sans relire le nom
+    private byte[] grammesParLigne = new byte[1024];
+    private final int[] travail = new int[ListeCompressee.BLOC_MAX + 1];
+
+    /**
+     * Construit l'index des comptes déjà enregistrés et l'abonne aux modifications du registre.
+     * À créer avant que des sessions concurrentes ne modifient le registre.
+     *
+     * @param registre Le registre à indexer
+     */
+    public HolderNgramIndex(AccountRegistry registre) {
+        this.stockage = registre.stockage();
+        for (int ligne = registre.premiereLigne(); ligne >= 0; ligne = registre.ligneSuivante(ligne)) {
+            compteAjoute(stockage, ligne);
+        }
+        registre.ajouterEcouteur(this);
+    }
+
+    /**
+     * Recherche les comptes dont le nom du titulaire ressemble à une requête.
+     *
+     * @param requete Le nom cherché, éventuellement mal orthographié
+     * @param limite Le nombre maximal de comptes à renvoyer
+     * @return Les clés compactes des IBAN, du plus ressemblant au moins ressemblant
+     */
+    public long[] rechercher(String requete, int limite) {
+        long[] grammes = grammes(requete);
+        if (grammes.length > GRAMMES_MAX) {
+            grammes = Arrays.copyOf(grammes, GRAMMES_MAX);
+        }
+        int m = grammes.length;
+        if (m == 0 || limite <= 0) {
+            return new long[0];
+        }
+        int seuil = Math.max(1, (int) Math.ceil(SIMILARITE_MIN * m));
+        verrou.readLock().lock();
+        try {
+            // Listes de la requête, des plus courtes aux plus longues ; un trigramme inconnu n'a pas de liste
+            ListeCompressee[] presentes = new ListeCompressee[m];
+            int n = 0;
+            for (long code : grammes) {
+                ListeCompressee liste = liste(code);
+                if (liste != null) {
+                    presentes[n++] = liste;
+                }
+            }
+            Arrays.sort(presentes, 0, n, (a, b) -> Integer.compare(a.taille(), b.taille()));
+            // Un compte qui partage au moins seuil trigrammes figure dans l'une des n - seuil + 1 plus courtes
+            int parcourues = n - seuil + 1;
+            if (parcourues <= 0) {
+                return new long[0];
+            }
+            long occurrences = 0;
+            for (int i = 0; i < n; i++) {
+                occurrences += presentes[i].taille();
+            }
+            Candidats candidats = new Candidats(limite);
+            if (occurrences * DENSITE_COMPTAGE < stockage.limite()) {
+                fusionner(presentes, n, parcourues, m, seuil, candidats);
+            } else {
+                compter(presentes, n, m, seuil, candidats);
+            }
+            return candidats.cles(stockage);
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Une estimation de la mémoire occupée par l'index, en octets
+     */
+    public long octets() {
+        verrou.readLock().lock();
+        try {
+            long total = 16L * codes.length + grammesParLigne.length;
+            for (ListeCompressee liste : listes) {
+                if (liste != null) {
+                    total += liste.octets();
+                }
+            }
+            return total;
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Le nombre de trigrammes distincts indexés
+     */
+    public int nombreGrammes() {
+        verrou.readLock().lock();
+        try {
+            return nombreGrammes;
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void compteAjoute(AccountStore stockage, int ligne) {
+        long[] grammes = grammes(stockage.getTitulaire(ligne));
+        verrou.writeLock().lock();
+        try {
+            for (long code : grammes) {
+                listeOuNouvelle(code).ajouter(ligne, travail);
+            }
+            noterGrammes(ligne, grammes.length);
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void comptesAjoutes(AccountStore stockage, int[] lignes, int nombre) {
+        // Trigrammes calculés hors du verrou, puis un seul verrou pour le lot
+        long[][] grammes = new long[nombre][];
+        for (int i = 0; i < nombre; i++) {
+            grammes[i] = grammes(stockage.getTitulaire(lignes[i]));
+        }
+        verrou.writeLock().lock();
+        try {
+            for (int i = 0; i < nombre; i++) {
+                for (long code : grammes[i]) {
+                    listeOuNouvelle(code).ajouter(lignes[i], travail);
+                }
+                noterGrammes(lignes[i], grammes[i].length);
+            }
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void titulaireModifie(AccountStore stockage, int ligne, String ancienTitulaire) {
+        long[] anciens = grammes(ancienTitulaire);
+        long[] nouveaux = grammes(stockage.getTitulaire(ligne));
+        verrou.writeLock().lock();
+        try {
+            // Les deux tableaux sont triés : seuls les trigrammes qui changent sont touchés
+            for (long code : anciens) {
+                if (Arrays.binarySearch(nouveaux, code) < 0) {
+                    retirer(code, ligne);
+                }
+            }
+            for (long code : nouveaux) {
+                if (Arrays.binarySearch(anciens, code) < 0) {
+                    listeOuNouvelle(code).ajouter(ligne, travail);
+                }
+            }
+            noterGrammes(ligne, nouveaux.length);
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void compteSupprime(AccountStore stockage, int ligne) {
+        long[] grammes = grammes(stockage.getTitulaire(ligne));
+        verrou.writeLock().lock();
+        try {
+            for (long code : grammes) {
+                retirer(code, ligne);
+            }
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Fusionne les listes les plus courtes et complète le compte de chaque ligne rencontrée
+     * en la cherchant dans les autres : pour les requêtes aux trigrammes peu fréquents.
+     */
+    private void fusionner(ListeCompressee[] presentes, int n, int parcourues, int m, int seuil,
+            Candidats candidats) {
+        Fusion fusion = new Fusion(presentes, parcourues);
+        while (fusion.avancer()) {
+            int ligne = fusion.ligne();
+            int communs = fusion.nombre();
+            for (int i = parcourues; i < n && communs + n - i >= seuil; i++) {
+                if (presentes[i].contient(ligne)) {
+                    communs++;
+                }
+            }
+            evaluer(ligne, communs, m, seuil, candidats);
+        }
+    }
+
+    /**
+     * Compte les trigrammes communs de chaque ligne dans un tableau dense en parcourant toutes les listes
+     * une fois : pour les requêtes dont les listes couvrent une bonne part du registre.
+     */
+    private void compter(ListeCompressee[] presentes, int n, int m, int seuil, Candidats candidats) {
+        byte[] compteurs = COMPTEURS.get();
+        if (compteurs.length < stockage.limite()) {
+            compteurs = new byte[stockage.limite()];
+            COMPTEURS.set(compteurs);
+        }
+        int derniere = -1;
+        for (int i = 0; i < n; i++) {
+            ListeCompressee.Curseur curseur = presentes[i].curseur();
+            while (curseur.avancer()) {
+                compteurs[curseur.valeur()]++;
+            }
+            derniere = Math.max(derniere, curseur.valeur());
+        }
+        for (int ligne = 0; ligne <= derniere; ligne++) {
+            if (compteurs[ligne] != 0) {
+                evaluer(ligne, compteurs[ligne] & 0xFF, m, seuil, candidats);
+                compteurs[ligne] = 0;
+            }
+        }
+    }
+
+    private void evaluer(int ligne, int communs, int m, int seuil, Candidats candidats) {
+        if (communs >= seuil) {
+            int total = grammesParLigne[ligne] & 0xFF;
+            double similarite = (double) communs / (m + total - communs);
+            if (similarite >= SIMILARITE_MIN) {
+                candidats.proposer(ligne, similarite);
+            }
+        }
+    }
+
+    private void noterGrammes(int ligne, int nombre) {
+        if (ligne >= grammesParLigne.length) {
+            grammesParLigne = Arrays.copyOf(grammesParLigne, Math.max(ligne + 1, grammesParLigne.length * 2));
+        }
+        grammesParLigne[ligne] = (byte) Math.min(nombre, GRAMMES_MAX);
+    }
+
+    private void retirer(long code, int ligne) {
+        ListeCompressee liste = liste(code);
+        if (liste != null) {
+            liste.retirer(ligne, travail);
+        }
+    }
+
+    private ListeCompressee liste(long code) {
+        int masque = codes.length - 1;
+        for (int i = (int) hacher(code) & masque; codes[i] != 0; i = (i + 1) & masque) {
+            if (codes[i] == code + 1) {
+                return listes[i];
+            }
+        }
+        return null;
+    }
+
+    private ListeCompressee listeOuNouvelle(long code) {
+        ListeCompressee liste = liste(code);
+        if (liste != null) {
+            return liste;
+        }
+        if (2 * (nombreGrammes + 1) > codes.length) {
+            agrandir();
+        }
+        liste = new ListeCompressee();
+        placer(codes, listes, code + 1, liste);
+        nombreGrammes++;
+        return liste;
+    }
+
+    private void agrandir() {
+        long[] nouveauxCodes = new long[codes.length * 2];
+        ListeCompressee[] nouvellesListes = new ListeCompressee[codes.length * 2];
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] != 0) {
+                placer(nouveauxCodes, nouvellesListes, codes[i], listes[i]);
+            }
+        }
+        codes = nouveauxCodes;
+        listes = nouvellesListes;
+    }
+
+    private static void placer(long[] codes, ListeCompressee[] listes, long entree, ListeCompressee liste) {
+        int masque = codes.length - 1;
+        int i = (int) hacher(entree - 1) & masque;
+        while (codes[i] != 0) {
+            i = (i + 1) & masque;
+        }
+        codes[i] = entree;
+        listes[i] = liste;
+    }
+
+    private static long hacher(long code) {
+        long h = code * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Trigrammes distincts d'un nom, triés : trois caractères de 16 bits par code.
+     */
+    static long[] grammes(String nom) {
+        if (nom == null) {
+            return new long[0];
+        }
+        String texte = normaliser(nom);
+        long[] codes = new long[3 * texte.length() + 3];
+        int n = 0;
+        int i = 0;
+        while (i < texte.length()) {
+            int fin = texte.indexOf(' ', i);
+            if (fin < 0) {
+                fin = texte.length();
+            }
+            // Mot complété : deux espaces devant, un derrière
+            long c1 = ' ';
+            long c2 = ' ';
+            for (int j = i; j <= fin; j++) {
+                long c3 = j < fin ? texte.charAt(j) : ' ';
+                codes[n++] = c1 << 32 | c2 << 16 | c3;
+                c1 = c2;
+                c2 = c3;
+            }
+            i = fin + 1;
+        }
+        Arrays.sort(codes, 0, n);
+        int distincts = 0;
+        for (int j = 0; j < n; j++) {
+            if (distincts == 0 || codes[j] != codes[distincts - 1]) {
+                codes[distincts++] = codes[j];
+            }
+        }
+        return Arrays.copyOf(codes, distincts);
+    }
+
+    /**
+     * Minuscules sans accents ; tout ce qui n'est ni lettre ni chiffre sépare les mots, séparés par un espace.
+     */
+    static String normaliser(String nom) {
+        String decompose = Normalizer.normalize(nom, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+        StringBuilder texte = new StringBuilder(decompose.length());
+        for (int i = 0; i < decompose.length(); i++) {
+            char c = decompose.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                texte.append(c);
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && texte.length() > 0
+                    && texte.charAt(texte.length() - 1) != ' ') {
+                texte.append(' ');
+            }
+        }
+        int longueur = texte.length();
+        return longueur > 0 && texte.charAt(longueur - 1) == ' ' ? texte.substring(0, longueur - 1)
+                : texte.toString();
+    }
+
+    /**
+     * Fusion de listes triées : donne chaque ligne une fois, avec le nombre de listes qui la contiennent.
+     */
+    private static final class Fusion {
+        private final ListeCompressee.Curseur[] curseurs;
+        // Tas binaire des curseurs non épuisés, par valeur courante
+        private final int[] tas;
+        private int taille;
+        private int ligne;
+        private int nombre;
+
+        Fusion(ListeCompressee[] listes, int n) {
+            curseurs = new ListeCompressee.Curseur[n];
+            tas = new int[n];
+            for (int i = 0; i < n; i++) {
+                curseurs[i] = listes[i].curseur();
+                if (curseurs[i].avancer()) {
+                    tas[taille] = i;
+                    monter(taille++);
+                }
+            }
+        }
+
+        boolean avancer() {
+            if (taille == 0) {
+                return false;
+            }
+            ligne = curseurs[tas[0]].valeur();
+            nombre = 0;
+            while (taille > 0 && curseurs[tas[0]].valeur() == ligne) {
+                nombre++;
+                if (curseurs[tas[0]].avancer()) {
+                    descendre(0);
+                } else {
+                    tas[0] = tas[--taille];
+                    descendre(0);
+                }
+            }
+            return true;
+        }
+
+        int ligne() {
+            return ligne;
+        }
+
+        int nombre() {
+            return nombre;
+        }
+
+        private int valeur(int i) {
+            return curseurs[tas[i]].valeur();
+        }
+
+        private void monter(int i) {
+            while (i > 0 && valeur((i - 1) / 2) > valeur(i)) {
+                echanger(i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+
+        private void descendre(int i) {
+            while (true) {
+                int plusPetit = i;
+                int gauche = 2 * i + 1;
+                if (gauche < taille && valeur(gauche) < valeur(plusPetit)) {
+                    plusPetit = gauche;
+                }
+                if (gauche + 1 < taille && valeur(gauche + 1) < valeur(plusPetit)) {
+                    plusPetit = gauche + 1;
+                }
+                if (plusPetit == i) {
+                    return;
+                }
+                echanger(i, plusPetit);
+                i = plusPetit;
+            }
+        }
+
+        private void echanger(int i, int j) {
+            int t = tas[i];
+            tas[i] = tas[j];
+            tas[j] = t;
+        }
+    }
+
+    /**
+     * Meilleurs candidats par similarité, gardés dans un tas dont la racine est le moins ressemblant.
+     */
+    private static final class Candidats {
+        private final int[] lignes;
+        private final double[] similarites;
+        private int nombre;
+
+        Candidats(int capacite) {
+            lignes = new int[capacite];
+            similarites = new double[capacite];
+        }
+
+        void proposer(int ligne, double similarite) {
+            if (nombre < lignes.length) {
+                lignes[nombre] = ligne;
+                similarites[nombre] = similarite;
+                int i = nombre++;
+                while (i > 0 && similarites[(i - 1) / 2] > similarites[i]) {
+                    echanger(i, (i - 1) / 2);
+                    i = (i - 1) / 2;
+                }
+            } else if (similarite > similarites[0]) {
+                lignes[0] = ligne;
+                similarites[0] = similarite;
+                descendre();
+            }
+        }
+
+        /**
+         * Vide le tas, du plus ressemblant au moins ressemblant.
+         */
+        long[] cles(AccountStore stockage) {
+            long[] cles = new long[nombre];
+            while (nombre > 0) {
+                cles[nombre - 1] = stockage.getCodeIban(lignes[0]);
+                nombre--;
+                lignes[0] = lignes[nombre];
+                similarites[0] = similarites[nombre];
+                descendre();
+            }
+            return cles;
+        }
+
+        private void descendre() {
+            int i = 0;
+            while (true) {
+                int plusPetit = i;
+                int gauche = 2 * i + 1;
+                if (gauche < nombre && similarites[gauche] < similarites[plusPetit]) {
+                    plusPetit = gauche;
+                }
+                if (gauche + 1 < nombre && similarites[gauche + 1] < similarites[plusPetit]) {
+                    plusPetit = gauche + 1;
+                }
+                if (plusPetit == i) {
+                    return;
+                }
+                echanger(i, plusPetit);
+                i = plusPetit;
+            }
+        }
+
+        private void echanger(int i, int j) {
+            int l = lignes[i];
+            lignes[i] = lignes[j];
+            lignes[j] = l;
+            double d = similarites[i];
+            similarites[i] = similarites[j];
+            similarites[j] = d;
+        }
+    }
+}
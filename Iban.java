@@ -0,0 +1,115 @@
+/**
+ * Représentation compacte des IBAN simplifiés ("FR" suivi de 14 chiffres).
+ * Les 14 chiffres tiennent dans un long : c'est cette clé qui sert au stockage,
+ * au hachage et à l'égalité, la chaîne n'étant reconstruite que pour l'affichage.
+ */
+public final class Iban {
+    // Nombre de chiffres après le préfixe pays
+    public static final int CHIFFRES = 14;
+    // Borne exclusive des codes valides (10^14)
+    public static final long BORNE = 100_000_000_000_000L;
+    // Valeur renvoyée pour un IBAN mal formé
+    public static final long INVALIDE = -1L;
+    // Borne exclusive de la partie nationale (BBAN, 12 chiffres après la clé de contrôle)
+    public static final long BORNE_BBAN = 1_000_000_000_000L;
+    // "FR00" converti selon ISO 13616 (F = 15, R = 27), placé en fin de nombre pour le calcul du modulo
+    private static final int SUFFIXE_PAYS = 152700;
+
+    private Iban() {
+    }
+
+    /**
+     * Convertit un IBAN textuel en sa clé compacte.
+     *
+     * @param iban L'IBAN sous forme de chaîne (ex. : "FR12345678901234")
+     * @return La clé compacte, ou {@link #INVALIDE} si la chaîne n'est pas un IBAN valide
+     */
+    public static long encoder(CharSequence iban) {
+        if (iban == null || iban.length() != CHIFFRES + 2 || iban.charAt(0) != 'F' || iban.charAt(1) != 'R') {
+            return INVALIDE;
+        }
+        long code = 0;
+        for (int i = 2; i < iban.length(); i++) {
+            char c = iban.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALIDE;
+            }
+            code = code * 10 + (c - '0');
+        }
+        return code;
+    }
+
+    /**
+     * Écrit l'IBAN correspondant à une clé compacte, sans allocation intermédiaire.
+     *
+     * @param code La clé compacte
+     * @param sortie Le tampon de destination
+     * @return Le tampon, pour chaînage
+     */
+    public static StringBuilder formater(long code, StringBuilder sortie) {
+        sortie.append('F').append('R');
+        // Complète à gauche par des zéros jusqu'à 14 chiffres
+        for (long diviseur = BORNE / 10; diviseur > 0; diviseur /= 10) {
+            sortie.append((char) ('0' + (code / diviseur) % 10));
+        }
+        return sortie;
+    }
+
+    /**
+     * Reconstruit la forme textuelle d'un IBAN pour l'affichage.
+     *
+     * @param code La clé compacte
+     * @return L'IBAN sous forme de chaîne
+     */
+    public static String formater(long code) {
+        return formater(code, new StringBuilder(CHIFFRES + 2)).toString();
+    }
+
+    /**
+     * Calcule la clé de contrôle ISO 13616 (modulo 97) d'une partie nationale, sans allocation.
+     *
+     * @param bban La partie nationale, entre 0 et 10^12 exclus
+     * @return La clé de contrôle, entre 2 et 98
+     */
+    public static int cleControle(long bban) {
+        // Équivaut à calculer (bban suivi de "FR00") mod 97 sur la représentation décimale
+        long reste = (bban % 97 * 1_000_000 + SUFFIXE_PAYS) % 97;
+        return (int) (98 - reste);
+    }
+
+    /**
+     * Construit la clé compacte d'un IBAN complet à partir de sa partie nationale.
+     *
+     * @param bban La partie nationale, entre 0 et 10^12 exclus
+     * @return La clé compacte, clé de contrôle incluse
+     */
+    public static long composer(long bban) {
+        return cleControle(bban) * BORNE_BBAN + bban;
+    }
+
+    /**
+     * Vérifie la clé de contrôle d'un IBAN compact.
+     *
+     * @param code La clé compacte
+     * @return true si la clé de contrôle est correcte
+     */
+    public static boolean estValide(long code) {
+        return code >= 0 && code < BORNE && cleControle(code % BORNE_BBAN) == code / BORNE_BBAN;
+    }
+
+    /**
+     * Mélange les bits d'une clé pour la répartir uniformément dans une table de hachage.
+     *
+     * @param code La clé compacte
+     * @return Une valeur de hachage sur 64 bits
+     */
+    public static long hacher(long code) {
+        // Finaliseur de MurmurHash3
+        code ^= code >>> 33;
+        code *= 0xff51afd7ed558ccdL;
+        code ^= code >>> 33;
+        code *= 0xc4ceb9fe1a85ec53L;
+        code ^= code >>> 33;
+        return code;
+    }
+}
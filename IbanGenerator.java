@@ -0,0 +1,23 @@
+/**
+ * Source d'IBAN pour les nouveaux comptes.
+ * Chaque implémentation garantit qu'un même IBAN n'est jamais attribué deux fois
+ * et produit des clés de contrôle ISO 13616 valides (voir {@link Iban#composer(long)}).
+ */
+public interface IbanGenerator {
+
+    /**
+     * Attribue un nouvel IBAN.
+     *
+     * @return La clé compacte de l'IBAN attribué
+     * @throws IllegalStateException si l'espace des IBAN est épuisé
+     */
+    long prochain();
+
+    /**
+     * Signale un IBAN déjà attribué ailleurs (relecture, import) afin qu'il ne soit jamais regénéré.
+     * À appeler lors du chargement, avant que des comptes ne soient créés.
+     *
+     * @param code La clé compacte de l'IBAN existant
+     */
+    void reserver(long code);
+}
@@ -0,0 +1,625 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Journal binaire en ajout seul des modifications du registre (créations, soldes, titulaires,
+ * suppressions, prêts), relu au démarrage pour reconstituer les comptes.
+ * <p>
+ * Les modifications sont regroupées en trames : une trame par modification isolée, ou une seule trame
+ * pour toutes les modifications d'une transaction (virement, commit d'un lot), si bien qu'une trame
+ * est toujours appliquée en entier ou pas du tout. Format d'une trame (petit-boutiste) :
+ * longueur (4), CRC32C du contenu (4), enregistrements.
+ * <p>
+ * Les positions du journal sont logiques : elles ne reculent jamais, même quand le début du journal,
+ * couvert par un instantané, est retiré (voir {@link #tronquer(long)}). Le fichier commence alors par
+ * un en-tête (magique (4), position de la première trame (8)) ; sans en-tête, il commence à la position 0.
+ * <p>
+ * Un thread d'écriture dédié vide le tampon des trames et appelle fsync :
+ * <ul>
+ * <li>en mode {@link Mode#SYNCHRONE}, dès qu'une trame attend ; les trames arrivées pendant un fsync
+ * partent toutes au suivant (validation groupée) et chaque opération attend la durabilité de ses trames
+ * via {@link #attendreDurabilite()} ;</li>
+ * <li>en mode {@link Mode#DIFFERE}, au plus tard à chaque intervalle ; les opérations n'attendent pas
+ * et une panne peut perdre les modifications du dernier intervalle.</li>
+ * </ul>
+ */
+public class Journal implements AccountListener, AutoCloseable {
+
+    /**
+     * Politique de synchronisation sur disque.
+     */
+    public enum Mode {
+        SYNCHRONE,
+        DIFFERE
+    }
+
+    // Types d'enregistrements
+    private static final byte CREATION = 1;
+    private static final byte SOLDE = 2;
+    private static final byte TITULAIRE = 3;
+    private static final byte SUPPRESSION = 4;
+    private static final byte PRET = 5;
+
+    private static final int ENTETE_TRAME = 8;
+    // Négatif, donc distinct de la longueur d'une trame en tête d'un fichier sans en-tête
+    private static final int MAGIQUE = 0x8A4F5552;
+    private static final int ENTETE_FICHIER = 12;
+    private static final int TAMPON_INITIAL = 1 << 16;
+    // Au-delà de ce volume en attente, le mode différé écrit sans attendre la fin de l'intervalle
+    private static final int SEUIL_ECRITURE = 1 << 20;
+
+    private final Path fichier;
+    private final Mode mode;
+    private final long intervalleNanos;
+
+    // Tampon des trames en attente et tampon en cours d'écriture, échangés par le thread d'écriture
+    private final ReentrantLock verrou = new ReentrantLock();
+    private final Condition aEcrire = verrou.newCondition();
+    private final Condition ecrit = verrou.newCondition();
+    // Accès au fichier, partagé entre le thread d'écriture et le retrait du début du journal
+    private final ReentrantLock acces = new ReentrantLock();
+    private FileChannel canal;
+    private long base; // Position de la première trame du fichier
+    private int entete; // Taille de l'en-tête du fichier, nulle si le journal n'a jamais été tronqué
+    private ByteBuffer tampon = nouveauTampon(TAMPON_INITIAL);
+    private ByteBuffer tamponEcriture = nouveauTampon(TAMPON_INITIAL);
+    private long lsnAjoute; // Position dans le fichier à la fin de la dernière trame ajoutée
+    private long lsnDurable; // Position jusqu'à laquelle le fichier est synchronisé
+    private int attentes;
+    private IOException erreur;
+    private boolean ferme;
+    private final Thread ecrivain;
+
+    // Trame en préparation sur chaque thread
+    private final ThreadLocal<Trame> trames = ThreadLocal.withInitial(Trame::new);
+
+    /**
+     * Ouvre un journal en écriture à la suite de son contenu actuel.
+     * Le contenu doit avoir été relu et validé au préalable par {@link #rejouer(Path, AccountRegistry)}.
+     *
+     * @param fichier Le chemin du journal
+     * @param mode La politique de synchronisation sur disque
+     * @param intervalleMillis L'intervalle maximal entre deux fsync en mode différé
+     * @throws IOException si le journal ne peut être ouvert
+     */
+    public Journal(Path fichier, Mode mode, long intervalleMillis) throws IOException {
+        this.fichier = fichier;
+        this.canal = FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.mode = mode;
+        this.intervalleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, intervalleMillis));
+        this.base = lireBase(canal);
+        this.entete = base > 0 ? ENTETE_FICHIER : 0;
+        this.lsnAjoute = base + canal.size() - entete;
+        this.lsnDurable = lsnAjoute;
+        canal.position(canal.size());
+        this.ecrivain = new Thread(this::ecrire, "journal-" + fichier.getFileName());
+        ecrivain.setDaemon(true);
+        ecrivain.start();
+    }
+
+    @Override
+    public void compteAjoute(AccountStore stockage, int ligne) {
+        ByteBuffer b = preparer(64);
+        b.put(CREATION).putLong(stockage.getCodeIban(ligne)).putLong(stockage.getSolde(ligne))
+                .putLong(stockage.getOuverture(ligne)).putLong(stockage.getMontantPret(ligne))
+                .putDouble(stockage.getTauxInteret(ligne)).putDouble(stockage.getDureePret(ligne));
+        ecrireNom(stockage.getTitulaire(ligne));
+        terminer();
+    }
+
+    @Override
+    public void comptesAjoutes(AccountStore stockage, int[] lignes, int nombre) {
+        // Une seule trame pour le lot : une écriture au lieu d'une par compte, un lot rejoué en entier ou pas du tout
+        debutTransaction();
+        try {
+            for (int i = 0; i < nombre; i++) {
+                compteAjoute(stockage, lignes[i]);
+            }
+        } finally {
+            finTransaction();
+        }
+    }
+
+    @Override
+    public void soldeModifie(AccountStore stockage, int ligne, long ancienSolde) {
+        preparer(17).put(SOLDE).putLong(stockage.getCodeIban(ligne)).putLong(stockage.getSolde(ligne));
+        terminer();
+    }
+
+    @Override
+    public void titulaireModifie(AccountStore stockage, int ligne, String ancienTitulaire) {
+        preparer(9).put(TITULAIRE).putLong(stockage.getCodeIban(ligne));
+        ecrireNom(stockage.getTitulaire(ligne));
+        terminer();
+    }
+
+    @Override
+    public void pretModifie(AccountStore stockage, int ligne, long ancienSolde) {
+        preparer(41).put(PRET).putLong(stockage.getCodeIban(ligne)).putLong(stockage.getMontantPret(ligne))
+                .putDouble(stockage.getTauxInteret(ligne)).putDouble(stockage.getDureePret(ligne))
+                .putLong(stockage.getSolde(ligne));
+        terminer();
+    }
+
+    @Override
+    public void compteSupprime(AccountStore stockage, int ligne) {
+        preparer(9).put(SUPPRESSION).putLong(stockage.getCodeIban(ligne));
+        terminer();
+    }
+
+    @Override
+    public void debutTransaction() {
+        trames.get().profondeur++;
+    }
+
+    @Override
+    public void finTransaction() {
+        Trame trame = trames.get();
+        trame.profondeur--;
+        terminer();
+    }
+
+    /**
+     * Attend que toutes les trames émises par le thread courant soient sur disque.
+     * Sans effet en mode différé.
+     *
+     * @throws UncheckedIOException si l'écriture du journal a échoué
+     */
+    public void attendreDurabilite() {
+        if (mode == Mode.SYNCHRONE) {
+            attendre(trames.get().dernierLsn);
+        }
+    }
+
+    /**
+     * @return La position du journal à la fin de la dernière trame émise
+     */
+    long position() {
+        verrou.lock();
+        try {
+            return lsnAjoute;
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Écrit et synchronise toutes les trames déjà émises, quel que soit le mode.
+     *
+     * @return La position du journal jusqu'à laquelle tout est sur disque
+     * @throws UncheckedIOException si l'écriture du journal a échoué
+     */
+    public long forcer() {
+        long cible = position();
+        attendre(cible);
+        return cible;
+    }
+
+    /**
+     * Retire du journal les trames antérieures à une position couverte par un instantané durable. La fin du
+     * journal est recopiée, derrière un en-tête portant cette position, dans un nouveau fichier qui remplace
+     * l'ancien par renommage atomique : une panne laisse l'un ou l'autre, tous deux cohérents avec l'instantané.
+     * Les trames émises pendant la copie attendent en mémoire.
+     *
+     * @param lsn La position couverte par l'instantané, déjà durable dans le journal
+     * @throws IOException si le nouveau fichier ne peut être écrit
+     */
+    public void tronquer(long lsn) throws IOException {
+        acces.lock();
+        try {
+            if (lsn <= base) {
+                return;
+            }
+            long debut = entete + lsn - base;
+            long taille = canal.size();
+            if (debut > taille) {
+                throw new IOException("Position " + lsn + " au-delà de la fin du journal " + fichier);
+            }
+            Path temporaire = fichier.resolveSibling(fichier.getFileName() + ".tmp");
+            FileChannel nouveau = FileChannel.open(temporaire, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                ByteBuffer enTete = nouveauTampon(ENTETE_FICHIER).putInt(MAGIQUE).putLong(lsn).flip();
+                while (enTete.hasRemaining()) {
+                    nouveau.write(enTete);
+                }
+                for (long p = debut; p < taille; ) {
+                    p += canal.transferTo(p, taille - p, nouveau);
+                }
+                nouveau.force(true);
+                Files.move(temporaire, fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                // Les trames suivantes iront dans le nouveau fichier : son nom doit survivre à une panne
+                synchroniserRepertoire(fichier);
+            } catch (IOException | RuntimeException e) {
+                nouveau.close();
+                throw e;
+            }
+            canal.close();
+            canal = nouveau;
+            base = lsn;
+            entete = ENTETE_FICHIER;
+        } finally {
+            acces.unlock();
+        }
+    }
+
+    /**
+     * Écrit les trames en attente, synchronise le fichier et arrête le thread d'écriture.
+     *
+     * @throws IOException si l'écriture ou la fermeture échoue
+     */
+    @Override
+    public void close() throws IOException {
+        forcer();
+        verrou.lock();
+        try {
+            ferme = true;
+            aEcrire.signal();
+        } finally {
+            verrou.unlock();
+        }
+        try {
+            ecrivain.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        acces.lock();
+        try {
+            canal.close();
+        } finally {
+            acces.unlock();
+        }
+    }
+
+    /**
+     * Relit un journal et applique ses modifications au registre.
+     * Une trame incomplète ou corrompue en fin de fichier (écriture interrompue par une panne)
+     * est retirée du journal.
+     *
+     * @param fichier Le chemin du journal (absent si aucun journal n'existe encore)
+     * @param registre Le registre à reconstituer
+     * @return Le nombre de trames appliquées
+     * @throws IOException si le journal ne peut être lu
+     */
+    public static long rejouer(Path fichier, AccountRegistry registre) throws IOException {
+        return rejouer(fichier, registre, 0);
+    }
+
+    /**
+     * Relit la fin d'un journal, à partir de la position d'un instantané (voir {@link Checkpointer}).
+     *
+     * @param fichier Le chemin du journal (absent si aucun journal n'existe encore)
+     * @param registre Le registre à compléter
+     * @param depuis La position de la première trame à appliquer
+     * @return Le nombre de trames appliquées
+     * @throws IOException si le journal ne peut être lu, s'il s'arrête avant la position demandée
+     *         ou s'il a été tronqué au-delà
+     */
+    public static long rejouer(Path fichier, AccountRegistry registre, long depuis) throws IOException {
+        if (!fichier.toFile().exists()) {
+            if (depuis > 0) {
+                throw new IOException("Journal absent alors que l'instantané s'arrête à la position " + depuis);
+            }
+            return 0;
+        }
+        try (FileChannel lecture = FileChannel.open(fichier, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer entete = nouveauTampon(ENTETE_TRAME);
+            ByteBuffer contenu = nouveauTampon(TAMPON_INITIAL);
+            CRC32C crc = new CRC32C();
+            long base = lireBase(lecture);
+            if (depuis < base) {
+                throw new IOException("Journal tronqué à la position " + base + ", après celle de l'instantané ("
+                        + depuis + ")");
+            }
+            long position = (base > 0 ? ENTETE_FICHIER : 0) + depuis - base;
+            long trames = 0;
+            long taille = lecture.size();
+            if (taille < position) {
+                throw new IOException("Journal plus court (" + taille + " octets) que la position de l'instantané ("
+                        + depuis + ")");
+            }
+            while (position + ENTETE_TRAME <= taille) {
+                entete.clear();
+                lireTout(lecture, entete, position);
+                int longueur = entete.getInt(0);
+                if (longueur <= 0 || position + ENTETE_TRAME + longueur > taille) {
+                    break;
+                }
+                if (contenu.capacity() < longueur) {
+                    contenu = nouveauTampon(Integer.highestOneBit(longueur) << 1);
+                }
+                contenu.clear().limit(longueur);
+                lireTout(lecture, contenu, position + ENTETE_TRAME);
+                crc.reset();
+                crc.update(contenu.array(), 0, longueur);
+                if ((int) crc.getValue() != entete.getInt(4)) {
+                    break;
+                }
+                contenu.flip();
+                appliquer(contenu, registre);
+                position += ENTETE_TRAME + longueur;
+                trames++;
+            }
+            if (position < taille) {
+                lecture.truncate(position);
+            }
+            return trames;
+        }
+    }
+
+    /**
+     * Applique au registre les enregistrements d'une trame. Chaque enregistrement porte l'état complet
+     * des champs concernés, ce qui rend l'application idempotente.
+     */
+    private static void appliquer(ByteBuffer trame, AccountRegistry registre) {
+        IbanGenerator generateur = CompteBancaire.getGenerateurIban();
+        while (trame.hasRemaining()) {
+            byte type = trame.get();
+            long iban = trame.getLong();
+            int ligne = registre.ligne(iban);
+            switch (type) {
+                case CREATION -> {
+                    long solde = trame.getLong();
+                    long ouverture = trame.getLong();
+                    long montantPret = trame.getLong();
+                    double taux = trame.getDouble();
+                    double duree = trame.getDouble();
+                    String titulaire = lireNom(trame);
+                    if (ligne >= 0) {
+                        registre.supprimer(iban);
+                    }
+                    ligne = registre.ajouter(iban, titulaire, solde, ouverture);
+                    registre.definirPret(ligne, montantPret, taux, duree, solde);
+                    generateur.reserver(iban);
+                }
+                case SOLDE -> {
+                    long solde = trame.getLong();
+                    if (ligne >= 0) {
+                        registre.modifierSolde(ligne, solde);
+                    }
+                }
+                case TITULAIRE -> {
+                    String titulaire = lireNom(trame);
+                    if (ligne >= 0) {
+                        registre.modifierTitulaire(ligne, titulaire);
+                    }
+                }
+                case PRET -> {
+                    long montant = trame.getLong();
+                    double taux = trame.getDouble();
+                    double duree = trame.getDouble();
+                    long solde = trame.getLong();
+                    if (ligne >= 0) {
+                        registre.definirPret(ligne, montant, taux, duree, solde);
+                    }
+                }
+                case SUPPRESSION -> registre.supprimer(iban);
+                default -> throw new IllegalStateException("Enregistrement de journal inconnu : " + type);
+            }
+        }
+    }
+
+    /**
+     * Boucle du thread d'écriture : échange les tampons, écrit, synchronise et réveille les opérations en attente.
+     */
+    private void ecrire() {
+        while (true) {
+            long cible;
+            verrou.lock();
+            try {
+                long delai = intervalleNanos;
+                while (!ferme && !doitEcrire()) {
+                    if (tampon.position() > 0 && mode == Mode.DIFFERE) {
+                        if (delai <= 0) {
+                            break;
+                        }
+                        delai = aEcrire.awaitNanos(delai);
+                    } else {
+                        aEcrire.awaitUninterruptibly();
+                    }
+                }
+                if (tampon.position() == 0) {
+                    if (ferme) {
+                        return;
+                    }
+                    continue;
+                }
+                ByteBuffer plein = tampon;
+                tampon = tamponEcriture;
+                tamponEcriture = plein;
+                cible = lsnAjoute;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                verrou.unlock();
+            }
+            IOException echec = null;
+            acces.lock();
+            try {
+                tamponEcriture.flip();
+                while (tamponEcriture.hasRemaining()) {
+                    canal.write(tamponEcriture);
+                }
+                canal.force(false);
+            } catch (IOException e) {
+                echec = e;
+            } finally {
+                acces.unlock();
+            }
+            tamponEcriture.clear();
+            verrou.lock();
+            try {
+                if (echec != null) {
+                    erreur = echec;
+                } else {
+                    lsnDurable = cible;
+                }
+                ecrit.signalAll();
+            } finally {
+                verrou.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return true si le tampon doit être écrit sans attendre (appelé sous verrou)
+     */
+    private boolean doitEcrire() {
+        return tampon.position() > 0
+                && (mode == Mode.SYNCHRONE || attentes > 0 || tampon.position() >= SEUIL_ECRITURE);
+    }
+
+    /**
+     * Attend que le journal soit synchronisé au moins jusqu'à une position.
+     */
+    private void attendre(long lsn) {
+        verrou.lock();
+        try {
+            attentes++;
+            try {
+                while (lsnDurable < lsn && erreur == null) {
+                    aEcrire.signal();
+                    ecrit.awaitUninterruptibly();
+                }
+            } finally {
+                attentes--;
+            }
+            if (erreur != null) {
+                throw new UncheckedIOException("Échec d'écriture du journal", erreur);
+            }
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Réserve de la place dans la trame du thread courant pour un enregistrement.
+     *
+     * @param octets La taille minimale de l'enregistrement
+     * @return Le tampon de la trame
+     */
+    private ByteBuffer preparer(int octets) {
+        Trame trame = trames.get();
+        trame.reserver(octets);
+        return trame.octets;
+    }
+
+    private void ecrireNom(String nom) {
+        byte[] octets = nom.getBytes(StandardCharsets.UTF_8);
+        Trame trame = trames.get();
+        trame.reserver(4 + octets.length);
+        trame.octets.putInt(octets.length).put(octets);
+    }
+
+    private static String lireNom(ByteBuffer trame) {
+        byte[] octets = new byte[trame.getInt()];
+        trame.get(octets);
+        return new String(octets, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Émet la trame du thread courant si aucune transaction n'est ouverte.
+     */
+    private void terminer() {
+        Trame trame = trames.get();
+        if (trame.profondeur > 0 || trame.octets.position() == 0) {
+            return;
+        }
+        int longueur = trame.octets.position();
+        trame.crc.reset();
+        trame.crc.update(trame.octets.array(), 0, longueur);
+        verrou.lock();
+        try {
+            boolean etaitVide = tampon.position() == 0;
+            if (tampon.remaining() < ENTETE_TRAME + longueur) {
+                ByteBuffer agrandi = nouveauTampon(Integer.highestOneBit(tampon.position() + ENTETE_TRAME + longueur) << 1);
+                tampon.flip();
+                tampon = agrandi.put(tampon);
+            }
+            tampon.putInt(longueur).putInt((int) trame.crc.getValue()).put(trame.octets.array(), 0, longueur);
+            lsnAjoute += ENTETE_TRAME + longueur;
+            trame.dernierLsn = lsnAjoute;
+            // Réveille le thread d'écriture pour une écriture immédiate, ou pour démarrer l'intervalle
+            if (etaitVide || doitEcrire()) {
+                aEcrire.signal();
+            }
+        } finally {
+            verrou.unlock();
+        }
+        trame.octets.clear();
+    }
+
+    /**
+     * Lit l'en-tête d'un journal tronqué.
+     *
+     * @return La position de la première trame du fichier, 0 si le fichier n'a pas d'en-tête
+     */
+    private static long lireBase(FileChannel lecture) throws IOException {
+        if (lecture.size() < ENTETE_FICHIER) {
+            return 0;
+        }
+        ByteBuffer enTete = nouveauTampon(ENTETE_FICHIER);
+        lireTout(lecture, enTete, 0);
+        return enTete.getInt(0) == MAGIQUE ? enTete.getLong(4) : 0;
+    }
+
+    /**
+     * Synchronise un répertoire pour rendre durable un renommage qui s'y est produit.
+     *
+     * @param fichier Un fichier du répertoire
+     */
+    static void synchroniserRepertoire(Path fichier) throws IOException {
+        try (FileChannel repertoire = FileChannel.open(fichier.toAbsolutePath().getParent(),
+                StandardOpenOption.READ)) {
+            repertoire.force(true);
+        } catch (AccessDeniedException e) {
+            // Certains systèmes (Windows) refusent d'ouvrir un répertoire : rien ne peut y être synchronisé
+        }
+    }
+
+    private static void lireTout(FileChannel lecture, ByteBuffer cible, long position) throws IOException {
+        while (cible.hasRemaining()) {
+            int lus = lecture.read(cible, position);
+            if (lus < 0) {
+                throw new IOException("Fin de journal inattendue");
+            }
+            position += lus;
+        }
+    }
+
+    private static ByteBuffer nouveauTampon(int capacite) {
+        return ByteBuffer.allocate(capacite).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Trame en préparation sur un thread.
+     */
+    private static final class Trame {
+        ByteBuffer octets = nouveauTampon(256);
+        final CRC32C crc = new CRC32C();
+        int profondeur;
+        long dernierLsn;
+
+        void reserver(int octetsSupplementaires) {
+            if (octets.remaining() < octetsSupplementaires) {
+                ByteBuffer agrandi = nouveauTampon(Integer.highestOneBit(octets.position() + octetsSupplementaires) << 1);
+                octets.flip();
+                octets = agrandi.put(octets);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme de durées à précision relative constante, dans l'esprit de HdrHistogram : chaque puissance
+ * de deux est découpée en {@value #SOUS_CLASSES} classes égales, soit une erreur d'au plus ~3 % sur
+ * toute la plage des valeurs positives d'un long, en nanosecondes.
+ * <p>
+ * L'enregistrement est sans verrou et réparti : chaque thread incrémente les compteurs d'une tranche choisie
+ * selon son identifiant, si bien que des threads concurrents se gênent rarement. La lecture additionne
+ * les tranches ; elle est cohérente à quelques enregistrements concurrents près.
+ */
+public class LatencyHistogram {
+    private static final int BITS_SOUS_CLASSES = 5;
+    private static final int SOUS_CLASSES = 1 << BITS_SOUS_CLASSES;
+    private static final int CLASSES = (64 - BITS_SOUS_CLASSES + 1) * SOUS_CLASSES;
+
+    private final AtomicLongArray[] tranches;
+    private final int masque;
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructeur avec un nombre de tranches adapté au nombre de processeurs.
+     */
+    public LatencyHistogram() {
+        int nombre = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.tranches = new AtomicLongArray[nombre];
+        for (int i = 0; i < nombre; i++) {
+            tranches[i] = new AtomicLongArray(CLASSES);
+        }
+        this.masque = nombre - 1;
+    }
+
+    /**
+     * Enregistre une durée.
+     *
+     * @param nanos La durée en nanosecondes ; une valeur négative compte pour 0
+     */
+    public void enregistrer(long nanos) {
+        long valeur = Math.max(0, nanos);
+        tranches[tranche()].getAndIncrement(classe(valeur));
+        total.add(valeur);
+        max.accumulate(valeur);
+    }
+
+    /**
+     * @return Une copie figée de l'histogramme
+     */
+    public Instantane instantane() {
+        long[] comptes = new long[CLASSES];
+        long nombre = 0;
+        for (AtomicLongArray tranche : tranches) {
+            for (int i = 0; i < CLASSES; i++) {
+                long compte = tranche.get(i);
+                comptes[i] += compte;
+                nombre += compte;
+            }
+        }
+        return new Instantane(comptes, nombre, total.sum(), max.get());
+    }
+
+    /**
+     * Remet l'histogramme à zéro ; les enregistrements concurrents peuvent être perdus ou conservés.
+     */
+    public void reinitialiser() {
+        for (AtomicLongArray tranche : tranches) {
+            for (int i = 0; i < CLASSES; i++) {
+                tranche.set(i, 0);
+            }
+        }
+        total.reset();
+        max.reset();
+    }
+
+    private int tranche() {
+        // Mélange de l'identifiant : des threads créés à la suite tombent dans des tranches différentes
+        long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & masque;
+    }
+
+    /**
+     * Classe d'une valeur : linéaire sous {@value #SOUS_CLASSES}, puis {@value #SOUS_CLASSES} classes
+     * par puissance de deux.
+     */
+    static int classe(long valeur) {
+        if (valeur < SOUS_CLASSES) {
+            return (int) valeur;
+        }
+        int exposant = 63 - Long.numberOfLeadingZeros(valeur);
+        int decalage = exposant - BITS_SOUS_CLASSES;
+        return (decalage + 1) * SOUS_CLASSES + (int) ((valeur >>> decalage) & (SOUS_CLASSES - 1));
+    }
+
+    /**
+     * Plus grande valeur d'une classe.
+     */
+    static long borneSuperieure(int classe) {
+        if (classe < SOUS_CLASSES) {
+            return classe;
+        }
+        int decalage = classe / SOUS_CLASSES - 1;
+        long debut = (long) (SOUS_CLASSES + classe % SOUS_CLASSES) << decalage;
+        return debut + (1L << decalage) - 1;
+    }
+
+    /**
+     * Copie figée d'un histogramme.
+     */
+    public static final class Instantane {
+        private final long[] comptes;
+        private final long nombre;
+        private final long total;
+        private final long max;
+
+        private Instantane(long[] comptes, long nombre, long total, long max) {
+            this.comptes = comptes;
+            this.nombre = nombre;
+            this.total = total;
+            this.max = max;
+        }
+
+        /**
+         * @return Le nombre de durées enregistrées
+         */
+        public long getNombre() {
+            return nombre;
+        }
+
+        /**
+         * @return La durée moyenne en nanosecondes, 0 si l'histogramme est vide
+         */
+        public long getMoyenne() {
+            return nombre == 0 ? 0 : total / nombre;
+        }
+
+        /**
+         * @return La plus grande durée enregistrée, en nanosecondes
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Donne un centile : la plus grande valeur de la classe qui contient la proportion demandée
+         * des durées, sans dépasser le maximum observé.
+         *
+         * @param proportion La proportion, entre 0 et 1 (0,99 pour le 99e centile)
+         * @return La durée en nanosecondes, 0 si l'histogramme est vide
+         */
+        public long centile(double proportion) {
+            if (nombre == 0) {
+                return 0;
+            }
+            long rang = Math.max(1, (long) Math.ceil(proportion * nombre));
+            long cumul = 0;
+            for (int i = 0; i < comptes.length; i++) {
+                cumul += comptes[i];
+                if (cumul >= rang) {
+                    return Math.min(borneSuperieure(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+import java.util.Arrays;
+
+/**
+ * Liste triée d'entiers positifs distincts, compressée par blocs : chaque bloc garde sa première valeur
+ * en clair, puis les écarts entre valeurs successives en entiers de longueur variable (7 bits par octet).
+ * Des numéros de lignes proches tiennent ainsi sur un octet chacun au lieu de quatre.
+ * <p>
+ * Un ajout en fin de liste s'écrit directement à la suite du dernier bloc ; un ajout ou un retrait au milieu
+ * réécrit un seul bloc d'au plus {@value #BLOC_MAX} valeurs. Les premières valeurs des blocs permettent de
+ * tester l'appartenance sans tout décoder. La liste n'est pas protégée contre les accès concurrents.
+ */
+final class ListeCompressee {
+    static final int BLOC_MAX = 128;
+
+    private int[] premiers = new int[1];
+    private int[] derniers = new int[1];
+    private int[] nombres = new int[1];
+    private int[] longueurs = new int[1];
+    private byte[][] blocs = new byte[1][];
+    private int nombreBlocs;
+    private int taille;
+
+    /**
+     * Ajoute une valeur.
+     *
+     * @param valeur La valeur, positive ou nulle
+     * @param travail Un tableau de travail d'au moins {@value #BLOC_MAX} + 1 cases
+     * @return false si la valeur était déjà présente
+     */
+    boolean ajouter(int valeur, int[] travail) {
+        if (nombreBlocs == 0) {
+            inserer(0, valeur);
+        } else {
+            // Lignes ajoutées dans l'ordre : la valeur va au dernier bloc, sans le chercher
+            int b = valeur > derniers[nombreBlocs - 1] ? nombreBlocs - 1 : bloc(valeur);
+            if (valeur > derniers[b]) {
+                if (nombres[b] < BLOC_MAX) {
+                    ajouterALaFin(b, valeur);
+                } else {
+                    inserer(b + 1, valeur);
+                }
+            } else {
+                int n = decoder(b, travail);
+                int i = Arrays.binarySearch(travail, 0, n, valeur);
+                if (i >= 0) {
+                    return false;
+                }
+                i = -i - 1;
+                System.arraycopy(travail, i, travail, i + 1, n - i);
+                travail[i] = valeur;
+                n++;
+                if (n > BLOC_MAX) {
+                    // Coupe le bloc en deux moitiés
+                    int moitie = n / 2;
+                    encoder(b, travail, 0, moitie);
+                    inserer(b + 1, travail[moitie]);
+                    encoder(b + 1, travail, moitie, n);
+                } else {
+                    encoder(b, travail, 0, n);
+                }
+            }
+        }
+        taille++;
+        return true;
+    }
+
+    /**
+     * Retire une valeur.
+     *
+     * @param valeur La valeur
+     * @param travail Un tableau de travail d'au moins {@value #BLOC_MAX} + 1 cases
+     * @return false si la valeur était absente
+     */
+    boolean retirer(int valeur, int[] travail) {
+        if (nombreBlocs == 0) {
+            return false;
+        }
+        int b = bloc(valeur);
+        if (valeur < premiers[b] || valeur > derniers[b]) {
+            return false;
+        }
+        int n = decoder(b, travail);
+        int i = Arrays.binarySearch(travail, 0, n, valeur);
+        if (i < 0) {
+            return false;
+        }
+        System.arraycopy(travail, i + 1, travail, i, n - i - 1);
+        n--;
+        if (n == 0) {
+            supprimerBloc(b);
+        } else {
+            encoder(b, travail, 0, n);
+        }
+        taille--;
+        return true;
+    }
+
+    /**
+     * @return true si la liste contient la valeur
+     */
+    boolean contient(int valeur) {
+        if (nombreBlocs == 0) {
+            return false;
+        }
+        int b = bloc(valeur);
+        if (valeur < premiers[b] || valeur > derniers[b]) {
+            return false;
+        }
+        if (valeur == premiers[b] || valeur == derniers[b]) {
+            return true;
+        }
+        byte[] octets = blocs[b];
+        int courante = premiers[b];
+        int p = 0;
+        while (courante < valeur) {
+            int ecart = 0;
+            for (int decalage = 0; ; decalage += 7) {
+                byte o = octets[p++];
+                ecart |= (o & 0x7F) << decalage;
+                if (o >= 0) {
+                    break;
+                }
+            }
+            courante += ecart;
+        }
+        return courante == valeur;
+    }
+
+    /**
+     * @return Le nombre de valeurs
+     */
+    int taille() {
+        return taille;
+    }
+
+    /**
+     * @return Une estimation de la mémoire occupée, en octets
+     */
+    long octets() {
+        long total = 5L * 16 + 4L * 4 * premiers.length + 8L * blocs.length;
+        for (int b = 0; b < nombreBlocs; b++) {
+            total += 16 + blocs[b].length;
+        }
+        return total;
+    }
+
+    /**
+     * @return Un curseur placé avant la première valeur
+     */
+    Curseur curseur() {
+        return new Curseur();
+    }
+
+    /**
+     * Dernier bloc dont la première valeur ne dépasse pas la valeur cherchée, ou le premier bloc.
+     */
+    private int bloc(int valeur) {
+        int bas = 0;
+        int haut = nombreBlocs - 1;
+        while (bas < haut) {
+            int milieu = (bas + haut + 1) >>> 1;
+            if (premiers[milieu] <= valeur) {
+                bas = milieu;
+            } else {
+                haut = milieu - 1;
+            }
+        }
+        return bas;
+    }
+
+    private void ajouterALaFin(int b, int valeur) {
+        int ecart = valeur - derniers[b];
+        if (longueurs[b] + 5 > blocs[b].length) {
+            blocs[b] = Arrays.copyOf(blocs[b], Math.max(8, blocs[b].length * 2));
+        }
+        longueurs[b] = ecrire(blocs[b], longueurs[b], ecart);
+        derniers[b] = valeur;
+        if (++nombres[b] == BLOC_MAX) {
+            // Bloc complet : rend la place réservée
+            blocs[b] = Arrays.copyOf(blocs[b], longueurs[b]);
+        }
+    }
+
+    /**
+     * Insère un bloc ne contenant qu'une valeur.
+     */
+    private void inserer(int b, int valeur) {
+        if (nombreBlocs == premiers.length) {
+            int capacite = nombreBlocs * 2;
+            premiers = Arrays.copyOf(premiers, capacite);
+            derniers = Arrays.copyOf(derniers, capacite);
+            nombres = Arrays.copyOf(nombres, capacite);
+            longueurs = Arrays.copyOf(longueurs, capacite);
+            blocs = Arrays.copyOf(blocs, capacite);
+        }
+        int apres = nombreBlocs - b;
+        System.arraycopy(premiers, b, premiers, b + 1, apres);
+        System.arraycopy(derniers, b, derniers, b + 1, apres);
+        System.arraycopy(nombres, b, nombres, b + 1, apres);
+        System.arraycopy(longueurs, b, longueurs, b + 1, apres);
+        System.arraycopy(blocs, b, blocs, b + 1, apres);
+        premiers[b] = valeur;
+        derniers[b] = valeur;
+        nombres[b] = 1;
+        longueurs[b] = 0;
+        blocs[b] = new byte[0];
+        nombreBlocs++;
+    }
+
+    private void supprimerBloc(int b) {
+        int apres = nombreBlocs - b - 1;
+        System.arraycopy(premiers, b + 1, premiers, b, apres);
+        System.arraycopy(derniers, b + 1, derniers, b, apres);
+        System.arraycopy(nombres, b + 1, nombres, b, apres);
+        System.arraycopy(longueurs, b + 1, longueurs, b, apres);
+        System.arraycopy(blocs, b + 1, blocs, b, apres);
+        blocs[--nombreBlocs] = null;
+    }
+
+    /**
+     * Décode un bloc.
+     *
+     * @return Le nombre de valeurs écrites dans le tableau
+     */
+    private int decoder(int b, int[] sortie) {
+        byte[] octets = blocs[b];
+        int valeur = premiers[b];
+        sortie[0] = valeur;
+        int p = 0;
+        for (int i = 1; i < nombres[b]; i++) {
+            int ecart = 0;
+            for (int decalage = 0; ; decalage += 7) {
+                byte o = octets[p++];
+                ecart |= (o & 0x7F) << decalage;
+                if (o >= 0) {
+                    break;
+                }
+            }
+            valeur += ecart;
+            sortie[i] = valeur;
+        }
+        return nombres[b];
+    }
+
+    /**
+     * Réécrit un bloc avec des valeurs triées.
+     */
+    private void encoder(int b, int[] valeurs, int debut, int fin) {
+        int longueur = 0;
+        for (int i = debut + 1; i < fin; i++) {
+            int ecart = valeurs[i] - valeurs[i - 1];
+            longueur += ecart < 1 << 7 ? 1 : ecart < 1 << 14 ? 2 : ecart < 1 << 21 ? 3 : ecart < 1 << 28 ? 4 : 5;
+        }
+        byte[] octets = new byte[longueur];
+        int p = 0;
+        for (int i = debut + 1; i < fin; i++) {
+            p = ecrire(octets, p, valeurs[i] - valeurs[i - 1]);
+        }
+        premiers[b] = valeurs[debut];
+        derniers[b] = valeurs[fin - 1];
+        nombres[b] = fin - debut;
+        longueurs[b] = longueur;
+        blocs[b] = octets;
+    }
+
+    private static int ecrire(byte[] octets, int p, int ecart) {
+        while ((ecart & ~0x7F) != 0) {
+            octets[p++] = (byte) (ecart & 0x7F | 0x80);
+            ecart >>>= 7;
+        }
+        octets[p++] = (byte) ecart;
+        return p;
+    }
+
+    /**
+     * Parcours des valeurs dans l'ordre croissant, en décodant au fil de l'eau.
+     */
+    final class Curseur {
+        private int bloc = -1;
+        private int restantes;
+        private int position;
+        private int valeur;
+
+        /**
+         * Passe à la valeur suivante.
+         *
+         * @return false après la dernière valeur
+         */
+        boolean avancer() {
+            if (restantes == 0) {
+                if (++bloc >= nombreBlocs) {
+                    return false;
+                }
+                valeur = premiers[bloc];
+                restantes = nombres[bloc] - 1;
+                position = 0;
+                return true;
+            }
+            byte[] octets = blocs[bloc];
+            int ecart = 0;
+            for (int decalage = 0; ; decalage += 7) {
+                byte o = octets[position++];
+                ecart |= (o & 0x7F) << decalage;
+                if (o >= 0) {
+                    break;
+                }
+            }
+            valeur += ecart;
+            restantes--;
+            return true;
+        }
+
+        /**
+         * @return La valeur courante
+         */
+        int valeur() {
+            return valeur;
+        }
+    }
+}
@@ -1,38 +1,205 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.Scanner;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * Classe principale pour la gestion interactive des comptes bancaires via une interface console.
  * Permet de créer, consulter, modifier, supprimer des comptes et demander des prêts.
  */
 public class Main {
-    // Liste immuable pour stocker tous les comptes bancaires
-    private static final List<CompteBancaire> comptes = new ArrayList<>();
+    // Registre indexé par IBAN pour stocker tous les comptes bancaires (en mémoire par défaut)
+    private static AccountRegistry comptes = new AccountRegistry();
+    // Opérations atomiques sur le registre, partagées avec les sessions concurrentes
+    private static AccountOperations operations = new AccountOperations(comptes);
+    // Durées des opérations, toutes sessions confondues
+    private static final OperationMetrics metriques = new OperationMetrics();
+    // Index des comptes par nom de titulaire, construit une fois le registre rechargé, reconstruit à la recherche
+    // qui suit un import en masse
+    private static HolderIndex titulaires;
+    // Index des noms par trigrammes, pour les recherches approchées (reconstruit comme le précédent)
+    private static HolderNgramIndex nomsApproches;
+    // Index des comptes par solde, pour les plages et les plus gros soldes, construit à la première recherche
+    private static BalanceIndex soldes;
+    // Index des comptes par date d'ouverture, pour les périodes et les cohortes (reconstruit comme le précédent)
+    private static OpeningDateIndex ouvertures;
+    // Fichier où écrire les métriques (option --stats), ou null
+    private static Path cheminStats;
     // Scanner pour lire les entrées utilisateur depuis la console
     private static final Scanner scanner = new Scanner(System.in);
+    // Taille des paquets de lignes du listage écrits d'un coup sur la sortie
+    private static final int PAQUET_LISTAGE = 64 * 1024;
+    // Nombre maximal de comptes affichés par une recherche par titulaire
+    private static final int RESULTATS_MAX = 100;
+    // Nombre de noms approchants proposés quand aucun titulaire ne porte le nom cherché
+    private static final int SUGGESTIONS_MAX = 10;
 
     /**
      * Point d'entrée principal de l'application.
      * Affiche un message de bienvenue et lance une boucle pour interagir avec l'utilisateur via un menu.
      *
-     * @param args Arguments de la ligne de commande (non utilisés)
+     * @param args Arguments de la ligne de commande :
+     *             "--fichier chemin" conserve les comptes hors du tas dans le fichier indiqué,
+     *             qui est rouvert tel quel au démarrage suivant ;
+     *             "--journal chemin" consigne chaque modification dans le journal indiqué,
+     *             relu au démarrage suivant ; un instantané des comptes est pris à la sortie
+     *             et le journal réduit aux modifications qui le suivent ;
+     *             "--fsync-ms n" synchronise le journal au plus toutes les n millisecondes
+     *             au lieu d'attendre le disque à chaque opération ;
+     *             "--instantane-s n" prend en outre un instantané toutes les n secondes,
+     *             pour ne relire au démarrage que la fin du journal ;
+     *             "--commandes chemin" exécute sans menu les commandes du fichier indiqué
+     *             ("-" pour l'entrée standard) et écrit les réponses sur la sortie standard ;
+     *             "--port n" accepte en outre les mêmes commandes sur le port TCP indiqué,
+     *             tant que le menu n'est pas quitté ;
+     *             "--port-binaire n" de même avec le protocole binaire pipeliné ;
+     *             "--http n" sert de même l'API HTTP/JSON sur le port indiqué ;
+     *             "--stats chemin" écrit les métriques des opérations dans le fichier indiqué,
+     *             à chaque consultation des statistiques et à la sortie
+     * @throws IOException si le fichier de comptes ou le journal ne peut être ouvert
      */
-    public static void main(String[] args) {
-        System.out.println("Gestion simple des comptes bancaires");
+    public static void main(String[] args) throws IOException {
+        Path cheminFichier = null;
+        Path cheminJournal = null;
+        long intervalleFsync = -1;
+        long intervalleInstantane = -1;
+        String commandes = null;
+        int port = -1;
+        int portBinaire = -1;
+        int portHttp = -1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--fichier" -> cheminFichier = Path.of(args[i + 1]);
+                case "--journal" -> cheminJournal = Path.of(args[i + 1]);
+                case "--fsync-ms" -> intervalleFsync = Long.parseLong(args[i + 1]);
+                case "--instantane-s" -> intervalleInstantane = Long.parseLong(args[i + 1]);
+                case "--commandes" -> commandes = args[i + 1];
+                case "--port" -> port = Integer.parseInt(args[i + 1]);
+                case "--port-binaire" -> portBinaire = Integer.parseInt(args[i + 1]);
+                case "--http" -> portHttp = Integer.parseInt(args[i + 1]);
+                case "--stats" -> cheminStats = Path.of(args[i + 1]);
+                default -> System.out.println("Option ignorée : " + args[i]);
+            }
+        }
+        MappedAccountStore fichier = null;
+        if (cheminFichier != null) {
+            fichier = new MappedAccountStore(cheminFichier);
+            comptes = new AccountRegistry(fichier);
+            operations = new AccountOperations(comptes);
+        }
+        operations.setMetriques(metriques);
+        Journal journal = null;
+        Checkpointer instantanes = null;
+        if (cheminJournal != null) {
+            // L'instantané (pris à la sortie, et périodiquement si demandé) évite de relire le début du journal
+            Path cheminInstantane = cheminJournal.resolveSibling(cheminJournal.getFileName() + ".instantane");
+            long debut = System.nanoTime();
+            long depuis = Checkpointer.charger(cheminInstantane, comptes);
+            long trames = Journal.rejouer(cheminJournal, comptes, depuis);
+            System.out.printf("%d comptes rechargés (%d trames rejouées) en %d ms%n", comptes.taille(), trames,
+                    (System.nanoTime() - debut) / 1_000_000);
+            journal = intervalleFsync < 0
+                    ? new Journal(cheminJournal, Journal.Mode.SYNCHRONE, 0)
+                    : new Journal(cheminJournal, Journal.Mode.DIFFERE, intervalleFsync);
+            comptes.ajouterEcouteur(journal);
+            operations.setJournal(journal);
+            instantanes = new Checkpointer(operations, journal, cheminInstantane);
+            if (intervalleInstantane > 0) {
+                instantanes.demarrer(intervalleInstantane);
+            }
+        }
+        titulaires = new HolderIndex(comptes);
+        nomsApproches = new HolderNgramIndex(comptes);
+        ouvertures = new OpeningDateIndex(comptes);
+        AccountServer serveur = null;
+        if (port >= 0) {
+            serveur = new AccountServer(operations, port);
+            System.out.println("Serveur à l'écoute sur le port " + serveur.port());
+        }
+        AccountServer serveurBinaire = null;
+        if (portBinaire >= 0) {
+            serveurBinaire = new AccountServer(operations, portBinaire, AccountServer.Protocole.BINAIRE);
+            System.out.println("Serveur binaire à l'écoute sur le port " + serveurBinaire.port());
+        }
+        AccountHttpApi api = null;
+        if (portHttp >= 0) {
+            api = new AccountHttpApi(operations, portHttp);
+            System.out.println("API HTTP à l'écoute sur le port " + api.port());
+        }
+        if (commandes != null) {
+            executerCommandes(commandes);
+        } else {
+            System.out.println("Gestion simple des comptes bancaires");
 
-        // Boucle principale pour afficher le menu et traiter les choix jusqu'à ce que l'utilisateur quitte
-        while (true) {
-            afficherMenu();
-            int choix = lireChoix();
-            if (choix == 0) {
-                System.out.println("Au revoir !");
-                break;
+            // Boucle principale pour afficher le menu et traiter les choix jusqu'à ce que l'utilisateur quitte
+            while (true) {
+                afficherMenu();
+                int choix = lireChoix();
+                if (choix == 0) {
+                    System.out.println("Au revoir !");
+                    break;
+                }
+                traiterChoix(choix);
             }
-            traiterChoix(choix);
         }
         // Ferme le scanner pour libérer les ressources
         scanner.close();
+        if (serveur != null) {
+            serveur.close();
+        }
+        if (serveurBinaire != null) {
+            serveurBinaire.close();
+        }
+        if (api != null) {
+            api.close();
+        }
+        if (instantanes != null) {
+            instantanes.close();
+            instantanes.ecrire();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (fichier != null) {
+            fichier.close();
+        }
+        if (cheminStats != null) {
+            metriques.exporter(cheminStats);
+        }
+    }
+
+    /**
+     * Exécute un fichier de commandes sans invite, les réponses allant directement sur la sortie standard.
+     *
+     * @param chemin Le chemin du fichier, ou "-" pour l'entrée standard
+     * @throws IOException si les commandes ne peuvent être lues ou les réponses écrites
+     */
+    private static void executerCommandes(String chemin) throws IOException {
+        BatchCommandRunner executeur = new BatchCommandRunner(operations);
+        long debut = System.nanoTime();
+        // Canaux bruts : les tampons de System.in et System.out seraient redondants
+        FileChannel sortie = new FileOutputStream(FileDescriptor.out).getChannel();
+        if (chemin.equals("-")) {
+            executeur.executer(new FileInputStream(FileDescriptor.in).getChannel(), sortie);
+        } else {
+            try (FileChannel entree = FileChannel.open(Path.of(chemin), StandardOpenOption.READ)) {
+                executeur.executer(entree, sortie);
+            }
+        }
+        System.err.printf("%d commandes exécutées, %d en échec, en %d ms%n", executeur.getExecutees(),
+                executeur.getEchecs(), (System.nanoTime() - debut) / 1_000_000);
     }
 
     /**
@@ -46,6 +213,14 @@ public class Main {
         System.out.println("4. Modifier un compte");
         System.out.println("5. Supprimer un compte");
         System.out.println("6. Demander un prêt");
+        System.out.println("7. Effectuer un virement");
+        System.out.println("8. Importer des comptes (CSV)");
+        System.out.println("9. Exporter tous les comptes");
+        System.out.println("10. Statistiques des opérations");
+        System.out.println("11. Rechercher par titulaire");
+        System.out.println("12. Rechercher par solde");
+        System.out.println("13. Rechercher par date d'ouverture");
+        System.out.println("14. Comptabiliser un fichier de compensation");
         System.out.println("0. Quitter");
         System.out.print("Votre choix : ");
     }
@@ -80,6 +255,21 @@ public class Main {
         }
     }
 
+    /**
+     * Lit un montant en euros depuis la console et le convertit exactement en centimes.
+     *
+     * @return Le montant en centimes, ou 0 si l'entrée est invalide
+     */
+    private static long lireMontant() {
+        try {
+            // Convertit l'entrée utilisateur en centimes, sans passer par un double
+            return Montant.analyser(scanner.nextLine().trim());
+        } catch (NumberFormatException | ArithmeticException e) {
+            // Retourne 0 si l'entrée n'est pas un montant valide
+            return 0;
+        }
+    }
+
     /**
      * Traite le choix de l'utilisateur en appelant la méthode appropriée.
      *
@@ -93,6 +283,14 @@ public class Main {
             case 4 -> modifierCompte();
             case 5 -> supprimerCompte();
             case 6 -> demanderPret();
+            case 7 -> effectuerVirement();
+            case 8 -> importerComptes();
+            case 9 -> exporterComptes();
+            case 10 -> afficherStatistiques();
+            case 11 -> rechercherParTitulaire();
+            case 12 -> rechercherParSolde();
+            case 13 -> rechercherParOuverture();
+            case 14 -> comptabiliserCompensation();
             default -> System.out.println("Choix invalide. Veuillez réessayer.");
         }
     }
@@ -104,12 +302,11 @@ public class Main {
         System.out.print("Titulaire : ");
         String titulaire = scanner.nextLine();
         System.out.print("Solde initial (€) : ");
-        double solde = lireDouble();
+        long solde = lireMontant();
 
         // Vérifie que le solde initial est positif
         if (solde >= 0) {
-            CompteBancaire compte = new CompteBancaire(titulaire, solde);
-            comptes.add(compte);
+            CompteBancaire compte = operations.creer(titulaire, solde);
             System.out.println("Compte créé avec succès ! " + compte);
         } else {
             System.out.println("Le solde initial doit être positif.");
@@ -120,15 +317,34 @@ public class Main {
      * Affiche la liste de tous les comptes bancaires.
      */
     private static void consulterTousComptes() {
-        if (comptes.isEmpty()) {
+        long debut = System.nanoTime();
+        // Ordre relevé d'un coup, puis chaque compte relu sous le verrou de sa tranche : les sessions
+        // concurrentes peuvent créer et supprimer des comptes pendant le listage
+        long[] cles = operations.cles();
+        if (cles.length == 0) {
             System.out.println("Aucun compte disponible.");
             return;
         }
         System.out.println("\n=== Liste des comptes ===");
-        // Affiche chaque compte avec un numéro d'index
-        for (int i = 0; i < comptes.size(); i++) {
-            System.out.printf("%d. %s\n", i + 1, comptes.get(i));
+        // Affiche chaque compte avec un numéro d'index, rendu directement depuis le stockage par paquets de lignes
+        StringBuilder lignes = new StringBuilder(PAQUET_LISTAGE + 1024);
+        int i = 0;
+        for (long cle : cles) {
+            int taille = lignes.length();
+            if (!ecrireCompte(cle, lignes.append(i + 1).append(". "))) {
+                // Supprimé depuis le relevé
+                lignes.setLength(taille);
+                continue;
+            }
+            i++;
+            lignes.append('\n');
+            if (lignes.length() >= PAQUET_LISTAGE) {
+                System.out.print(lignes);
+                lignes.setLength(0);
+            }
         }
+        System.out.print(lignes);
+        metriques.enregistrer(OperationMetrics.Operation.LISTAGE, debut);
     }
 
     /**
@@ -137,7 +353,7 @@ public class Main {
     private static void consulterCompteParIban() {
         System.out.print("IBAN du compte : ");
         String iban = scanner.nextLine();
-        CompteBancaire compte = trouverCompteParIban(iban);
+        String compte = trouverCompteParIban(iban);
         if (compte != null) {
             System.out.println(compte);
         } else {
@@ -145,14 +361,213 @@ public class Main {
         }
     }
 
+    /**
+     * Recherche les comptes d'un titulaire par son nom exact, ou par le début de son nom s'il se termine par *.
+     * Un nom exact sans compte donne les comptes aux noms les plus proches (fautes de frappe).
+     */
+    private static void rechercherParTitulaire() {
+        System.out.print("Titulaire (terminer par * pour chercher par début de nom) : ");
+        String nom = scanner.nextLine().trim();
+        long debut = System.nanoTime();
+        long[] cles = nom.endsWith("*")
+                ? indexTitulaires().commencantPar(nom.substring(0, nom.length() - 1), RESULTATS_MAX + 1)
+                : indexTitulaires().trouver(nom);
+        boolean approche = cles.length == 0 && !nom.endsWith("*");
+        if (approche) {
+            cles = indexNomsApproches().rechercher(nom, SUGGESTIONS_MAX);
+        }
+        metriques.enregistrer(OperationMetrics.Operation.RECHERCHE, debut);
+        if (cles.length == 0) {
+            System.out.println("Aucun compte trouvé.");
+            return;
+        }
+        if (approche) {
+            System.out.println("Aucun compte à ce nom. Noms les plus proches :");
+        }
+        StringBuilder lignes = new StringBuilder();
+        int affiches = Math.min(cles.length, RESULTATS_MAX);
+        for (int i = 0; i < affiches; i++) {
+            // Un compte supprimé depuis la recherche n'est plus affiché
+            if (ecrireCompte(cles[i], lignes)) {
+                lignes.append('\n');
+            }
+        }
+        if (cles.length > affiches) {
+            lignes.append("... (").append(RESULTATS_MAX).append(" premiers comptes affichés)\n");
+        }
+        System.out.print(lignes);
+    }
+
+    /**
+     * Donne l'index des soldes, construit à la première recherche : tenu à jour, il s'ajoute à chaque crédit,
+     * débit et virement de toutes les sessions, ce qui ne se justifie qu'une fois qu'on s'en sert.
+     *
+     * @return L'index des soldes
+     */
+    private static BalanceIndex indexSoldes() {
+        if (soldes == null) {
+            soldes = construireIndex(() -> new BalanceIndex(comptes));
+        }
+        return soldes;
+    }
+
+    private static HolderIndex indexTitulaires() {
+        if (titulaires == null) {
+            titulaires = construireIndex(() -> new HolderIndex(comptes));
+        }
+        return titulaires;
+    }
+
+    private static HolderNgramIndex indexNomsApproches() {
+        if (nomsApproches == null) {
+            nomsApproches = construireIndex(() -> new HolderNgramIndex(comptes));
+        }
+        return nomsApproches;
+    }
+
+    private static OpeningDateIndex indexOuvertures() {
+        if (ouvertures == null) {
+            ouvertures = construireIndex(() -> new OpeningDateIndex(comptes));
+        }
+        return ouvertures;
+    }
+
+    /**
+     * Construit un index pendant que d'autres sessions travaillent : sous toutes les tranches, aucun compte
+     * ne change entre le parcours du registre et l'abonnement de l'index.
+     */
+    private static <T extends AccountListener> T construireIndex(Supplier<T> construction) {
+        operations.verrouillerTout();
+        try {
+            return construction.get();
+        } finally {
+            operations.deverrouillerTout();
+        }
+    }
+
+    /**
+     * Désabonne les index avant un import en masse : plutôt que d'être tenus à jour compte par compte, sous leur
+     * verrou, ils seront reconstruits d'un coup à la recherche suivante.
+     */
+    private static void detacherIndex() {
+        for (AccountListener index : new AccountListener[] {titulaires, nomsApproches, soldes, ouvertures}) {
+            if (index != null) {
+                comptes.retirerEcouteur(index);
+            }
+        }
+        titulaires = null;
+        nomsApproches = null;
+        soldes = null;
+        ouvertures = null;
+    }
+
+    /**
+     * Affiche les comptes dont le solde est dans une plage, ou les plus gros soldes si aucune plage n'est donnée.
+     */
+    private static void rechercherParSolde() {
+        System.out.print("Solde minimum (€, vide pour les plus gros soldes) : ");
+        String saisie = scanner.nextLine().trim();
+        long[] cles;
+        long debut;
+        if (saisie.isEmpty()) {
+            debut = System.nanoTime();
+            cles = indexSoldes().plusGrosSoldes(RESULTATS_MAX);
+            metriques.enregistrer(OperationMetrics.Operation.RECHERCHE, debut);
+        } else {
+            long min;
+            try {
+                min = Montant.analyser(saisie);
+            } catch (NumberFormatException | ArithmeticException e) {
+                System.out.println("Montant invalide.");
+                return;
+            }
+            System.out.print("Solde maximum (€) : ");
+            long max = lireMontant();
+            debut = System.nanoTime();
+            int nombre = indexSoldes().compter(min, max);
+            cles = soldes.entre(min, max, RESULTATS_MAX);
+            metriques.enregistrer(OperationMetrics.Operation.RECHERCHE, debut);
+            System.out.println(nombre + " compte(s) dans cette plage.");
+        }
+        StringBuilder lignes = new StringBuilder();
+        for (long cle : cles) {
+            // Un compte supprimé depuis la recherche n'est plus affiché
+            if (ecrireCompte(cle, lignes)) {
+                lignes.append('\n');
+            }
+        }
+        System.out.print(lignes);
+    }
+
+    /**
+     * Affiche les comptes ouverts entre deux dates incluses, avec leur nombre par jour (période d'au plus
+     * un mois) ou par mois.
+     */
+    private static void rechercherParOuverture() {
+        LocalDate du;
+        LocalDate au;
+        try {
+            System.out.print("Ouverts du (AAAA-MM-JJ) : ");
+            du = LocalDate.parse(scanner.nextLine().trim());
+            System.out.print("Au (AAAA-MM-JJ, inclus) : ");
+            au = LocalDate.parse(scanner.nextLine().trim());
+        } catch (DateTimeParseException e) {
+            System.out.println("Date invalide.");
+            return;
+        }
+        if (au.isBefore(du)) {
+            System.out.println("Période vide.");
+            return;
+        }
+        LocalDate premierJour = OpeningDateIndex.PREMIERE_DATE.toLocalDate();
+        LocalDate dernierJour = OpeningDateIndex.DERNIERE_DATE.toLocalDate();
+        if (du.isAfter(dernierJour) || au.isBefore(premierJour)) {
+            System.out.println("Aucun compte ne peut être ouvert hors de la période du " + premierJour + " au "
+                    + dernierJour + ".");
+            return;
+        }
+        // Une borne au-delà de cette période ne fait que laisser la recherche ouverte de ce côté
+        if (du.isBefore(premierJour)) {
+            du = premierJour;
+        }
+        if (au.isAfter(dernierJour)) {
+            au = dernierJour;
+        }
+        long debut = System.nanoTime();
+        LocalDateTime fin = au.plusDays(1).atStartOfDay();
+        int nombre = indexOuvertures().compter(du.atStartOfDay(), fin);
+        long[] cles = ouvertures.entre(du.atStartOfDay(), fin, RESULTATS_MAX);
+        boolean parJour = ChronoUnit.DAYS.between(du, au) < 31;
+        YearMonth premierMois = YearMonth.from(du);
+        int[] cohortes = parJour ? ouvertures.parJour(du, (int) ChronoUnit.DAYS.between(du, au) + 1)
+                : ouvertures.parMois(premierMois, (int) premierMois.until(YearMonth.from(au), ChronoUnit.MONTHS) + 1);
+        metriques.enregistrer(OperationMetrics.Operation.RECHERCHE, debut);
+        System.out.println(nombre + " compte(s) ouvert(s) sur la période.");
+        StringBuilder lignes = new StringBuilder();
+        for (int i = 0; i < cohortes.length; i++) {
+            if (cohortes[i] > 0) {
+                // Les mois extrêmes sont comptés en entier
+                lignes.append(parJour ? du.plusDays(i) : premierMois.plusMonths(i)).append(" : ")
+                        .append(cohortes[i]).append('\n');
+            }
+        }
+        for (long cle : cles) {
+            // Un compte supprimé depuis la recherche n'est plus affiché
+            if (ecrireCompte(cle, lignes)) {
+                lignes.append('\n');
+            }
+        }
+        System.out.print(lignes);
+    }
+
     /**
      * Modifie le titulaire ou le solde d'un compte existant en fonction de son IBAN.
      */
     private static void modifierCompte() {
         System.out.print("IBAN du compte à modifier : ");
-        String iban = scanner.nextLine();
-        CompteBancaire compte = trouverCompteParIban(iban);
-        if (compte == null) {
+        // La clé désigne le compte jusqu'au bout, même s'il est supprimé et sa ligne réutilisée entre-temps
+        long cle = Iban.encoder(scanner.nextLine());
+        if (operations.consulter(cle, c -> Boolean.TRUE) == null) {
             System.out.println("Compte introuvable.");
             return;
         }
@@ -160,18 +575,27 @@ public class Main {
         // Demande un nouveau titulaire (optionnel)
         System.out.print("Nouveau titulaire (laisser vide pour ne pas changer) : ");
         String nouveauTitulaire = scanner.nextLine();
-        if (!nouveauTitulaire.isEmpty()) {
-            compte.setTitulaire(nouveauTitulaire);
-        }
 
         // Demande un nouveau solde (optionnel, -1 pour ignorer)
         System.out.print("Nouveau solde (€, entrer -1 pour ne pas changer) : ");
-        double nouveauSolde = lireDouble();
-        if (nouveauSolde >= 0) {
-            compte.setSolde(nouveauSolde);
-        }
+        long nouveauSolde = lireMontant();
 
-        System.out.println("Compte modifié avec succès ! " + compte);
+        // Applique les deux changements d'un seul tenant et relit le compte sous le même verrou
+        String[] modifie = new String[1];
+        operations.modifier(cle, c -> {
+            if (!nouveauTitulaire.isEmpty()) {
+                c.setTitulaire(nouveauTitulaire);
+            }
+            if (nouveauSolde >= 0) {
+                c.setSolde(nouveauSolde);
+            }
+            modifie[0] = c.toString();
+        });
+        if (modifie[0] != null) {
+            System.out.println("Compte modifié avec succès ! " + modifie[0]);
+        } else {
+            System.out.println("Compte introuvable.");
+        }
     }
 
     /**
@@ -180,9 +604,7 @@ public class Main {
     private static void supprimerCompte() {
         System.out.print("IBAN du compte à supprimer : ");
         String iban = scanner.nextLine();
-        CompteBancaire compte = trouverCompteParIban(iban);
-        if (compte != null) {
-            comptes.remove(compte);
+        if (operations.supprimer(Iban.encoder(iban))) {
             System.out.println("Compte supprimé avec succès !");
         } else {
             System.out.println("Compte introuvable.");
@@ -194,47 +616,171 @@ public class Main {
      */
     private static void demanderPret() {
         System.out.print("IBAN du compte : ");
-        String iban = scanner.nextLine();
-        CompteBancaire compte = trouverCompteParIban(iban);
-        if (compte == null) {
+        // La clé désigne le compte jusqu'au bout, même s'il est supprimé et sa ligne réutilisée entre-temps
+        long cle = Iban.encoder(scanner.nextLine());
+        Long pret = operations.consulter(cle, CompteBancaire::getMontantPret);
+        if (pret == null) {
             System.out.println("Compte introuvable.");
             return;
         }
 
         // Vérifie si un prêt existe déjà
-        if (compte.getMontantPret() > 0) {
+        if (pret > 0) {
             System.out.println("Ce compte a déjà un prêt actif.");
             return;
         }
 
         // Demande les détails du prêt
         System.out.print("Montant du prêt (€) : ");
-        double montant = lireDouble();
+        long montant = lireMontant();
         System.out.print("Taux d'intérêt annuel (%) : ");
         double taux = lireDouble();
         System.out.print("Durée du prêt (années) : ");
         double duree = lireDouble();
 
         // Tente de demander le prêt
-        if (compte.demanderPret(montant, taux, duree)) {
-            System.out.println("Prêt accordé avec succès ! " + compte);
+        boolean accorde;
+        try {
+            accorde = operations.accorderPret(cle, montant, taux, duree);
+        } catch (ArithmeticException e) {
+            System.out.println("Prêt refusé : le solde ou les intérêts dépasseraient les montants représentables.");
+            return;
+        }
+        if (accorde) {
+            String compte = operations.consulter(cle, CompteBancaire::toString);
+            System.out.println("Prêt accordé avec succès ! " + (compte == null ? "" : compte));
         } else {
             System.out.println("Prêt refusé : montant, taux ou durée invalide, ou prêt déjà existant.");
         }
     }
 
+    /**
+     * Transfère un montant d'un compte vers un autre.
+     */
+    private static void effectuerVirement() {
+        System.out.print("IBAN du compte à débiter : ");
+        String source = scanner.nextLine();
+        System.out.print("IBAN du compte à créditer : ");
+        String destination = scanner.nextLine();
+        System.out.print("Montant du virement (€) : ");
+        long montant = lireMontant();
+
+        if (operations.virer(Iban.encoder(source), Iban.encoder(destination), montant)) {
+            System.out.println("Virement effectué avec succès !");
+        } else {
+            System.out.println("Virement refusé : compte introuvable, montant invalide ou solde insuffisant.");
+        }
+    }
+
+    /**
+     * Importe en masse les comptes d'un fichier CSV (titulaire;solde[;pret;taux;duree]).
+     */
+    private static void importerComptes() {
+        System.out.print("Chemin du fichier CSV : ");
+        Path fichier = Path.of(scanner.nextLine().trim());
+        long debut = System.nanoTime();
+        try {
+            // Environ 32 octets par ligne : moins de lignes que de comptes ne justifie pas de reconstruire les index
+            if (Files.size(fichier) / 32 >= comptes.taille()) {
+                detacherIndex();
+            }
+            AccountImporter.Bilan bilan = new AccountImporter(operations).importer(fichier);
+            long millis = Math.max(1, (System.nanoTime() - debut) / 1_000_000);
+            System.out.printf("%d comptes importés en %d ms (%d lignes/s).%n", bilan.getImportes(), millis,
+                    bilan.getImportes() * 1000 / millis);
+            if (bilan.getRejetes() > 0) {
+                System.out.printf("%d lignes rejetées, la première à la ligne %d.%n", bilan.getRejetes(),
+                        bilan.getPremiereLigneRejetee());
+            }
+        } catch (IOException e) {
+            System.out.println("Import impossible : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Comptabilise un fichier de compensation (ibanSource;ibanDestination;montant), par lots de virements.
+     */
+    private static void comptabiliserCompensation() {
+        System.out.print("Chemin du fichier de compensation : ");
+        Path fichier = Path.of(scanner.nextLine().trim());
+        long debut = System.nanoTime();
+        try {
+            BatchPostingEngine.Bilan bilan = new BatchPostingEngine(operations).comptabiliser(fichier);
+            long millis = Math.max(1, (System.nanoTime() - debut) / 1_000_000);
+            System.out.printf("%d virements comptabilisés en %d ms (%d lignes/s).%n", bilan.getAppliquees(), millis,
+                    (bilan.getAppliquees() + bilan.getRejetees()) * 1000 / millis);
+            if (bilan.getRejetees() > 0) {
+                System.out.printf("%d lignes rejetées, la première à la ligne %d.%n", bilan.getRejetees(),
+                        bilan.getPremiereLigneRejetee());
+            }
+        } catch (IOException e) {
+            System.out.println("Comptabilisation impossible : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Exporte tous les comptes dans un fichier CSV ou binaire.
+     */
+    private static void exporterComptes() {
+        System.out.print("Chemin du fichier d'export : ");
+        Path fichier = Path.of(scanner.nextLine().trim());
+        System.out.print("Format (1 = CSV, 2 = binaire) : ");
+        AccountExporter.Format format = lireChoix() == 2 ? AccountExporter.Format.BINAIRE : AccountExporter.Format.CSV;
+        long debut = System.nanoTime();
+        try {
+            long nombre = new AccountExporter(operations).exporter(fichier, format);
+            System.out.printf("%d comptes exportés en %d ms.%n", nombre, (System.nanoTime() - debut) / 1_000_000);
+        } catch (IOException e) {
+            System.out.println("Export impossible : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Affiche le nombre et la durée des opérations (en microsecondes) depuis le démarrage,
+     * et les écrit dans le fichier de métriques s'il y en a un.
+     */
+    private static void afficherStatistiques() {
+        System.out.println("\n=== Statistiques des opérations (µs) ===");
+        System.out.print(metriques.rapport());
+        if (cheminStats != null) {
+            try {
+                metriques.exporter(cheminStats);
+                System.out.println("Métriques écrites dans " + cheminStats);
+            } catch (IOException e) {
+                System.out.println("Échec de l'écriture des métriques : " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Recherche un compte bancaire par son IBAN.
      *
      * @param iban L'IBAN du compte à trouver
-     * @return Le compte correspondant, ou null si introuvable
+     * @return Le compte correspondant mis en forme sous le verrou de sa tranche, ou null si introuvable
      */
-    private static CompteBancaire trouverCompteParIban(String iban) {
-        for (CompteBancaire compte : comptes) {
-            if (compte.getIban().equals(iban)) {
-                return compte;
+    private static String trouverCompteParIban(String iban) {
+        return operations.consulter(Iban.encoder(iban), CompteBancaire::toString);
+    }
+
+    /**
+     * Écrit un compte trouvé par un index sous le verrou de sa tranche : sans lui, une session concurrente
+     * pourrait libérer ou réutiliser la ligne pendant sa lecture.
+     *
+     * @param cle La clé compacte de l'IBAN
+     * @param sortie Le tampon de destination
+     * @return false si le compte n'existe plus, rien n'étant alors écrit
+     */
+    private static boolean ecrireCompte(long cle, StringBuilder sortie) {
+        ReentrantLock verrou = operations.verrouillerCompte(cle);
+        try {
+            int ligne = comptes.ligne(cle);
+            if (ligne < 0) {
+                return false;
             }
+            AccountRenderer.ecrire(comptes.stockage(), ligne, sortie);
+            return true;
+        } finally {
+            verrou.unlock();
         }
-        return null;
     }
 }
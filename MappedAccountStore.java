@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Stockage des comptes hors du tas, dans un fichier projeté en mémoire.
+ * Chaque compte occupe un enregistrement de taille fixe ; le fichier est projeté par segments
+ * pour dépasser la limite de 2 Go d'un {@link MappedByteBuffer}. Les données ne pèsent pas sur le
+ * ramasse-miettes et survivent au redémarrage : rouvrir le fichier suffit à les retrouver.
+ * <p>
+ * Format d'un enregistrement (128 octets, petit-boutiste) :
+ * IBAN (8), solde en centimes (8), ouverture (8), montant du prêt en centimes (8), taux (8), durée (8),
+ * longueur du nom (2), nom en UTF-8 ({@value #OCTETS_NOM} octets au plus, tronqué au-delà).
+ */
+public class MappedAccountStore implements AccountStore, AutoCloseable {
+    private static final int MAGIQUE = 0x434F4D50; // "COMP"
+    private static final int VERSION = 2; // 2 : montants en centimes
+    private static final int TAILLE_ENTETE = 4096;
+    private static final int TAILLE_ENREGISTREMENT = 128;
+    private static final int DECALAGE_SEGMENT = 20; // 2^20 enregistrements (128 Mo) par segment
+    private static final int MASQUE_SEGMENT = (1 << DECALAGE_SEGMENT) - 1;
+    private static final long TAILLE_SEGMENT = (long) TAILLE_ENREGISTREMENT << DECALAGE_SEGMENT;
+
+    // Position des champs dans l'enregistrement
+    private static final int IBAN = 0;
+    private static final int SOLDE = 8;
+    private static final int OUVERTURE = 16;
+    private static final int MONTANT_PRET = 24;
+    private static final int TAUX_INTERET = 32;
+    private static final int DUREE_PRET = 40;
+    private static final int LONGUEUR_NOM = 48;
+    private static final int NOM = 50;
+    static final int OCTETS_NOM = TAILLE_ENREGISTREMENT - NOM;
+
+    // Position des champs dans l'en-tête
+    private static final int ENTETE_MAGIQUE = 0;
+    private static final int ENTETE_VERSION = 4;
+    private static final int ENTETE_LIMITE = 8;
+
+    private final FileChannel canal;
+    private final MappedByteBuffer entete;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    private int limite;
+    private int[] lignesLibres = new int[16];
+    private int nbLibres;
+    private int taille;
+
+    /**
+     * Ouvre un stockage existant ou en crée un nouveau.
+     * À l'ouverture, seule la liste des lignes libres est reconstruite ; les enregistrements
+     * sont lus directement depuis la projection.
+     *
+     * @param fichier Le chemin du fichier de stockage
+     * @throws IOException si le fichier ne peut être ouvert ou n'est pas un stockage de comptes
+     */
+    public MappedAccountStore(Path fichier) throws IOException {
+        this.canal = FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        boolean nouveau = canal.size() == 0;
+        this.entete = canal.map(FileChannel.MapMode.READ_WRITE, 0, TAILLE_ENTETE);
+        entete.order(ByteOrder.LITTLE_ENDIAN);
+        if (nouveau) {
+            entete.putInt(ENTETE_MAGIQUE, MAGIQUE);
+            entete.putInt(ENTETE_VERSION, VERSION);
+            entete.putInt(ENTETE_LIMITE, 0);
+        } else if (entete.getInt(ENTETE_MAGIQUE) != MAGIQUE || entete.getInt(ENTETE_VERSION) != VERSION) {
+            canal.close();
+            throw new IOException("Fichier de comptes invalide : " + fichier);
+        }
+        this.limite = entete.getInt(ENTETE_LIMITE);
+        projeterSegments((limite + MASQUE_SEGMENT) >>> DECALAGE_SEGMENT);
+        for (int ligne = 0; ligne < limite; ligne++) {
+            if (getCodeIban(ligne) == Iban.INVALIDE) {
+                empilerLibre(ligne);
+            } else {
+                taille++;
+            }
+        }
+    }
+
+    @Override
+    public int ajouter(long codeIban, String titulaire, long solde, long ouverture) {
+        int ligne;
+        if (nbLibres > 0) {
+            ligne = lignesLibres[--nbLibres];
+        } else {
+            if (limite == capacite()) {
+                projeterSegments(segments.length + 1);
+            }
+            ligne = limite++;
+            entete.putInt(ENTETE_LIMITE, limite);
+        }
+        MappedByteBuffer segment = segment(ligne);
+        int base = position(ligne);
+        segment.putLong(base + SOLDE, solde);
+        segment.putLong(base + OUVERTURE, ouverture);
+        setTitulaire(ligne, titulaire);
+        // L'IBAN est écrit en dernier : il marque la ligne comme occupée
+        segment.putLong(base + IBAN, codeIban);
+        taille++;
+        return ligne;
+    }
+
+    @Override
+    public void liberer(int ligne) {
+        MappedByteBuffer segment = segment(ligne);
+        int base = position(ligne);
+        segment.putLong(base + IBAN, Iban.INVALIDE);
+        for (int i = SOLDE; i < NOM; i += 8) {
+            segment.putLong(base + i, 0L);
+        }
+        empilerLibre(ligne);
+        taille--;
+    }
+
+    @Override
+    public int taille() {
+        return taille;
+    }
+
+    @Override
+    public int capacite() {
+        return segments.length << DECALAGE_SEGMENT;
+    }
+
+    @Override
+    public int limite() {
+        return limite;
+    }
+
+    @Override
+    public long soldeTotal() {
+        long total = 0;
+        for (int ligne = 0; ligne < limite; ligne++) {
+            total = Math.addExact(total, getSolde(ligne));
+        }
+        return total;
+    }
+
+    @Override
+    public long interetsTotaux() {
+        long total = 0;
+        for (int ligne = 0; ligne < limite; ligne++) {
+            total = Math.addExact(total, Montant.interets(getMontantPret(ligne), getTauxInteret(ligne), getDureePret(ligne)));
+        }
+        return total;
+    }
+
+    @Override
+    public long getCodeIban(int ligne) {
+        return segment(ligne).getLong(position(ligne) + IBAN);
+    }
+
+    @Override
+    public String getTitulaire(int ligne) {
+        MappedByteBuffer segment = segment(ligne);
+        int base = position(ligne);
+        byte[] octets = new byte[segment.getShort(base + LONGUEUR_NOM)];
+        segment.get(base + NOM, octets);
+        return new String(octets, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Un nom dont l'encodage UTF-8 dépasse {@value #OCTETS_NOM} octets est tronqué sur une frontière de caractère.
+     */
+    @Override
+    public void setTitulaire(int ligne, String titulaire) {
+        byte[] octets = titulaire.getBytes(StandardCharsets.UTF_8);
+        int longueur = octets.length;
+        if (longueur > OCTETS_NOM) {
+            longueur = OCTETS_NOM;
+            // Recule jusqu'au début d'un caractère UTF-8
+            while ((octets[longueur] & 0xC0) == 0x80) {
+                longueur--;
+            }
+        }
+        MappedByteBuffer segment = segment(ligne);
+        int base = position(ligne);
+        segment.putShort(base + LONGUEUR_NOM, (short) longueur);
+        segment.put(base + NOM, octets, 0, longueur);
+    }
+
+    @Override
+    public long getSolde(int ligne) {
+        return segment(ligne).getLong(position(ligne) + SOLDE);
+    }
+
+    @Override
+    public void setSolde(int ligne, long solde) {
+        segment(ligne).putLong(position(ligne) + SOLDE, solde);
+    }
+
+    @Override
+    public long getOuverture(int ligne) {
+        return segment(ligne).getLong(position(ligne) + OUVERTURE);
+    }
+
+    @Override
+    public long getMontantPret(int ligne) {
+        return segment(ligne).getLong(position(ligne) + MONTANT_PRET);
+    }
+
+    @Override
+    public double getTauxInteret(int ligne) {
+        return segment(ligne).getDouble(position(ligne) + TAUX_INTERET);
+    }
+
+    @Override
+    public double getDureePret(int ligne) {
+        return segment(ligne).getDouble(position(ligne) + DUREE_PRET);
+    }
+
+    @Override
+    public void setPret(int ligne, long montant, double taux, double duree) {
+        MappedByteBuffer segment = segment(ligne);
+        int base = position(ligne);
+        segment.putLong(base + MONTANT_PRET, montant);
+        segment.putDouble(base + TAUX_INTERET, taux);
+        segment.putDouble(base + DUREE_PRET, duree);
+    }
+
+    /**
+     * Force l'écriture sur disque de toutes les pages modifiées.
+     */
+    public void forcer() {
+        entete.force();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Écrit les modifications sur disque et ferme le fichier.
+     *
+     * @throws IOException si la fermeture échoue
+     */
+    @Override
+    public void close() throws IOException {
+        forcer();
+        canal.close();
+    }
+
+    private MappedByteBuffer segment(int ligne) {
+        return segments[ligne >>> DECALAGE_SEGMENT];
+    }
+
+    private static int position(int ligne) {
+        return (ligne & MASQUE_SEGMENT) * TAILLE_ENREGISTREMENT;
+    }
+
+    private void empilerLibre(int ligne) {
+        if (nbLibres == lignesLibres.length) {
+            lignesLibres = Arrays.copyOf(lignesLibres, nbLibres * 2);
+        }
+        lignesLibres[nbLibres++] = ligne;
+    }
+
+    /**
+     * Projette les segments manquants jusqu'au nombre demandé, en agrandissant le fichier si nécessaire.
+     *
+     * @param nombre Le nombre total de segments voulus
+     */
+    private void projeterSegments(int nombre) {
+        if (nombre <= segments.length) {
+            return;
+        }
+        try {
+            MappedByteBuffer[] nouveaux = Arrays.copyOf(segments, nombre);
+            for (int i = segments.length; i < nombre; i++) {
+                nouveaux[i] = canal.map(FileChannel.MapMode.READ_WRITE, TAILLE_ENTETE + i * TAILLE_SEGMENT, TAILLE_SEGMENT);
+                nouveaux[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            segments = nouveaux;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de projeter le fichier de comptes", e);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Arithmétique monétaire en virgule fixe : un montant est un long exprimé en centimes d'euro.
+ * Les calculs sont exacts et contrôlent les débordements, sans objet intermédiaire ni BigDecimal.
+ */
+public final class Montant {
+    // Séparateur décimal de l'affichage, identique à celui de String.format("%.2f")
+    private static final char SEPARATEUR =
+            DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT)).getDecimalSeparator();
+    private static final long MILLION = 1_000_000;
+    // Diviseur des intérêts : pourcentage, taux et durée en millionièmes ; inférieur à 2^47
+    private static final long DIVISEUR_INTERETS = 100 * MILLION * MILLION;
+
+    private Montant() {
+    }
+
+    /**
+     * Additionne deux montants.
+     *
+     * @param a Premier montant en centimes
+     * @param b Second montant en centimes
+     * @return La somme en centimes
+     * @throws ArithmeticException en cas de débordement
+     */
+    public static long ajouter(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    /**
+     * Soustrait un montant d'un autre.
+     *
+     * @param a Montant de départ en centimes
+     * @param b Montant à retirer en centimes
+     * @return La différence en centimes
+     * @throws ArithmeticException en cas de débordement
+     */
+    public static long soustraire(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * Calcule les intérêts simples d'un prêt, arrondis au centime le plus proche (une moitié s'éloignant de zéro).
+     * Le taux et la durée sont pris au millionième près, puis le calcul est exact, en entiers sur 128 bits.
+     *
+     * @param montant Montant du prêt en centimes
+     * @param taux Taux d'intérêt annuel en pourcentage
+     * @param duree Durée du prêt en années
+     * @return Les intérêts en centimes
+     * @throws ArithmeticException si les intérêts, ou le produit du taux par la durée, débordent
+     */
+    public static long interets(long montant, double taux, double duree) {
+        long facteur = Math.multiplyExact(millioniemes(taux), millioniemes(duree));
+        boolean negatif = (montant < 0) != (facteur < 0);
+        long a = Math.absExact(montant);
+        long b = Math.absExact(facteur);
+        // Produit sur 128 bits divisé par tranches de 16 bits : le reste, inférieur au diviseur, tient sur 63 bits
+        long haut = Math.multiplyHigh(a, b);
+        long bas = a * b;
+        if (haut >= DIVISEUR_INTERETS) {
+            throw new ArithmeticException("Intérêts hors limites");
+        }
+        long quotient = 0;
+        long reste = haut;
+        for (int decalage = 48; decalage >= 0; decalage -= 16) {
+            if (quotient >>> 47 != 0) {
+                throw new ArithmeticException("Intérêts hors limites");
+            }
+            reste = (reste << 16) | ((bas >>> decalage) & 0xFFFF);
+            quotient = (quotient << 16) | (reste / DIVISEUR_INTERETS);
+            reste %= DIVISEUR_INTERETS;
+        }
+        if (reste * 2 >= DIVISEUR_INTERETS) {
+            quotient = Math.addExact(quotient, 1);
+        }
+        return negatif ? -quotient : quotient;
+    }
+
+    /**
+     * Convertit un taux ou une durée en millionièmes, arrondis au plus proche.
+     *
+     * @throws ArithmeticException si la valeur n'est pas finie ou dépasse 2^62 millionièmes
+     */
+    private static long millioniemes(double valeur) {
+        double echelonnee = valeur * MILLION;
+        if (!(Math.abs(echelonnee) < 0x1p62)) {
+            throw new ArithmeticException("Valeur hors limites : " + valeur);
+        }
+        return Math.round(echelonnee);
+    }
+
+    /**
+     * Convertit un montant saisi ("12", "12.5", "-3,40") en centimes, sans passer par un double.
+     *
+     * @param texte Le montant en euros, avec au plus deux décimales
+     * @return Le montant en centimes
+     * @throws NumberFormatException si le texte n'est pas un montant valide
+     */
+    public static long analyser(CharSequence texte) {
+        int longueur = texte.length();
+        int i = 0;
+        boolean negatif = false;
+        if (longueur > 0 && (texte.charAt(0) == '-' || texte.charAt(0) == '+')) {
+            negatif = texte.charAt(0) == '-';
+            i++;
+        }
+        long centimes = 0;
+        int chiffres = 0;
+        int decimales = -1; // -1 tant que le séparateur n'a pas été rencontré
+        for (; i < longueur; i++) {
+            char c = texte.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (decimales == 2) {
+                    throw new NumberFormatException("Plus de deux décimales : " + texte);
+                }
+                centimes = Math.addExact(Math.multiplyExact(centimes, 10), c - '0');
+                chiffres++;
+                if (decimales >= 0) {
+                    decimales++;
+                }
+            } else if ((c == '.' || c == ',') && decimales < 0) {
+                decimales = 0;
+            } else {
+                throw new NumberFormatException("Montant invalide : " + texte);
+            }
+        }
+        if (chiffres == 0) {
+            throw new NumberFormatException("Montant invalide : " + texte);
+        }
+        // Complète les décimales manquantes
+        for (int d = Math.max(decimales, 0); d < 2; d++) {
+            centimes = Math.multiplyExact(centimes, 10);
+        }
+        return negatif ? -centimes : centimes;
+    }
+
+    /**
+     * Écrit un montant en euros avec deux décimales, comme le ferait {@code String.format("%.2f")}.
+     *
+     * @param centimes Le montant en centimes
+     * @param sortie Le tampon de destination
+     * @return Le tampon, pour chaînage
+     */
+    public static StringBuilder formater(long centimes, StringBuilder sortie) {
+        return formater(centimes, SEPARATEUR, sortie);
+    }
+
+    /**
+     * Écrit un montant en euros avec deux décimales et un séparateur décimal donné.
+     *
+     * @param centimes Le montant en centimes
+     * @param separateur Le séparateur décimal
+     * @param sortie Le tampon de destination
+     * @return Le tampon, pour chaînage
+     */
+    public static StringBuilder formater(long centimes, char separateur, StringBuilder sortie) {
+        if (centimes < 0) {
+            sortie.append('-');
+        }
+        // Travaille sur la valeur négative pour couvrir Long.MIN_VALUE
+        long negatif = centimes < 0 ? centimes : -centimes;
+        sortie.append(-(negatif / 100)).append(separateur);
+        int reste = (int) -(negatif % 100);
+        return sortie.append((char) ('0' + reste / 10)).append((char) ('0' + reste % 10));
+    }
+
+    /**
+     * Convertit un montant en texte pour l'affichage.
+     *
+     * @param centimes Le montant en centimes
+     * @return Le montant en euros avec deux décimales
+     */
+    public static String formater(long centimes) {
+        return formater(centimes, new StringBuilder(24)).toString();
+    }
+}
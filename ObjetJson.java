@@ -0,0 +1,228 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lecture d'un objet JSON plat (valeurs chaînes, nombres, booléens ou null) directement dans un tampon
+ * d'octets, pour les corps de requêtes de l'{@link AccountHttpApi}. Les valeurs numériques sont lues sans
+ * créer de chaîne ; seules les chaînes demandées sont décodées.
+ * <p>
+ * Un lecteur réutilise ses tableaux d'un objet à l'autre : il n'est pas partagé entre threads.
+ */
+final class ObjetJson {
+    private static final int CHAMPS_MAX = 8;
+
+    private final int[] debutsCles = new int[CHAMPS_MAX];
+    private final int[] finsCles = new int[CHAMPS_MAX];
+    private final int[] debutsValeurs = new int[CHAMPS_MAX];
+    private final int[] finsValeurs = new int[CHAMPS_MAX];
+    private final boolean[] chaines = new boolean[CHAMPS_MAX];
+    private final VueOctets texte = new VueOctets();
+    private ByteBuffer octets;
+    private int nombre;
+
+    /**
+     * Repère les champs d'un objet.
+     *
+     * @param source Le tampon contenant l'objet, adossé à un tableau
+     * @param debut La position du premier octet
+     * @param fin La position suivant le dernier octet
+     * @return false si le texte n'est pas un objet JSON plat d'au plus {@value #CHAMPS_MAX} champs
+     */
+    boolean analyser(ByteBuffer source, int debut, int fin) {
+        octets = source;
+        nombre = 0;
+        int i = blancs(debut, fin);
+        if (i == fin || octets.get(i) != '{') {
+            return false;
+        }
+        i = blancs(i + 1, fin);
+        if (i < fin && octets.get(i) == '}') {
+            return blancs(i + 1, fin) == fin;
+        }
+        while (true) {
+            if (nombre == CHAMPS_MAX || i == fin || octets.get(i) != '"') {
+                return false;
+            }
+            debutsCles[nombre] = i + 1;
+            i = finChaine(i + 1, fin);
+            if (i < 0) {
+                return false;
+            }
+            finsCles[nombre] = i;
+            i = blancs(i + 1, fin);
+            if (i == fin || octets.get(i) != ':') {
+                return false;
+            }
+            i = blancs(i + 1, fin);
+            if (i == fin) {
+                return false;
+            }
+            chaines[nombre] = octets.get(i) == '"';
+            if (chaines[nombre]) {
+                debutsValeurs[nombre] = i + 1;
+                i = finChaine(i + 1, fin);
+                if (i < 0) {
+                    return false;
+                }
+                finsValeurs[nombre] = i++;
+            } else {
+                debutsValeurs[nombre] = i;
+                while (i < fin && octets.get(i) != ',' && octets.get(i) != '}' && octets.get(i) > ' ') {
+                    byte b = octets.get(i);
+                    if (b == '{' || b == '[' || b == '"') {
+                        return false;
+                    }
+                    i++;
+                }
+                finsValeurs[nombre] = i;
+                if (i == debutsValeurs[nombre]) {
+                    return false;
+                }
+            }
+            nombre++;
+            i = blancs(i, fin);
+            if (i == fin) {
+                return false;
+            }
+            if (octets.get(i) == '}') {
+                return blancs(i + 1, fin) == fin;
+            }
+            if (octets.get(i) != ',') {
+                return false;
+            }
+            i = blancs(i + 1, fin);
+        }
+    }
+
+    /**
+     * @return true si l'objet a le champ, même null
+     */
+    boolean contient(String cle) {
+        return indice(cle) >= 0;
+    }
+
+    /**
+     * @return true si le champ est absent ou vaut null
+     */
+    boolean estNul(String cle) {
+        int champ = indice(cle);
+        return champ < 0 || !chaines[champ] && egal(debutsValeurs[champ], finsValeurs[champ], "null");
+    }
+
+    /**
+     * Décode une valeur chaîne.
+     *
+     * @return La chaîne, ou null si le champ est absent ou n'est pas une chaîne
+     */
+    String chaine(String cle) {
+        int champ = indice(cle);
+        if (champ < 0 || !chaines[champ]) {
+            return null;
+        }
+        int debut = debutsValeurs[champ];
+        int longueur = finsValeurs[champ] - debut;
+        String brute = new String(octets.array(), octets.arrayOffset() + debut, longueur, StandardCharsets.UTF_8);
+        return brute.indexOf('\\') < 0 ? brute : desechapper(brute);
+    }
+
+    /**
+     * Lit un montant en euros, nombre ou chaîne (voir {@link Montant#analyser(CharSequence)}).
+     *
+     * @return Le montant en centimes
+     * @throws NumberFormatException si le champ est absent ou n'est pas un montant valide
+     * @throws ArithmeticException si le montant déborde
+     */
+    long montant(String cle) {
+        int champ = indice(cle);
+        if (champ < 0) {
+            throw new NumberFormatException(cle);
+        }
+        return Montant.analyser(texte.sur(octets, debutsValeurs[champ], finsValeurs[champ]));
+    }
+
+    /**
+     * Lit un nombre décimal positif (voir {@link ChampsCsv#decimal(ByteBuffer, int, int)}).
+     *
+     * @return Sa valeur, ou NaN si le champ est absent ou invalide
+     */
+    double decimal(String cle) {
+        int champ = indice(cle);
+        return champ < 0 ? Double.NaN : ChampsCsv.decimal(octets, debutsValeurs[champ], finsValeurs[champ]);
+    }
+
+    private int indice(String cle) {
+        for (int champ = 0; champ < nombre; champ++) {
+            if (egal(debutsCles[champ], finsCles[champ], cle)) {
+                return champ;
+            }
+        }
+        return -1;
+    }
+
+    private boolean egal(int debut, int fin, String mot) {
+        if (fin - debut != mot.length()) {
+            return false;
+        }
+        for (int i = 0; i < mot.length(); i++) {
+            if (octets.get(debut + i) != mot.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int blancs(int i, int fin) {
+        while (i < fin && (octets.get(i) == ' ' || octets.get(i) == '\t' || octets.get(i) == '\n'
+                || octets.get(i) == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return La position du guillemet fermant une chaîne, ou -1 s'il manque
+     */
+    private int finChaine(int i, int fin) {
+        while (i < fin) {
+            byte b = octets.get(i);
+            if (b == '"') {
+                return i;
+            }
+            i += b == '\\' ? 2 : 1;
+        }
+        return -1;
+    }
+
+    private static String desechapper(String brute) {
+        StringBuilder resultat = new StringBuilder(brute.length());
+        for (int i = 0; i < brute.length(); i++) {
+            char c = brute.charAt(i);
+            if (c != '\\' || i + 1 == brute.length()) {
+                resultat.append(c);
+                continue;
+            }
+            char echappe = brute.charAt(++i);
+            switch (echappe) {
+                case 'b' -> resultat.append('\b');
+                case 'f' -> resultat.append('\f');
+                case 'n' -> resultat.append('\n');
+                case 'r' -> resultat.append('\r');
+                case 't' -> resultat.append('\t');
+                case 'u' -> {
+                    int point = 0;
+                    for (int j = i + 1; j <= i + 4; j++) {
+                        int chiffre = j < brute.length() ? Character.digit(brute.charAt(j), 16) : -1;
+                        if (chiffre < 0) {
+                            throw new IllegalArgumentException("Échappement JSON invalide");
+                        }
+                        point = point << 4 | chiffre;
+                    }
+                    resultat.append((char) point);
+                    i += 4;
+                }
+                default -> resultat.append(echappe);
+            }
+        }
+        return resultat.toString();
+    }
+}
@@ -0,0 +1,192 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index ordonné des comptes par date d'ouverture, tenu à jour comme observateur du registre : comptes ouverts
+ * dans une période et effectifs par jour ou par mois d'ouverture (cohortes), sans parcourir le registre.
+ * <p>
+ * Les dates sont rangées telles que le stockage les garde, encodées par {@link AccountStore#encoderDate},
+ * dans un {@link ArbreLignes} : compter les comptes d'une période coûte deux descentes de l'arbre, une série
+ * de cohortes une descente par borne. Une date d'ouverture ne change pas : seuls les ajouts et suppressions
+ * de comptes modifient l'index, sous son verrou d'écriture ; les recherches prennent son verrou de lecture.
+ * <p>
+ * L'encodage couvre les dates de {@link #PREMIERE_DATE} à {@link #DERNIERE_DATE} : une borne de période
+ * au-delà est ramenée à la limite la plus proche, ce qui permet des périodes ouvertes (« jusqu'en 9999 »).
+ */
+public class OpeningDateIndex implements AccountListener {
+    /** Première date que peut porter un compte. */
+    public static final LocalDateTime PREMIERE_DATE = AccountStore.decoderDate(Long.MIN_VALUE);
+    /** Dernière date que peut porter un compte. */
+    public static final LocalDateTime DERNIERE_DATE = AccountStore.decoderDate(Long.MAX_VALUE);
+
+    private final AccountStore stockage;
+    private final ArbreLignes arbre = new ArbreLignes();
+    private final ReentrantReadWriteLock verrou = new ReentrantReadWriteLock();
+
+    /**
+     * Construit l'index des comptes déjà enregistrés et l'abonne aux modifications du registre.
+     * À créer avant que des sessions concurrentes ne modifient le registre.
+     *
+     * @param registre Le registre à indexer
+     */
+    public OpeningDateIndex(AccountRegistry registre) {
+        this.stockage = registre.stockage();
+        for (int ligne = registre.premiereLigne(); ligne >= 0; ligne = registre.ligneSuivante(ligne)) {
+            compteAjoute(stockage, ligne);
+        }
+        registre.ajouterEcouteur(this);
+    }
+
+    /**
+     * Compte les comptes ouverts dans une période.
+     *
+     * @param debut Le début de la période, inclus
+     * @param fin La fin de la période, exclue
+     * @return Le nombre de comptes
+     */
+    public int compter(LocalDateTime debut, LocalDateTime fin) {
+        verrou.readLock().lock();
+        try {
+            int avantFin = arbre.rang(borne(fin));
+            return Math.max(0, avantFin - arbre.rang(borne(debut)));
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recherche les comptes ouverts dans une période, du plus ancien au plus récent.
+     *
+     * @param debut Le début de la période, inclus
+     * @param fin La fin de la période, exclue
+     * @param limite Le nombre maximal de comptes à renvoyer
+     * @return Les clés compactes des IBAN, au plus {@code limite}
+     */
+    public long[] entre(LocalDateTime debut, LocalDateTime fin, int limite) {
+        long min = borne(debut);
+        long max = borne(fin);
+        if (max <= min) {
+            return new long[0];
+        }
+        verrou.readLock().lock();
+        try {
+            int[] lignes = arbre.entre(min, max - 1, limite);
+            long[] cles = new long[lignes.length];
+            for (int i = 0; i < lignes.length; i++) {
+                cles[i] = stockage.getCodeIban(lignes[i]);
+            }
+            return cles;
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compte les comptes ouverts chaque jour d'une série de jours consécutifs.
+     *
+     * @param premier Le premier jour
+     * @param jours Le nombre de jours
+     * @return Le nombre de comptes ouverts chaque jour
+     */
+    public int[] parJour(LocalDate premier, int jours) {
+        long[] bornes = new long[jours + 1];
+        for (int i = 0; i <= jours; i++) {
+            bornes[i] = borne(premier.plusDays(i).atStartOfDay());
+        }
+        return cohortes(bornes);
+    }
+
+    /**
+     * Compte les comptes ouverts chaque mois d'une série de mois consécutifs.
+     *
+     * @param premier Le premier mois
+     * @param mois Le nombre de mois
+     * @return Le nombre de comptes ouverts chaque mois
+     */
+    public int[] parMois(YearMonth premier, int mois) {
+        long[] bornes = new long[mois + 1];
+        for (int i = 0; i <= mois; i++) {
+            bornes[i] = borne(premier.plusMonths(i).atDay(1).atStartOfDay());
+        }
+        return cohortes(bornes);
+    }
+
+    /**
+     * @return Le nombre de comptes indexés
+     */
+    public int taille() {
+        verrou.readLock().lock();
+        try {
+            return arbre.taille();
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void compteAjoute(AccountStore stockage, int ligne) {
+        long ouverture = stockage.getOuverture(ligne);
+        verrou.writeLock().lock();
+        try {
+            arbre.placer(ligne, ouverture);
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void comptesAjoutes(AccountStore stockage, int[] lignes, int nombre) {
+        verrou.writeLock().lock();
+        try {
+            for (int i = 0; i < nombre; i++) {
+                arbre.placer(lignes[i], stockage.getOuverture(lignes[i]));
+            }
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void compteSupprime(AccountStore stockage, int ligne) {
+        verrou.writeLock().lock();
+        try {
+            arbre.enlever(ligne);
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Encode une borne de période, ramenée dans la plage des dates encodables.
+     */
+    private static long borne(LocalDateTime date) {
+        if (date.isBefore(PREMIERE_DATE)) {
+            return Long.MIN_VALUE;
+        }
+        if (date.isAfter(DERNIERE_DATE)) {
+            return Long.MAX_VALUE;
+        }
+        return AccountStore.encoderDate(date);
+    }
+
+    /**
+     * Effectifs entre bornes croissantes successives, lus sous un même verrou pour être cohérents entre eux.
+     */
+    private int[] cohortes(long[] bornes) {
+        int[] effectifs = new int[bornes.length - 1];
+        verrou.readLock().lock();
+        try {
+            int precedent = arbre.rang(bornes[0]);
+            for (int i = 1; i < bornes.length; i++) {
+                int rang = arbre.rang(bornes[i]);
+                effectifs[i - 1] = rang - precedent;
+                precedent = rang;
+            }
+        } finally {
+            verrou.readLock().unlock();
+        }
+        return effectifs;
+    }
+}
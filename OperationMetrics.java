@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * Compteurs et histogrammes de durée des opérations sur les comptes, quelle que soit la session
+ * qui les déclenche (menu, mode commandes, serveurs).
+ * <p>
+ * Une mesure coûte deux lectures de l'horloge et quelques incréments sans verrou (voir {@link LatencyHistogram}) ;
+ * elle n'est prise que si des métriques sont associées aux opérations.
+ */
+public class OperationMetrics {
+    /**
+     * Opérations mesurées.
+     */
+    public enum Operation {
+        CREATION("creation"),
+        CONSULTATION("consultation"),
+        MODIFICATION("modification"),
+        SUPPRESSION("suppression"),
+        PRET("pret"),
+        VIREMENT("virement"),
+        CREDIT("credit"),
+        DEBIT("debit"),
+        LISTAGE("listage"),
+        RECHERCHE("recherche");
+
+        private final String libelle;
+
+        Operation(String libelle) {
+            this.libelle = libelle;
+        }
+
+        /**
+         * @return Le nom de l'opération dans les rapports
+         */
+        public String getLibelle() {
+            return libelle;
+        }
+    }
+
+    private final LatencyHistogram[] histogrammes = new LatencyHistogram[Operation.values().length];
+    private final long demarrage = System.nanoTime();
+
+    /**
+     * Constructeur.
+     */
+    public OperationMetrics() {
+        for (int i = 0; i < histogrammes.length; i++) {
+            histogrammes[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Enregistre la durée d'une opération.
+     *
+     * @param operation L'opération
+     * @param debut L'instant de début, lu avec {@link System#nanoTime()}
+     */
+    public void enregistrer(Operation operation, long debut) {
+        histogrammes[operation.ordinal()].enregistrer(System.nanoTime() - debut);
+    }
+
+    /**
+     * @param operation L'opération
+     * @return Une copie figée de son histogramme
+     */
+    public LatencyHistogram.Instantane instantane(Operation operation) {
+        return histogrammes[operation.ordinal()].instantane();
+    }
+
+    /**
+     * Remet toutes les mesures à zéro.
+     */
+    public void reinitialiser() {
+        for (LatencyHistogram histogramme : histogrammes) {
+            histogramme.reinitialiser();
+        }
+    }
+
+    /**
+     * Met en forme les mesures des opérations déjà exécutées, durées en microsecondes.
+     *
+     * @return Un tableau lisible, une ligne par opération
+     */
+    public String rapport() {
+        StringBuilder sortie = new StringBuilder(String.format(Locale.ROOT, "%-13s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "nombre", "moyenne", "p50", "p99", "p999", "max"));
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Instantane mesures = instantane(operation);
+            if (mesures.getNombre() > 0) {
+                sortie.append(String.format(Locale.ROOT, "%-13s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                        operation.getLibelle(), mesures.getNombre(), mesures.getMoyenne() / 1e3,
+                        mesures.centile(0.5) / 1e3, mesures.centile(0.99) / 1e3, mesures.centile(0.999) / 1e3,
+                        mesures.getMax() / 1e3));
+            }
+        }
+        return sortie.toString();
+    }
+
+    /**
+     * Écrit toutes les mesures dans un fichier CSV (durées en nanosecondes), remplacé atomiquement
+     * pour qu'un outil qui le lit ne voie jamais un fichier partiel.
+     *
+     * @param fichier Le chemin du fichier
+     * @throws IOException si le fichier ne peut être écrit
+     */
+    public void exporter(Path fichier) throws IOException {
+        StringBuilder sortie = new StringBuilder("operation;nombre;moyenne_ns;p50_ns;p99_ns;p999_ns;max_ns;duree_s\n");
+        long duree = (System.nanoTime() - demarrage) / 1_000_000_000L;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Instantane mesures = instantane(operation);
+            sortie.append(operation.getLibelle()).append(';').append(mesures.getNombre()).append(';')
+                    .append(mesures.getMoyenne()).append(';').append(mesures.centile(0.5)).append(';')
+                    .append(mesures.centile(0.99)).append(';').append(mesures.centile(0.999)).append(';')
+                    .append(mesures.getMax()).append(';').append(duree).append('\n');
+        }
+        Path temporaire = fichier.resolveSibling(fichier.getFileName() + ".tmp");
+        Files.writeString(temporaire, sortie, StandardCharsets.UTF_8);
+        Files.move(temporaire, fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.function.Function;
+
+/**
+ * Copie réutilisable des champs d'un compte, prise sous le verrou de sa tranche puis mise en forme une fois
+ * le verrou relâché (mode commandes, API HTTP). Un relevé n'est pas partagé entre threads.
+ */
+final class ReleveCompte {
+    private final Function<CompteBancaire, Boolean> releveur = this::relever;
+
+    long cle;
+    String titulaire;
+    long solde;
+    long ouverture;
+    long pret;
+    double taux;
+    double duree;
+
+    /**
+     * Copie les champs d'un compte.
+     *
+     * @param operations Les opérations dont les verrous protègent le compte
+     * @param iban La clé du compte
+     * @return true si le compte existe
+     */
+    boolean lire(AccountOperations operations, long iban) {
+        cle = iban;
+        return operations.consulter(iban, releveur) != null;
+    }
+
+    /**
+     * Oublie le titulaire copié, pour ne pas retenir la chaîne jusqu'au relevé suivant.
+     */
+    void oublier() {
+        titulaire = null;
+    }
+
+    private Boolean relever(CompteBancaire compte) {
+        titulaire = compte.getTitulaire();
+        solde = compte.getSolde();
+        ouverture = AccountStore.encoderDate(compte.getDateOuverture());
+        pret = compte.getMontantPret();
+        taux = compte.getTauxInteret();
+        duree = compte.getDureePret();
+        return Boolean.TRUE;
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Générateur d'IBAN séquentiel : la partie nationale est un compteur global incrémenté à chaque appel.
+ * Simple et déterministe, il convient aux créations isolées ; en création massive concurrente,
+ * préférer {@link ShardedIbanGenerator}.
+ */
+public class SequenceIbanGenerator implements IbanGenerator {
+    // Prochaine partie nationale à attribuer
+    private final AtomicLong sequence;
+
+    /**
+     * Constructeur démarrant la séquence à 1.
+     */
+    public SequenceIbanGenerator() {
+        this(1);
+    }
+
+    /**
+     * Constructeur démarrant la séquence à une partie nationale donnée.
+     *
+     * @param depart La première partie nationale attribuée
+     */
+    public SequenceIbanGenerator(long depart) {
+        if (depart < 0 || depart >= Iban.BORNE_BBAN) {
+            throw new IllegalArgumentException("Départ de séquence hors limites : " + depart);
+        }
+        this.sequence = new AtomicLong(depart);
+    }
+
+    @Override
+    public long prochain() {
+        long bban = sequence.getAndIncrement();
+        if (bban >= Iban.BORNE_BBAN) {
+            throw new IllegalStateException("Plus aucun IBAN disponible");
+        }
+        return Iban.composer(bban);
+    }
+
+    @Override
+    public void reserver(long code) {
+        long bban = code % Iban.BORNE_BBAN;
+        sequence.accumulateAndGet(bban + 1, Math::max);
+    }
+}
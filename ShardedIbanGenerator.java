@@ -0,0 +1,91 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Générateur d'IBAN réparti : un petit nombre de blocs de parties nationales consécutives, partagés,
+ * sont distribués entre les threads selon leur identifiant. Le compteur global n'est touché qu'une fois
+ * par bloc et des créateurs concurrents se disputent rarement le même bloc ; ils ne se chevauchent jamais.
+ * Un thread de courte durée (fil virtuel d'une connexion, requête HTTP) poursuit un bloc entamé au lieu
+ * d'en réserver un neuf : seuls les blocs en cours, en nombre fixe, restent inachevés.
+ */
+public class ShardedIbanGenerator implements IbanGenerator {
+    private static final int TAILLE_BLOC_DEFAUT = 1024;
+
+    // Début du prochain bloc à distribuer
+    private final AtomicLong prochainBloc;
+    private final int tailleBloc;
+    // Blocs en cours, partagés entre les threads
+    private final Bloc[] blocs;
+
+    /**
+     * Constructeur avec des blocs de taille par défaut, démarrant à la partie nationale 1,
+     * et deux blocs en cours par processeur.
+     */
+    public ShardedIbanGenerator() {
+        this(1, TAILLE_BLOC_DEFAUT);
+    }
+
+    /**
+     * Constructeur.
+     *
+     * @param depart La première partie nationale distribuée
+     * @param tailleBloc Le nombre de parties nationales réservées à chaque fois
+     */
+    public ShardedIbanGenerator(long depart, int tailleBloc) {
+        this(depart, tailleBloc, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Constructeur.
+     *
+     * @param depart La première partie nationale distribuée
+     * @param tailleBloc Le nombre de parties nationales réservées à chaque fois
+     * @param nombreBlocs Le nombre minimal de blocs en cours, arrondi à la puissance de deux supérieure
+     */
+    public ShardedIbanGenerator(long depart, int tailleBloc, int nombreBlocs) {
+        if (depart < 0 || depart >= Iban.BORNE_BBAN) {
+            throw new IllegalArgumentException("Départ hors limites : " + depart);
+        }
+        if (tailleBloc <= 0) {
+            throw new IllegalArgumentException("La taille de bloc doit être positive : " + tailleBloc);
+        }
+        this.prochainBloc = new AtomicLong(depart);
+        this.tailleBloc = tailleBloc;
+        this.blocs = new Bloc[Integer.highestOneBit(Math.max(1, nombreBlocs - 1)) << 1];
+        for (int i = 0; i < blocs.length; i++) {
+            blocs[i] = new Bloc();
+        }
+    }
+
+    @Override
+    public long prochain() {
+        Bloc bloc = blocs[(int) Thread.currentThread().getId() & (blocs.length - 1)];
+        long bban;
+        synchronized (bloc) {
+            if (bloc.prochain == bloc.fin) {
+                // Bloc épuisé : en réserve un nouveau auprès du compteur global
+                long debut = prochainBloc.getAndAdd(tailleBloc);
+                if (debut >= Iban.BORNE_BBAN) {
+                    throw new IllegalStateException("Plus aucun IBAN disponible");
+                }
+                bloc.prochain = debut;
+                bloc.fin = Math.min(debut + tailleBloc, Iban.BORNE_BBAN);
+            }
+            bban = bloc.prochain++;
+        }
+        return Iban.composer(bban);
+    }
+
+    @Override
+    public void reserver(long code) {
+        long bban = code % Iban.BORNE_BBAN;
+        prochainBloc.accumulateAndGet(bban + 1, Math::max);
+    }
+
+    /**
+     * Bloc en cours : parties nationales de {@code prochain} (inclus) à {@code fin} (exclu).
+     */
+    private static final class Bloc {
+        long prochain;
+        long fin;
+    }
+}
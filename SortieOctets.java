@@ -0,0 +1,324 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sortie tamponnée vers un canal, avec mise en forme des nombres, dates et textes écrite à la main
+ * directement dans un tampon direct de taille fixe (export, mode commandes, serveurs).
+ * <p>
+ * Les écritures de champs supposent la place réservée par {@link #reserver(int)} ; les textes, de longueur
+ * quelconque, réservent eux-mêmes leur place. Une sortie n'est pas partagée entre threads.
+ */
+final class SortieOctets {
+    private static final long[] PUISSANCES_DIX = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+    private static final byte[] HEXADECIMAL = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final WritableByteChannel canal;
+    private final Runnable avantEcriture;
+    private final ByteBuffer tampon;
+    private final byte[] chiffres = new byte[20];
+
+    /**
+     * Constructeur.
+     *
+     * @param canal Le canal de destination
+     * @param capacite La taille du tampon, au moins 256 octets
+     */
+    SortieOctets(WritableByteChannel canal, int capacite) {
+        this(canal, capacite, null);
+    }
+
+    /**
+     * Constructeur.
+     *
+     * @param canal Le canal de destination
+     * @param capacite La taille du tampon, au moins 256 octets
+     * @param avantEcriture L'action exécutée avant chaque écriture dans le canal (attente de durabilité
+     *                      des opérations dont les réponses partent), ou null
+     */
+    SortieOctets(WritableByteChannel canal, int capacite, Runnable avantEcriture) {
+        this.canal = canal;
+        this.avantEcriture = avantEcriture;
+        this.tampon = ByteBuffer.allocateDirect(Math.max(256, capacite)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return Le tampon, pour les écritures binaires après {@link #reserver(int)}
+     */
+    ByteBuffer tampon() {
+        return tampon;
+    }
+
+    /**
+     * Vide le tampon si la place demandée n'y est plus disponible.
+     *
+     * @param octets La place nécessaire, au plus la capacité du tampon
+     * @throws IOException si l'écriture échoue
+     */
+    void reserver(int octets) throws IOException {
+        if (tampon.remaining() < octets) {
+            vider();
+        }
+    }
+
+    /**
+     * Écrit tout le contenu du tampon dans le canal.
+     *
+     * @throws IOException si l'écriture échoue
+     */
+    void vider() throws IOException {
+        tampon.flip();
+        ecrireTout(tampon);
+        tampon.clear();
+    }
+
+    /**
+     * Écrit un bloc d'octets après le contenu du tampon.
+     *
+     * @param octets Les octets à écrire
+     * @throws IOException si l'écriture échoue
+     */
+    void ecrire(byte[] octets) throws IOException {
+        if (octets.length <= tampon.capacity()) {
+            reserver(octets.length);
+            tampon.put(octets);
+        } else {
+            vider();
+            ecrireTout(ByteBuffer.wrap(octets));
+        }
+    }
+
+    /**
+     * Écrit un caractère ASCII.
+     */
+    void octet(char c) {
+        tampon.put((byte) c);
+    }
+
+    /**
+     * Écrit un texte en UTF-8.
+     *
+     * @param texte Le texte
+     * @param doublerGuillemets true pour doubler les guillemets (champ CSV entre guillemets)
+     * @throws IOException si l'écriture échoue
+     */
+    void utf8(CharSequence texte, boolean doublerGuillemets) throws IOException {
+        int longueur = texte.length();
+        // Au pire : trois octets par caractère, doublés pour les guillemets
+        boolean tientEntier = longueur * 6 <= tampon.capacity();
+        if (tientEntier) {
+            reserver(longueur * 6);
+        }
+        for (int i = 0; i < longueur; i++) {
+            if (!tientEntier) {
+                reserver(8);
+            }
+            char c = texte.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' && doublerGuillemets) {
+                    tampon.put((byte) '"');
+                }
+                tampon.put((byte) c);
+            } else {
+                i = nonAscii(texte, i, c);
+            }
+        }
+    }
+
+    /**
+     * Écrit une chaîne JSON entre guillemets, avec les échappements requis (guillemet, barre oblique
+     * inverse, caractères de contrôle) ; les autres caractères sont écrits en UTF-8.
+     *
+     * @param texte Le texte
+     * @throws IOException si l'écriture échoue
+     */
+    void chaineJson(CharSequence texte) throws IOException {
+        int longueur = texte.length();
+        // Au pire : six octets par caractère (caractère de contrôle échappé), plus les guillemets
+        boolean tientEntier = longueur * 6 + 2 <= tampon.capacity();
+        reserver(tientEntier ? longueur * 6 + 2 : 8);
+        tampon.put((byte) '"');
+        for (int i = 0; i < longueur; i++) {
+            if (!tientEntier) {
+                reserver(8);
+            }
+            char c = texte.charAt(i);
+            if (c >= 0x80) {
+                i = nonAscii(texte, i, c);
+            } else if (c == '"' || c == '\\') {
+                tampon.put((byte) '\\').put((byte) c);
+            } else if (c >= 0x20) {
+                tampon.put((byte) c);
+            } else if (c == '\n') {
+                tampon.put((byte) '\\').put((byte) 'n');
+            } else if (c == '\r') {
+                tampon.put((byte) '\\').put((byte) 'r');
+            } else if (c == '\t') {
+                tampon.put((byte) '\\').put((byte) 't');
+            } else {
+                tampon.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(HEXADECIMAL[c >> 4]).put(HEXADECIMAL[c & 0xF]);
+            }
+        }
+        reserver(1);
+        tampon.put((byte) '"');
+    }
+
+    /**
+     * Écrit un champ CSV, entre guillemets s'il contient le séparateur, un guillemet, une fin de ligne
+     * ou des espaces en bordure.
+     *
+     * @param texte Le texte du champ
+     * @param separateur Le séparateur de champs
+     * @throws IOException si l'écriture échoue
+     */
+    void champCsv(CharSequence texte, char separateur) throws IOException {
+        int longueur = texte.length();
+        boolean guillemets = longueur > 0 && (texte.charAt(0) == ' ' || texte.charAt(longueur - 1) == ' ');
+        for (int i = 0; i < longueur && !guillemets; i++) {
+            char c = texte.charAt(i);
+            guillemets = c == separateur || c == '"' || c == '\n' || c == '\r';
+        }
+        if (guillemets) {
+            reserver(1);
+            tampon.put((byte) '"');
+        }
+        utf8(texte, guillemets);
+        if (guillemets) {
+            reserver(1);
+            tampon.put((byte) '"');
+        }
+    }
+
+    /**
+     * Écrit un IBAN ("FR" suivi de 14 chiffres).
+     */
+    void iban(long cle) {
+        tampon.put((byte) 'F').put((byte) 'R');
+        chiffres(cle, Iban.CHIFFRES);
+    }
+
+    /**
+     * Écrit un montant en centimes sous la forme {@code -123.45}.
+     */
+    void montant(long centimes) {
+        if (centimes < 0) {
+            tampon.put((byte) '-');
+        }
+        entier(Math.abs(centimes / 100));
+        tampon.put((byte) '.');
+        chiffres(Math.abs(centimes % 100), 2);
+    }
+
+    /**
+     * Écrit un réel avec au plus six décimales lorsqu'il les représente exactement,
+     * sinon sous la forme de {@link Double#toString(double)}.
+     */
+    void decimal(double valeur) {
+        for (int decimales = 0; decimales < PUISSANCES_DIX.length; decimales++) {
+            double mise = valeur * PUISSANCES_DIX[decimales];
+            if (Math.abs(mise) < 1e15 && mise == Math.rint(mise) && mise / PUISSANCES_DIX[decimales] == valeur) {
+                long entier = (long) Math.abs(mise);
+                if (valeur < 0) {
+                    tampon.put((byte) '-');
+                }
+                entier(entier / PUISSANCES_DIX[decimales]);
+                if (decimales > 0) {
+                    tampon.put((byte) '.');
+                    chiffres(entier % PUISSANCES_DIX[decimales], decimales);
+                }
+                return;
+            }
+        }
+        tampon.put(Double.toString(valeur).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Écrit une date encodée par {@link AccountStore#encoderDate} au format {@code 2024-01-31T12:34:56.123456789}.
+     */
+    void date(long nanos) {
+        long secondes = Math.floorDiv(nanos, 1_000_000_000L);
+        long fraction = Math.floorMod(nanos, 1_000_000_000L);
+        long jours = Math.floorDiv(secondes, 86_400L);
+        long seconde = Math.floorMod(secondes, 86_400L);
+        // Conversion jours depuis l'époque -> date civile (calendrier grégorien proleptique)
+        long z = jours + 719_468;
+        long ere = Math.floorDiv(z, 146_097);
+        long jourEre = z - ere * 146_097;
+        long anneeEre = (jourEre - jourEre / 1_460 + jourEre / 36_524 - jourEre / 146_096) / 365;
+        long jourAnnee = jourEre - (365 * anneeEre + anneeEre / 4 - anneeEre / 100);
+        long moisDecale = (5 * jourAnnee + 2) / 153;
+        long jour = jourAnnee - (153 * moisDecale + 2) / 5 + 1;
+        long mois = moisDecale < 10 ? moisDecale + 3 : moisDecale - 9;
+        long annee = anneeEre + ere * 400 + (mois <= 2 ? 1 : 0);
+        chiffres(annee, 4);
+        tampon.put((byte) '-');
+        chiffres(mois, 2);
+        tampon.put((byte) '-');
+        chiffres(jour, 2);
+        tampon.put((byte) 'T');
+        chiffres(seconde / 3_600, 2);
+        tampon.put((byte) ':');
+        chiffres(seconde / 60 % 60, 2);
+        tampon.put((byte) ':');
+        chiffres(seconde % 60, 2);
+        tampon.put((byte) '.');
+        chiffres(fraction, 9);
+    }
+
+    /**
+     * Écrit un entier positif sans zéros à gauche.
+     */
+    void entier(long valeur) {
+        int n = 0;
+        do {
+            chiffres[n++] = (byte) ('0' + valeur % 10);
+            valeur /= 10;
+        } while (valeur > 0);
+        while (n > 0) {
+            tampon.put(chiffres[--n]);
+        }
+    }
+
+    /**
+     * Écrit un entier positif sur un nombre fixe de chiffres, complété à gauche par des zéros.
+     */
+    void chiffres(long valeur, int nombre) {
+        for (int i = nombre - 1; i >= 0; i--) {
+            chiffres[i] = (byte) ('0' + valeur % 10);
+            valeur /= 10;
+        }
+        tampon.put(chiffres, 0, nombre);
+    }
+
+    /**
+     * Écrit en UTF-8 un caractère non ASCII, avec le suivant s'ils forment une paire de substitution.
+     *
+     * @return L'indice du dernier caractère écrit
+     */
+    private int nonAscii(CharSequence texte, int i, char c) {
+        if (c < 0x800) {
+            tampon.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < texte.length() && Character.isLowSurrogate(texte.charAt(i + 1))) {
+            int point = Character.toCodePoint(c, texte.charAt(++i));
+            tampon.put((byte) (0xF0 | point >> 18)).put((byte) (0x80 | point >> 12 & 0x3F))
+                    .put((byte) (0x80 | point >> 6 & 0x3F)).put((byte) (0x80 | point & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            tampon.put((byte) '?'); // Demi-paire isolée, comme String.getBytes
+        } else {
+            tampon.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+        }
+        return i;
+    }
+
+    private void ecrireTout(ByteBuffer octets) throws IOException {
+        if (avantEcriture != null && octets.hasRemaining()) {
+            avantEcriture.run();
+        }
+        while (octets.hasRemaining()) {
+            canal.write(octets);
+        }
+    }
+}
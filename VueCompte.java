@@ -0,0 +1,78 @@
+import java.time.LocalDateTime;
+
+/**
+ * Vue poids plume d'une ligne d'un {@link AccountRegistry} sous la forme d'un {@link CompteBancaire}.
+ * Les accesseurs lisent directement le stockage ; les modifications passent par le registre,
+ * qui les notifie à ses observateurs.
+ */
+class VueCompte extends CompteBancaire {
+    private final AccountRegistry registre;
+    private final int ligne;
+
+    /**
+     * Constructeur.
+     *
+     * @param registre Le registre contenant le compte
+     * @param ligne Le numéro de la ligne du compte
+     */
+    VueCompte(AccountRegistry registre, int ligne) {
+        this.registre = registre;
+        this.ligne = ligne;
+    }
+
+    @Override
+    public String getTitulaire() {
+        return registre.stockage().getTitulaire(ligne);
+    }
+
+    @Override
+    public void setTitulaire(String titulaire) {
+        registre.modifierTitulaire(ligne, titulaire);
+    }
+
+    @Override
+    public long getSolde() {
+        return registre.stockage().getSolde(ligne);
+    }
+
+    @Override
+    public void setSolde(long solde) {
+        registre.modifierSolde(ligne, solde);
+    }
+
+    @Override
+    public long getCodeIban() {
+        return registre.stockage().getCodeIban(ligne);
+    }
+
+    @Override
+    public LocalDateTime getDateOuverture() {
+        return AccountStore.decoderDate(registre.stockage().getOuverture(ligne));
+    }
+
+    @Override
+    public long getMontantPret() {
+        return registre.stockage().getMontantPret(ligne);
+    }
+
+    @Override
+    public double getTauxInteret() {
+        return registre.stockage().getTauxInteret(ligne);
+    }
+
+    @Override
+    public double getDureePret() {
+        return registre.stockage().getDureePret(ligne);
+    }
+
+    @Override
+    protected void enregistrerPret(long montant, double taux, double duree) {
+        registre.definirPret(ligne, montant, taux, duree, Montant.ajouter(getSolde(), montant));
+    }
+
+    @Override
+    public String toString() {
+        // Lit le stockage sans reconstituer la date d'ouverture
+        return AccountRenderer.ecrire(registre.stockage(), ligne, new StringBuilder(160)).toString();
+    }
+}
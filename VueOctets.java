@@ -0,0 +1,50 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Vue réutilisable d'une plage d'octets ASCII sous la forme d'une {@link CharSequence}, pour passer un champ
+ * lu dans un tampon aux analyseurs ({@link Montant#analyser(CharSequence)}, {@link Iban#encoder(CharSequence)})
+ * sans créer de chaîne. Une vue n'est pas partagée entre threads.
+ */
+final class VueOctets implements CharSequence {
+    private ByteBuffer octets;
+    private int debut;
+    private int longueur;
+
+    /**
+     * Place la vue sur une plage d'octets, jusqu'au prochain appel.
+     *
+     * @param source Le tampon
+     * @param debut La position du premier octet
+     * @param fin La position suivant le dernier octet
+     * @return Cette vue
+     */
+    VueOctets sur(ByteBuffer source, int debut, int fin) {
+        this.octets = source;
+        this.debut = debut;
+        this.longueur = fin - debut;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return longueur;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (octets.get(debut + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        byte[] plage = new byte[longueur];
+        octets.get(debut, plage);
+        return new String(plage, StandardCharsets.ISO_8859_1);
+    }
+}
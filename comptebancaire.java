@@ -1,15 +1,17 @@
 import java.time.LocalDateTime;
-import java.util.Random;
 
 /**
  * Représente un compte bancaire avec un titulaire, un solde, un IBAN, une date d'ouverture et un prêt optionnel.
  */
 public class CompteBancaire {
+    // Générateur d'IBAN partagé par tous les comptes, remplaçable via setGenerateurIban
+    private static volatile IbanGenerator generateurIban = new ShardedIbanGenerator();
+
     private String titulaire;
-    private double solde;
-    private final String iban;
+    private long solde; // Solde en centimes, voir Montant
+    private final long iban; // IBAN compact (14 chiffres), voir Iban
     private final LocalDateTime dateOuverture;
-    private double montantPret; // Montant du prêt (0 si aucun prêt)
+    private long montantPret; // Montant du prêt en centimes (0 si aucun prêt)
     private double tauxInteret; // Taux d'intérêt annuel en % (ex. : 5 pour 5%)
     private double dureePret; // Durée du prêt en années
 
@@ -17,61 +19,97 @@ public class CompteBancaire {
      * Constructeur pour créer un compte bancaire sans prêt.
      *
      * @param titulaire Le nom du titulaire du compte
-     * @param solde Le solde initial du compte
+     * @param solde Le solde initial du compte, en centimes
      */
-    public CompteBancaire(String titulaire, double solde) {
+    public CompteBancaire(String titulaire, long solde) {
         this.titulaire = titulaire;
         this.solde = solde;
         this.iban = genererIban();
         this.dateOuverture = LocalDateTime.now();
-        this.montantPret = 0.0;
+        this.montantPret = 0;
         this.tauxInteret = 0.0;
         this.dureePret = 0.0;
     }
 
     /**
-     * Génération d'un IBAN simplifié commençant par "FR" suivi de 14 chiffres aléatoires.
+     * Constructeur réservé aux vues dont l'état est conservé ailleurs (voir {@link AccountStore}).
+     * Ces sous-classes redéfinissent tous les accesseurs ; les champs de cette classe restent inutilisés.
+     */
+    protected CompteBancaire() {
+        this.iban = Iban.INVALIDE;
+        this.dateOuverture = null;
+    }
+
+    /**
+     * Génération d'un IBAN simplifié commençant par "FR" suivi de 14 chiffres,
+     * unique parmi tous ceux attribués par le générateur courant.
      *
-     * @return L'IBAN généré
+     * @return La clé compacte de l'IBAN généré
      */
-    private String genererIban() {
-        Random random = new Random();
-        StringBuilder iban = new StringBuilder("FR");
-        for (int i = 0; i < 14; i++) {
-            iban.append(random.nextInt(10));
-        }
-        return iban.toString();
+    private long genererIban() {
+        return generateurIban.prochain();
+    }
+
+    /**
+     * Remplace le générateur d'IBAN utilisé pour les nouveaux comptes.
+     *
+     * @param generateur Le nouveau générateur
+     */
+    public static void setGenerateurIban(IbanGenerator generateur) {
+        generateurIban = generateur;
+    }
+
+    /**
+     * @return Le générateur d'IBAN utilisé pour les nouveaux comptes
+     */
+    public static IbanGenerator getGenerateurIban() {
+        return generateurIban;
     }
 
     /**
      * Demande un prêt et crédite le solde du compte.
      *
-     * @param montant Montant du prêt
+     * @param montant Montant du prêt en centimes
      * @param taux Taux d'intérêt annuel en pourcentage
      * @param duree Durée du prêt en années
      * @return true si le prêt est accepté, false sinon
+     * @throws ArithmeticException si le nouveau solde ou les intérêts du prêt débordent
      */
-    public boolean demanderPret(double montant, double taux, double duree) {
-        if (montant <= 0 || taux <= 0 || taux > 20 || duree <= 0 || montantPret > 0) {
+    public boolean demanderPret(long montant, double taux, double duree) {
+        if (montant <= 0 || taux <= 0 || taux > 20 || duree <= 0 || getMontantPret() > 0) {
             return false; // Prêt refusé si montant/durée/taux invalides ou prêt existant
         }
+        Montant.interets(montant, taux, duree); // Refuse un prêt dont les intérêts ne seraient pas calculables
+        enregistrerPret(montant, taux, duree);
+        return true;
+    }
+
+    /**
+     * Enregistre un prêt déjà validé et crédite son montant au solde.
+     *
+     * @param montant Montant du prêt en centimes
+     * @param taux Taux d'intérêt annuel en pourcentage
+     * @param duree Durée du prêt en années
+     */
+    protected void enregistrerPret(long montant, double taux, double duree) {
+        long nouveauSolde = Montant.ajouter(solde, montant); // Crédite le montant du prêt au solde
         this.montantPret = montant;
         this.tauxInteret = taux;
         this.dureePret = duree;
-        this.solde += montant; // Crédite le montant du prêt au solde
-        return true;
+        this.solde = nouveauSolde;
     }
 
     /**
      * Calcule les intérêts simples du prêt actif.
      *
-     * @return Les intérêts totaux, ou 0 si aucun prêt
+     * @return Les intérêts totaux en centimes, ou 0 si aucun prêt
      */
-    public double calculerInterets() {
-        if (montantPret == 0) {
-            return 0.0;
+    public long calculerInterets() {
+        long montant = getMontantPret();
+        if (montant == 0) {
+            return 0;
         }
-        return montantPret * (tauxInteret / 100) * dureePret; // Intérêts simples
+        return Montant.interets(montant, getTauxInteret(), getDureePret()); // Intérêts simples
     }
 
     // Getters et Setters
@@ -84,15 +122,22 @@ public class CompteBancaire {
         this.titulaire = titulaire;
     }
     @SuppressWarnings("unused")
-    public double getSolde() {
+    public long getSolde() {
         return solde;
     }
 
-    public void setSolde(double solde) {
+    public void setSolde(long solde) {
         this.solde = solde;
     }
 
     public String getIban() {
+        return Iban.formater(getCodeIban());
+    }
+
+    /**
+     * @return La clé compacte de l'IBAN, utilisée pour l'indexation
+     */
+    public long getCodeIban() {
         return iban;
     }
     @SuppressWarnings("unused")
@@ -100,7 +145,7 @@ public class CompteBancaire {
         return dateOuverture;
     }
 
-    public double getMontantPret() {
+    public long getMontantPret() {
         return montantPret;
     }
     @SuppressWarnings("unused")
@@ -115,17 +160,12 @@ public class CompteBancaire {
 
     /**
      * Affiche les informations du compte, incluant les détails du prêt si applicable.
+     * Voir {@link AccountRenderer} pour écrire dans un tampon réutilisé.
      *
      * @return Une chaîne représentant le compte
      */
     @Override
     public String toString() {
-        String baseInfo = String.format("IBAN: %s, Titulaire: %s, Solde: %.2f€, Ouverture: %s",
-                iban, titulaire, solde, dateOuverture);
-        if (montantPret > 0) {
-            baseInfo += String.format(", Prêt: %.2f€ (Taux: %.2f%%, Durée: %.1f ans, Intérêts: %.2f€)",
-                    montantPret, tauxInteret, dureePret, calculerInterets());
-        }
-        return baseInfo;
+        return AccountRenderer.texte(this);
     }
 }